@@ -0,0 +1,119 @@
+#!/usr/bin/env python3
+
+"""
+Hands files to a running Fiji, or launches Fiji if none is running.
+
+Usage: fiji-remote.py [<file>...] [--run <script-or-command> [<arg>]]
+                      [--edit [<file>...]] [<other launcher options>...]
+
+Starting a JVM just to find out that Fiji is already running takes seconds;
+this script takes milliseconds. It connects to the Unix domain socket on which
+a running Fiji listens (see sc.fiji.daemon.InstanceEndpoint) and forwards its
+arguments there. If no Fiji listens, or the arguments need a new Fiji (e.g.
+--headless or --allow-multiple), the Fiji launcher is started instead, with
+the same arguments.
+
+Point file associations and desktop entries at this script to open
+double-clicked files in the Fiji which is already running.
+"""
+
+import getpass
+import os
+import platform
+import socket
+import stat
+import struct
+import sys
+import tempfile
+
+APP_DIR = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+
+# Keep in sync with sc.fiji.daemon.DaemonProtocol.
+VERSION = 2
+OP_FORWARD = 4
+FRAME_EXIT = 3
+
+
+def socket_path():
+    """Mirrors DaemonProtocol.defaultSocket("instance")."""
+    runtime_dir = os.environ.get("XDG_RUNTIME_DIR")
+    if runtime_dir:
+        directory = os.path.join(runtime_dir, "fiji")
+    else:
+        directory = os.path.join(tempfile.gettempdir(), "fiji-" + getpass.getuser())
+    return os.path.join(directory, "instance.sock")
+
+
+def is_private(directory):
+    """Mirrors DaemonProtocol.checkDirectory: refuse directories other users
+    could have planted a socket in."""
+    if not hasattr(os, "getuid"):
+        return True
+    try:
+        info = os.lstat(directory)
+    except OSError:
+        return False
+    return (stat.S_ISDIR(info.st_mode) and info.st_uid == os.getuid()
+            and stat.S_IMODE(info.st_mode) == 0o700)
+
+
+def string(s):
+    """Mirrors DaemonProtocol.writeString."""
+    data = s.encode("utf-8")
+    return struct.pack(">i", len(data)) + data
+
+
+def forward(args):
+    """Returns True if a running Fiji accepted the arguments."""
+    if "--allow-multiple" in args or not hasattr(socket, "AF_UNIX"):
+        return False
+    path = socket_path()
+    if not is_private(os.path.dirname(path)):
+        return False
+    request = struct.pack(">ib", VERSION, OP_FORWARD)
+    request += string(os.getcwd())
+    request += struct.pack(">i", len(args))
+    for arg in args:
+        request += string(arg)
+    try:
+        with socket.socket(socket.AF_UNIX, socket.SOCK_STREAM) as s:
+            s.settimeout(5)
+            s.connect(path)
+            s.sendall(request)
+            answer = b""
+            while len(answer) < 9:
+                chunk = s.recv(9 - len(answer))
+                if not chunk:
+                    return False
+                answer += chunk
+    except OSError:
+        return False
+    frame, _, code = struct.unpack(">bii", answer)
+    return frame == FRAME_EXIT and code == 0
+
+
+def launcher():
+    """Finds the Fiji launcher for this platform."""
+    machine = platform.machine().lower()
+    arch = {"x86_64": "x64", "amd64": "x64", "aarch64": "arm64",
+            "arm64": "arm64"}.get(machine, "x32")
+    if sys.platform == "darwin":
+        return os.path.join(APP_DIR, "Fiji.app", "Contents", "MacOS",
+                            "fiji-macos-" + arch)
+    if sys.platform == "win32":
+        return os.path.join(APP_DIR, "fiji-windows-" + arch + ".exe")
+    return os.path.join(APP_DIR, "fiji-linux-" + arch)
+
+
+def main(args):
+    if forward(args):
+        return 0
+    executable = os.environ.get("FIJI_LAUNCHER") or launcher()
+    if sys.platform == "win32":
+        import subprocess
+        return subprocess.call([executable] + args)
+    os.execv(executable, [executable] + args)
+
+
+if __name__ == "__main__":
+    sys.exit(main(sys.argv[1:]))
@@ -55,6 +55,15 @@ The C++ handler is particularly important on macOS, where creating Qt/Cocoa
 widgets on the wrong thread triggers NSInternalInconsistencyException.
 Instead of crashing, we provide a helpful error message directing users
 to use @ensure_main_thread from the superqt package.
+
+Shared Memory
+-------------
+
+Large arrays can move between numpy and the JVM without copies through
+Fiji's SharedBufferService: `shared_array` allocates memory that both sides
+map, and `from_shared` wraps a buffer created on the Java side, e.g. by
+`SharedBufferService.share(imp)`. Each numpy array holds its own reference
+to the buffer, released when the array is garbage collected.
 """
 
 import logging
@@ -205,22 +214,88 @@ def maybe_block_until_quit(ij):
     """
     if ij and not in_interactive_inspect_mode():
         # Block until the SciJava Context is disposed and/or Java has shut down.
-        from time import sleep
+        # Wait in steps of 100 ms: Python only handles Ctrl+C between them.
+        try:
+            disposed = ij.get("sc.fiji.compat.FijiService").whenDisposed()
+            TimeUnit = scyjava.jimport("java.util.concurrent.TimeUnit")
+            TimeoutException = scyjava.jimport(
+                "java.util.concurrent.TimeoutException"
+            )
+            while True:
+                try:
+                    disposed.get(100, TimeUnit.MILLISECONDS)
+                    return
+                except TimeoutException:
+                    pass
+        except Exception as e:
+            if not scyjava.jvm_started():
+                # JVM has already shut down.
+                return
+            # Fiji without the shutdown latch; fall back to polling.
+            _logger.debug(e)
+        poll_until_disposed(ij)
+
+
+def poll_until_disposed(ij):
+    """Block until the SciJava Context is disposed, checking every 100 ms."""
+    from time import sleep
+
+    ctx = ij.context()
+    disposed = ctx.getClass().getDeclaredField("disposed")
+    disposed.setAccessible(True)
+    while True:
+        try:
+            if disposed.get(ctx):
+                break
+        except Exception as e:
+            if not scyjava.jvm_started():
+                # JVM has already shut down.
+                break
+            # Something else went wrong; log it.
+            _logger.debug(e)
+        sleep(0.1)
 
-        ctx = ij.context()
-        disposed = ctx.getClass().getDeclaredField("disposed")
-        disposed.setAccessible(True)
-        while True:
-            try:
-                if disposed.get(ctx):
-                    break
-            except Exception as e:
-                if not scyjava.jvm_started():
-                    # JVM has already shut down.
-                    break
-                # Something else went wrong; log it.
-                _logger.debug(e)
-            sleep(0.1)
+
+def shared_array(shape, dtype="float32", ij=None):
+    """
+    Allocate a numpy array in memory shared with the JVM.
+
+    Returns the array together with its Java-side SharedBuffer, which Java
+    code can read and write through SharedBuffer.chunk(int) without copying.
+    """
+    import numpy as np
+
+    ij = ij or _ij
+    dtype = np.dtype(dtype)
+    size = int(np.prod(shape)) * dtype.itemsize
+    buffer = ij.get("sc.fiji.python.SharedBufferService").allocate(size)
+    return from_shared(buffer, shape, dtype), buffer
+
+
+def from_shared(buffer, shape, dtype="float32"):
+    """
+    Wrap a Java SharedBuffer as a numpy array, without copying.
+
+    For buffers created by SharedBufferService.share(imp), the shape is
+    (planes, height, width) and the dtype is uint8, uint16, uint32 (RGB)
+    or float32, matching the image's bit depth.
+    """
+    import weakref
+
+    import numpy as np
+
+    buffer.retain()
+    array = np.memmap(
+        str(buffer.getPath()), dtype=np.dtype(dtype), mode="r+", shape=tuple(shape)
+    )
+    weakref.finalize(array, _release_shared, buffer)
+    return array
+
+
+def _release_shared(buffer):
+    """Drop a numpy array's reference to its SharedBuffer."""
+    if scyjava.jvm_started():
+        try_to(lambda: buffer.release())
 
 
 def try_to(do_something):
@@ -1,11 +1,11 @@
 (import '(java.awt Color)
-	'(java.awt.event TextListener))
+	'(java.awt.event TextListener)
+	'(sc.fiji.compat CommandIndex))
 
-; Commented out are three lines that would make the loop be with an integer iterator
-; As it is now it's a java.util.Iterator
+; Fiji keeps a fuzzy search index over all commands; ask it for the best
+; matches instead of looping over the command table.
 
-;(let [commands (. (.. ij.Menus (getCommands) (keySet)) (toArray))
-(let [commands (.. ij.Menus (getCommands) (keySet))
+(let [index (CommandIndex/getInstance)
       gd (new ij.gui.GenericDialog "Command Launcher")]
   (. gd (addStringField "Command: " "" ))
   (let [prompt (.. gd (getStringFields) (get 0))]
@@ -13,16 +13,26 @@
     (. prompt (addTextListener (proxy [TextListener] []
 		   (textValueChanged [tvc]
 				     (let [text (. prompt (getText))
-					   len (count commands)]
-				       ;(loop [i 0]
-				       (loop [it (. commands (iterator))]
-					     (if (. it (hasNext))
-					       ; (if (= text (aget commands i))
-					       (if (= text (. it (next)))
-						 (. prompt (setForeground (. Color black)))
-						 ;(recur (inc i)))
-						 (recur it)) ; needs as arguments a value for each variable declared in the loop 'let' statement; in this case, the very same iterator.
-					       (. prompt (setForeground (. Color red)))))))))))
+					   matches (. index (search text 5))]
+				       ; exact match: black, otherwise red
+				       (if (and (not (. matches (isEmpty)))
+						(= text (.. matches (get 0) (getLabel))))
+					 (. prompt (setForeground (. Color black)))
+					 (. prompt (setForeground (. Color red))))
+				       ; show the best guesses in the status bar
+				       (. ij.IJ (showStatus (str matches))))))))
   (. gd (showDialog))
   (if (not (. gd (wasCanceled)))
-   (. ij.IJ (doCommand (. gd (getNextString))))))
+    (let [command (. gd (getNextString))
+	  labels (map #(. % (getLabel)) (. index (search command 5)))]
+      ; execute only what was typed; ask before executing the best guess
+      (cond
+	(some #(= command %) labels)
+	  (. ij.IJ (doCommand command))
+	(empty? labels)
+	  (. ij.IJ (error "Command Launcher" (str "Unknown command: " command)))
+	(. ij.IJ (showMessageWithCancel "Command Launcher"
+		   (str "Unknown command: " command "\nRun \"" (first labels)
+			"\" instead?\n \nOther matches: "
+			(apply str (interpose ", " (rest labels))))))
+	  (. ij.IJ (doCommand (first labels))))))))
@@ -1,10 +1,10 @@
 // Crude java-like version by Albert Cardona
 importClass(Packages.ij.IJ);
-importClass(Packages.ij.Menus);
 importClass(Packages.ij.gui.GenericDialog);
-importClass(Packages.java.util.ArrayList);
-commands = Menus.getCommands();
-keys = new ArrayList(commands.keySet());
+importClass(Packages.sc.fiji.compat.CommandIndex);
+
+// Fiji keeps a fuzzy search index over all commands
+index = CommandIndex.getInstance();
 
 gd = new GenericDialog("Command Launcher");
 gd.addStringField("Command: ", "");
@@ -16,15 +16,15 @@ prom.setForeground(Color.red);
 // since 'new' cannot be called directly on an interface
 body = { textValueChanged: function(evt) {
 		text = prom.getText();
-		for (i=0;i<keys.size();i++) {
-			command = keys.get(i);
-			if (command.equals(text)) {
-				prom.setForeground(Color.black);
-				return;
-			}
+		matches = index.search(text, 5);
+		// exact match: black, otherwise red
+		if (!matches.isEmpty() && matches.get(0).getLabel().equals(text)) {
+			prom.setForeground(Color.black);
+		} else {
+			prom.setForeground(Color.red);
 		}
-		// no command found
-		prom.setForeground(Color.red);
+		// show the best guesses in the status bar
+		IJ.showStatus(matches.toString());
 	}
 }
 importClass(Packages.java.awt.event.TextListener);
@@ -32,5 +32,22 @@ prom.addTextListener(new TextListener(body));
 
 gd.showDialog();
 if (!gd.wasCanceled()) {
-	IJ.doCommand(gd.getNextString());
+	command = gd.getNextString();
+	matches = index.search(command, 5);
+	// execute only what was typed; ask before executing the best guess
+	exact = false;
+	for (i = 0; i < matches.size(); i++) {
+		if (matches.get(i).getLabel().equals(command)) exact = true;
+	}
+	if (exact) {
+		IJ.doCommand(command);
+	} else if (matches.isEmpty()) {
+		IJ.error("Command Launcher", "Unknown command: " + command);
+	} else {
+		best = matches.get(0).getLabel();
+		if (IJ.showMessageWithCancel("Command Launcher", "Unknown command: " + command
+				+ "\nRun \"" + best + "\" instead?\n \nOther matches: " + matches.subList(1, matches.size()))) {
+			IJ.doCommand(best);
+		}
+	}
 }
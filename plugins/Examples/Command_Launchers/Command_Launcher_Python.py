@@ -1,12 +1,11 @@
 from java.awt import Color
 from java.awt.event import TextListener
 from ij import IJ
-from ij import Menus
 from ij.gui import GenericDialog
+from sc.fiji.compat import CommandIndex
 
-#commands = [c for c in ij.Menus.getCommands().keySet()]
-# Above, equivalent list as below:
-commands = Menus.getCommands().keySet().toArray()
+# Fiji keeps a fuzzy search index over all commands
+index = CommandIndex.getInstance()
 gd = GenericDialog('Command Launcher')
 gd.addStringField('Command: ', '');
 prompt = gd.getStringFields().get(0)
@@ -14,21 +13,30 @@ prompt.setForeground(Color.red)
 
 class TypeListener(TextListener):
 	def textValueChanged(self, tvc):
-		if prompt.getText() in commands:
+		text = prompt.getText()
+		matches = index.search(text, 5)
+		# exact match: black, otherwise red
+		if matches and matches[0].getLabel() == text:
 			prompt.setForeground(Color.black)
-			return
-		prompt.setForeground(Color.red)
-		# or loop:
-		#for c in commands:
-		#	if c == text:
-		#		prompt.setForeground(Color.black)
-		#		return
-		#
-		#prompt.setForeground(Color.red)
+		else:
+			prompt.setForeground(Color.red)
+		# show the best guesses in the status bar
+		IJ.showStatus(', '.join([m.getLabel() for m in matches]))
 
 prompt.addTextListener(TypeListener())
 gd.showDialog()
-if not gd.wasCanceled(): IJ.doCommand(gd.getNextString())
+if not gd.wasCanceled():
+	command = gd.getNextString()
+	matches = index.search(command, 5)
+	labels = [m.getLabel() for m in matches]
+	# run only what was typed; ask before running a guess
+	if command in labels:
+		IJ.doCommand(command)
+	elif not labels:
+		IJ.error('Command Launcher', 'Unknown command: ' + command)
+	elif IJ.showMessageWithCancel('Command Launcher', 'Unknown command: ' + command
+			+ '\nRun "' + labels[0] + '" instead?\n \nOther matches: ' + ', '.join(labels[1:])):
+		IJ.doCommand(labels[0])
 
 # This python version does not encapsulate the values of the variables, so they are all global when defined outside the class definition.
 # In contrast, the lisp 'let' definitions encapsulates them in full
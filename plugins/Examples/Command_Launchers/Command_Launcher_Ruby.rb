@@ -1,5 +1,6 @@
 include_class 'java.awt.Color'
 include_class 'java.awt.event.TextListener'
+include_class 'sc.fiji.compat.CommandIndex'
  
 class TypeListener
  
@@ -7,23 +8,28 @@ class TypeListener
   # a Java interface:
   include TextListener
  
-  def initialize(commands,prompt)
-    @commands = commands
+  def initialize(index,prompt)
+    @index = index
     @prompt = prompt
   end
  
   def textValueChanged(tvc)
     text = @prompt.getText
-    if @commands.include? text
+    matches = @index.search text, 5
+    # exact match: black, otherwise red
+    if !matches.isEmpty && matches.get(0).getLabel == text
       @prompt.setForeground Color.black
     else
       @prompt.setForeground Color.red
     end
+    # show the best guesses in the status bar
+    ij.IJ.showStatus matches.toString
   end
  
 end
  
-commands = ij.Menus.getCommands.keySet.toArray
+# Fiji keeps a fuzzy search index over all commands
+index = CommandIndex.getInstance
  
 gd = ij.gui.GenericDialog.new 'CommandLauncher'
 gd.addStringField 'Command: ', ''
@@ -31,9 +37,19 @@ gd.addStringField 'Command: ', ''
 prompt = gd.getStringFields[0]
 prompt.setForeground Color.red
  
-prompt.addTextListener TypeListener.new( commands, prompt )
+prompt.addTextListener TypeListener.new( index, prompt )
  
 gd.showDialog
 unless gd.wasCanceled
-  ij.IJ.doCommand gd.getNextString
+  command = gd.getNextString
+  labels = index.search(command, 5).map { |m| m.getLabel }
+  # execute only what was typed; ask before executing the best guess
+  if labels.include? command
+    ij.IJ.doCommand command
+  elsif labels.empty?
+    ij.IJ.error 'Command Launcher', "Unknown command: #{command}"
+  elsif ij.IJ.showMessageWithCancel 'Command Launcher', "Unknown command: #{command}\n" +
+      "Run \"#{labels[0]}\" instead?\n \nOther matches: #{labels[1..-1].join ', '}"
+    ij.IJ.doCommand labels[0]
+  end
 end
@@ -14,6 +14,7 @@ import random
 from fiji.util import CoverMakerUtils
 from fiji.util.gui import GenericDialogPlus
 from mpicbg.ij.integral import Scale
+from sc.fiji.compat import PlaneCache
 from java.awt.event import ActionListener, TextListener
 from java.lang import Float
 from loci.formats.gui import BufferedImageReader
@@ -147,8 +148,8 @@ def SaveCoverFromFs(tiles, newwidth, newheight, cols, rows):
 		else:
 			y = 0
 			x += 1
-		imp = IJ.openImage(str(tiles[i]))
-		scale = Scale(imp.getProcessor())
+		# the same tile is placed many times; decode it only once
+		scale = Scale(PlaneCache.getDefault().getPlane(str(tiles[i]), 1))
 		ipscaled = ScaleImageToSize(scale, tilewidth, tileheight)
 		hiresoutip.copyBits(ipscaled, x*tilewidth, y*tileheight, 0)
 		hiresout.draw()
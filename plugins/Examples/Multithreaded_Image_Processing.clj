@@ -37,6 +37,15 @@
 ; (such as by lines) and apply to each subdivision your function, in a
 ; multithreaded way, with the "multithreader" macro.
 ;
+;
+; For real work, consider sc.fiji.compat.Parallel, which runs such loops on a
+; shared pool honouring Edit>Options>Memory & Threads... and picks the chunk
+; sizes by itself, e.g.:
+;
+;   (sc.fiji.compat.Parallel/forRange 0 (.getHeight ip)
+;     (reify sc.fiji.compat.Parallel$IndexTask
+;       (run [this y] (line-randomizer y pixels width))))
+;
 ; See http://clojure.org for general documentation on Clojure
 ; See http://fiji.sc/wiki/index.php/Clojure_Scripting for help on
 ; using Clojure with ImageJ
@@ -162,3 +162,20 @@ multithreader(randomizer, 0, n_blocks,
 imp.getProcessor().setMinAndMax(0, 1); // random values between 0 and 1
 imp.show();
 
+
+
+// Fiji also ships a ready-made multithreader, sc.fiji.compat.Parallel, which
+// runs on a shared pool honouring Edit>Options>Memory & Threads..., picks the
+// chunk sizes by itself and passes on any exception thrown by the function.
+// The same randomization, one line per index:
+//
+// importClass(Packages.sc.fiji.compat.Parallel);
+// Parallel.forRange(0, height, function(y) {
+// 	var offset = y * width;
+// 	for (var x = 0; x < width; x++) {
+// 		pix[offset + x] = Math.random();
+// 	}
+// });
+//
+// There are also Parallel.forSlices(imp, function(ip, slice) { ... }) and
+// Parallel.forTiles(ip, tileWidth, tileHeight, function(ip, rect) { ... }).
@@ -1,3 +1,6 @@
+# For CPU time, contention and origin per thread, see
+# Plugins>Utilities>Thread Monitor... (sc.fiji.compat.ThreadMonitor).
+
 from jarray import zeros
 from java.lang import *
 
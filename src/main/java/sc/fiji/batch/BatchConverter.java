@@ -0,0 +1,525 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.batch;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.io.FileSaver;
+import ij.process.ImageConverter;
+import ij.process.StackConverter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import sc.fiji.compat.PlaneCache;
+
+/**
+ * Converts a directory of images in a pipeline of concurrent stages.
+ * <p>
+ * Each file passes through four stages, each with its own thread pool and
+ * bounded queue:
+ * </p>
+ * <ol>
+ * <li><em>read</em> streams the file from disk, so that it is in the page
+ * cache by the time it is decoded;</li>
+ * <li><em>decode</em> opens the image;</li>
+ * <li><em>convert</em> changes its pixel type, if requested;</li>
+ * <li><em>write</em> encodes the image and saves it.</li>
+ * </ol>
+ * <p>
+ * A stage whose queue is full blocks the stage feeding it, so that a slow
+ * disk or a slow decoder throttles the whole pipeline instead of filling the
+ * heap. The I/O stages and the CPU stages overlap, keeping both the disks
+ * and the cores busy.
+ * </p>
+ * <p>
+ * The relative path of each converted file is appended to a checkpoint file
+ * in the target directory. A run which is interrupted can be resumed: files
+ * listed in the checkpoint are skipped.
+ * </p>
+ */
+public class BatchConverter {
+
+	/** Name of the checkpoint file in the target directory. */
+	public static final String CHECKPOINT = ".fiji-batch-convert.checkpoint";
+
+	/** The supported output formats. */
+	public enum Format {
+			TIFF("tif"), ZIP("zip"), PNG("png"), JPEG("jpg");
+
+		private final String extension;
+
+		Format(final String extension) {
+			this.extension = extension;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+	}
+
+	/** The supported pixel type conversions. */
+	public enum PixelType {
+			UNCHANGED, GRAY8, GRAY16, GRAY32, RGB
+	}
+
+	private final Path source;
+	private final Path target;
+
+	private boolean recursive;
+	private Set<String> extensions;
+	private Format format = Format.TIFF;
+	private PixelType pixelType = PixelType.UNCHANGED;
+	private boolean resume = true;
+	private int readThreads = 2;
+	private int decodeThreads = Prefs.getThreads();
+	private int convertThreads = Math.max(1, Prefs.getThreads() / 2);
+	private int writeThreads = 2;
+	private int queueCapacity = 16;
+	private Consumer<Report> progress;
+	private PlaneCache planeCache;
+
+	private volatile boolean canceled;
+
+	public BatchConverter(final Path source, final Path target) {
+		this.source = source;
+		this.target = target;
+	}
+
+	// -- Configuration --
+
+	/** Whether to descend into subdirectories, mirroring them in the target. */
+	public BatchConverter setRecursive(final boolean recursive) {
+		this.recursive = recursive;
+		return this;
+	}
+
+	/**
+	 * Restricts the conversion to files with the given extensions, e.g.
+	 * {@code "tif", "png"}. By default, all files are tried.
+	 */
+	public BatchConverter setExtensions(final String... extensions) {
+		if (extensions == null || extensions.length == 0) this.extensions = null;
+		else {
+			this.extensions = new HashSet<>();
+			for (final String extension : extensions) {
+				this.extensions.add(extension.toLowerCase(Locale.ROOT).replaceFirst(
+					"^\\.", ""));
+			}
+		}
+		return this;
+	}
+
+	public BatchConverter setFormat(final Format format) {
+		this.format = format;
+		return this;
+	}
+
+	public BatchConverter setPixelType(final PixelType pixelType) {
+		this.pixelType = pixelType;
+		return this;
+	}
+
+	/** Whether to skip the files listed in an existing checkpoint. */
+	public BatchConverter setResume(final boolean resume) {
+		this.resume = resume;
+		return this;
+	}
+
+	public BatchConverter setThreads(final int read, final int decode,
+		final int convert, final int write)
+	{
+		readThreads = Math.max(1, read);
+		decodeThreads = Math.max(1, decode);
+		convertThreads = Math.max(1, convert);
+		writeThreads = Math.max(1, write);
+		return this;
+	}
+
+	/** Sets how many files may wait in front of each stage. */
+	public BatchConverter setQueueCapacity(final int capacity) {
+		queueCapacity = Math.max(1, capacity);
+		return this;
+	}
+
+	/** Sets a listener called after each file, from the write threads. */
+	public BatchConverter setProgress(final Consumer<Report> progress) {
+		this.progress = progress;
+		return this;
+	}
+
+	/**
+	 * Sets the cache consulted before decoding a file; null decodes every file.
+	 * By default, no cache is used: a batch conversion reads each file once, so
+	 * caching its planes would only evict those of files which are reopened.
+	 */
+	public BatchConverter setPlaneCache(final PlaneCache planeCache) {
+		this.planeCache = planeCache;
+		return this;
+	}
+
+	/** Stops submitting files; those already in the pipeline are finished. */
+	public void cancel() {
+		canceled = true;
+	}
+
+	// -- Conversion --
+
+	/**
+	 * Runs the conversion, returning when all files are done.
+	 *
+	 * @return the statistics of the run
+	 */
+	public Report run() throws IOException, InterruptedException {
+		Files.createDirectories(target);
+		final Path checkpointFile = target.resolve(CHECKPOINT);
+		final Set<String> done = new HashSet<>();
+		if (resume && Files.exists(checkpointFile)) {
+			done.addAll(Files.readAllLines(checkpointFile, StandardCharsets.UTF_8));
+		}
+
+		final Report report = new Report();
+		final Stage read = new Stage("read", readThreads, report.read);
+		final Stage decode = new Stage("decode", decodeThreads, report.decode);
+		final Stage convert = new Stage("convert", convertThreads,
+			report.convert);
+		final Stage write = new Stage("write", writeThreads, report.write);
+
+		try (final BufferedWriter checkpoint = Files.newBufferedWriter(
+			checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+			resume ? StandardOpenOption.APPEND
+				: StandardOpenOption.TRUNCATE_EXISTING);
+				final Stream<Path> files = recursive ? Files.walk(source) : Files.list(
+					source))
+		{
+			final Iterator<Path> iterator = files.iterator();
+			while (iterator.hasNext() && !canceled) {
+				final Path file = iterator.next();
+				if (!Files.isRegularFile(file) || !accepts(file) || file.startsWith(
+					target)) continue;
+				final String relative = relative(file);
+				if (done.contains(relative)) {
+					report.skipped.incrementAndGet();
+					continue;
+				}
+				report.submitted.incrementAndGet();
+				read.submit(() -> {
+					// a cached image need not be read at all
+					if (planeCache == null || !planeCache.contains(file.toString())) {
+						report.bytesRead.add(prefetch(file));
+					}
+					decode.submit(() -> {
+						final ImagePlus imp = planeCache == null ? IJ.openImage(file
+							.toString()) : planeCache.openImage(file.toString());
+						if (imp == null) throw new IOException("Could not open " + file);
+						convert.submit(() -> {
+							convert(imp);
+							write.submit(() -> {
+								report.bytesWritten.add(save(imp, relative));
+								imp.close();
+								synchronized (checkpoint) {
+									checkpoint.write(relative);
+									checkpoint.newLine();
+									checkpoint.flush();
+								}
+								report.converted.incrementAndGet();
+								if (progress != null) progress.accept(report);
+							}, report, relative);
+						}, report, relative);
+					}, report, relative);
+				}, report, relative);
+			}
+			// Each stage only feeds the next one, so they can be drained in order.
+			read.finish();
+			decode.finish();
+			convert.finish();
+			write.finish();
+		}
+		finally {
+			read.abort();
+			decode.abort();
+			convert.abort();
+			write.abort();
+		}
+		report.elapsed = System.nanoTime() - report.start;
+		return report;
+	}
+
+	// -- Helper methods --
+
+	private boolean accepts(final Path file) {
+		final String name = file.getFileName().toString();
+		if (name.startsWith(".")) return false;
+		if (extensions == null) return true;
+		final int dot = name.lastIndexOf('.');
+		return dot >= 0 && extensions.contains(name.substring(dot + 1).toLowerCase(
+			Locale.ROOT));
+	}
+
+	private String relative(final Path file) {
+		return source.relativize(file).toString().replace('\\', '/');
+	}
+
+	/** Reads the file through, so that decoding it does not wait for the disk. */
+	private static long prefetch(final Path file) throws IOException {
+		final byte[] buffer = new byte[1 << 20];
+		long total = 0;
+		try (final InputStream in = Files.newInputStream(file)) {
+			for (int count; (count = in.read(buffer)) > 0;)
+				total += count;
+		}
+		return total;
+	}
+
+	private void convert(final ImagePlus imp) {
+		if (pixelType == PixelType.UNCHANGED) return;
+		final boolean stack = imp.getStackSize() > 1;
+		final ImageConverter image = stack ? null : new ImageConverter(imp);
+		final StackConverter stackConverter = stack ? new StackConverter(imp)
+			: null;
+		switch (pixelType) {
+			case GRAY8:
+				if (imp.getType() == ImagePlus.GRAY8) return;
+				if (stack) stackConverter.convertToGray8();
+				else image.convertToGray8();
+				break;
+			case GRAY16:
+				if (imp.getType() == ImagePlus.GRAY16) return;
+				if (stack) stackConverter.convertToGray16();
+				else image.convertToGray16();
+				break;
+			case GRAY32:
+				if (imp.getType() == ImagePlus.GRAY32) return;
+				if (stack) stackConverter.convertToGray32();
+				else image.convertToGray32();
+				break;
+			case RGB:
+				if (imp.getType() == ImagePlus.COLOR_RGB) return;
+				if (stack) stackConverter.convertToRGB();
+				else image.convertToRGB();
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * Saves the image below the target directory, first under a temporary name,
+	 * so that an interrupted run never leaves a truncated file behind.
+	 *
+	 * @return the size of the written file
+	 */
+	private long save(final ImagePlus imp, final String relative)
+		throws IOException
+	{
+		String name = relative;
+		if (!name.toLowerCase(Locale.ROOT).endsWith("." + format.getExtension())) {
+			name += "." + format.getExtension();
+		}
+		final Path path = target.resolve(name);
+		if (path.getParent() != null) Files.createDirectories(path.getParent());
+		final Path tmp = path.resolveSibling(".~" + path.getFileName());
+		final FileSaver saver = new FileSaver(imp);
+		final String tmpPath = tmp.toString();
+		final boolean success;
+		switch (format) {
+			case ZIP:
+				success = saver.saveAsZip(tmpPath);
+				break;
+			case PNG:
+				success = saver.saveAsPng(tmpPath);
+				break;
+			case JPEG:
+				success = saver.saveAsJpeg(tmpPath);
+				break;
+			default:
+				success = imp.getStackSize() > 1 ? saver.saveAsTiffStack(tmpPath)
+					: saver.saveAsTiff(tmpPath);
+		}
+		if (!success) throw new IOException("Could not write " + path);
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		return Files.size(path);
+	}
+
+	/** A unit of work of a stage. */
+	private interface Task {
+
+		void run() throws Exception;
+	}
+
+	/**
+	 * A thread pool with a bounded queue, whose {@link #submit} blocks while the
+	 * queue is full.
+	 */
+	private class Stage {
+
+		private final ThreadPoolExecutor executor;
+		private final LongAdder busy;
+
+		private Stage(final String name, final int threads, final LongAdder busy) {
+			this.busy = busy;
+			final AtomicInteger count = new AtomicInteger();
+			final ThreadFactory factory = r -> {
+				final Thread thread = new Thread(r, "batch-convert-" + name + "-" +
+					count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+			executor = new ThreadPoolExecutor(threads, threads, 0,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+				factory, (r, pool) -> {
+					if (pool.isShutdown()) throw new RejectedExecutionException();
+					try {
+						pool.getQueue().put(r);
+					}
+					catch (final InterruptedException exc) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException(exc);
+					}
+				});
+		}
+
+		private void submit(final Task task, final Report report,
+			final String file)
+		{
+			executor.execute(() -> {
+				final long start = System.nanoTime();
+				try {
+					task.run();
+				}
+				catch (final Exception | OutOfMemoryError exc) {
+					report.failed.incrementAndGet();
+					IJ.log("Could not convert " + file + ": " + exc);
+				}
+				finally {
+					busy.add(System.nanoTime() - start);
+				}
+			});
+		}
+
+		private void finish() throws InterruptedException {
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting
+			}
+		}
+
+		private void abort() {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Statistics of a run, updated while it progresses. */
+	public class Report {
+
+		private final long start = System.nanoTime();
+		private volatile long elapsed = -1;
+		private final AtomicInteger submitted = new AtomicInteger();
+		private final AtomicInteger converted = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final LongAdder bytesRead = new LongAdder();
+		private final LongAdder bytesWritten = new LongAdder();
+		private final LongAdder read = new LongAdder();
+		private final LongAdder decode = new LongAdder();
+		private final LongAdder convert = new LongAdder();
+		private final LongAdder write = new LongAdder();
+
+		/** Gets the number of files handed to the pipeline so far. */
+		public int getSubmitted() {
+			return submitted.get();
+		}
+
+		public int getConverted() {
+			return converted.get();
+		}
+
+		public int getFailed() {
+			return failed.get();
+		}
+
+		/** Gets the number of files skipped because of the checkpoint. */
+		public int getSkipped() {
+			return skipped.get();
+		}
+
+		public long getBytesRead() {
+			return bytesRead.sum();
+		}
+
+		public long getBytesWritten() {
+			return bytesWritten.sum();
+		}
+
+		/** Gets the seconds since the run started, or the run's duration. */
+		public double getSeconds() {
+			final long nanos = elapsed >= 0 ? elapsed : System.nanoTime() - start;
+			return nanos / 1e9;
+		}
+
+		public double getFilesPerSecond() {
+			return getConverted() / Math.max(getSeconds(), 1e-9);
+		}
+
+		@Override
+		public String toString() {
+			final double seconds = Math.max(getSeconds(), 1e-9);
+			final double mb = 1 << 20;
+			return String.format(Locale.ROOT,
+				"Converted %d files (%d failed, %d skipped) in %.1f s: %.1f files/s, " +
+					"read %.1f MB/s, wrote %.1f MB/s; stage utilization: " +
+					"read %.0f%%, decode %.0f%%, convert %.0f%%, write %.0f%%",
+				getConverted(), getFailed(), getSkipped(), seconds,
+				getFilesPerSecond(), getBytesRead() / mb / seconds, getBytesWritten() /
+					mb / seconds, utilization(read, readThreads, seconds), utilization(
+						decode, decodeThreads, seconds), utilization(convert,
+							convertThreads, seconds), utilization(write, writeThreads,
+								seconds));
+		}
+
+		private double utilization(final LongAdder busy, final int threads,
+			final double seconds)
+		{
+			return 100 * busy.sum() / 1e9 / threads / seconds;
+		}
+	}
+}
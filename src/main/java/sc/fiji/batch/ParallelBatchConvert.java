@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.batch;
+
+import ij.Prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.scijava.app.StatusService;
+import org.scijava.command.Command;
+import org.scijava.command.ContextCommand;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.widget.FileWidget;
+
+/**
+ * Converts all images in a directory using a {@link BatchConverter}.
+ * <p>
+ * Can be called from macros, e.g.:
+ * </p>
+ * <pre>
+ * run("Convert in Parallel...", "source=/data/raw target=/data/tif " +
+ *   "extensions=[tif nd2] format=TIFF type=Unchanged recursive resume");
+ * </pre>
+ */
+@Plugin(type = Command.class, menuPath = "Process>Batch>Convert in Parallel...")
+public class ParallelBatchConvert extends ContextCommand {
+
+	@Parameter
+	private LogService log;
+
+	@Parameter
+	private StatusService status;
+
+	@Parameter(label = "Source directory", style = FileWidget.DIRECTORY_STYLE)
+	private File source;
+
+	@Parameter(label = "Target directory", style = FileWidget.DIRECTORY_STYLE)
+	private File target;
+
+	@Parameter(label = "File extensions (blank for all)", required = false,
+		description = "Space- or comma-separated, e.g. \"tif png\"")
+	private String extensions = "";
+
+	@Parameter(label = "Output format", choices = { "TIFF", "ZIP", "PNG",
+		"JPEG" })
+	private String format = "TIFF";
+
+	@Parameter(label = "Pixel type", choices = { "Unchanged", "8-bit", "16-bit",
+		"32-bit", "RGB" })
+	private String type = "Unchanged";
+
+	@Parameter(label = "Include subdirectories")
+	private boolean recursive;
+
+	@Parameter(label = "Resume from checkpoint")
+	private boolean resume = true;
+
+	@Parameter(label = "Reader threads", min = "1")
+	private int readThreads = 2;
+
+	@Parameter(label = "Decoder threads", min = "1")
+	private int decodeThreads = Prefs.getThreads();
+
+	@Parameter(label = "Converter threads", min = "1")
+	private int convertThreads = Math.max(1, Prefs.getThreads() / 2);
+
+	@Parameter(label = "Writer threads", min = "1")
+	private int writeThreads = 2;
+
+	@Override
+	public void run() {
+		final BatchConverter converter = new BatchConverter(source.toPath(), target
+			.toPath());
+		converter.setRecursive(recursive) //
+			.setExtensions(extensions == null || extensions.trim().isEmpty() ? null
+				: extensions.trim().split("[\\s,]+")) //
+			.setFormat(BatchConverter.Format.valueOf(format)) //
+			.setPixelType(pixelType()) //
+			.setResume(resume) //
+			.setThreads(readThreads, decodeThreads, convertThreads, writeThreads) //
+			.setProgress(report -> {
+				status.showStatus(report.getConverted(), report.getSubmitted(), String
+					.format(Locale.ROOT, "Converted %d files, %.1f files/s", report
+						.getConverted(), report.getFilesPerSecond()));
+				if (isCanceled()) converter.cancel();
+			});
+		try {
+			final BatchConverter.Report report = converter.run();
+			log.info(report);
+			status.showStatus(report.toString());
+		}
+		catch (final IOException exc) {
+			cancel("Could not convert " + source + ": " + exc.getMessage());
+			log.error(exc);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			cancel("Interrupted");
+		}
+	}
+
+	// -- Helper methods --
+
+	private BatchConverter.PixelType pixelType() {
+		switch (type) {
+			case "8-bit":
+				return BatchConverter.PixelType.GRAY8;
+			case "16-bit":
+				return BatchConverter.PixelType.GRAY16;
+			case "32-bit":
+				return BatchConverter.PixelType.GRAY32;
+			case "RGB":
+				return BatchConverter.PixelType.RGB;
+			default:
+				return BatchConverter.PixelType.UNCHANGED;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+import ij.ImageJ;
+import ij.macro.Interpreter;
+
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the AutoRun scripts at startup.
+ * <p>
+ * The scripts in {@code macros/AutoRun/} ({@code .ijm} only) run one after
+ * another, in alphabetical order; the scripts in
+ * {@code plugins/Scripts/Plugins/AutoRun/} and
+ * {@code scripts/Plugins/AutoRun/} run in the place of
+ * {@code AutoRun_Scripts.ijm}, as they always did. Scripts may declare headers
+ * in comments within their first lines:
+ * </p>
+ * <ul>
+ * <li>{@code AutoRun-Concurrent: true} lets the script run alongside the
+ * concurrent scripts next to it, on a small pool; the scripts before and after
+ * it still run on their own,</li>
+ * <li>{@code AutoRun-Order: <n>} moves the script before those with a higher
+ * number (default 0),</li>
+ * <li>{@code AutoRun-After: <file>[, <file>...]} waits until the named scripts
+ * are done,</li>
+ * <li>{@code AutoRun-Timeout: <seconds>} aborts the script when it takes
+ * longer; scripts in languages other than the macro language are interrupted,
+ * and startup goes on without them. Scripts without this header run to the
+ * end, unless the {@code fiji.autorun.timeout} system property sets a default;
+ * 0 means no timeout,</li>
+ * <li>{@code AutoRun-Defer: true} runs the script only after the main window is
+ * up, off the startup path.</li>
+ * </ul>
+ * <p>
+ * Startup waits for the non-deferred scripts only, and for no longer than their
+ * timeouts, if they have any. The time each script took is available from {@link #getTimings()},
+ * and is logged in debug mode.
+ * </p>
+ */
+public class AutoRun {
+
+	private static final Pattern HEADER = Pattern.compile(
+		"AutoRun-(Concurrent|Order|After|Timeout|Defer)\\s*[:=]\\s*(.*?)\\s*(\\*/)?$",
+		Pattern.CASE_INSENSITIVE);
+	private static final int HEADER_LINES = 30;
+
+	/**
+	 * Marks where the scripts of the script directories run; the file itself
+	 * only runs them for older StartupMacros.
+	 */
+	private static final String SCRIPTS_MACRO = "AutoRun_Scripts.ijm";
+
+	private static final Map<String, Long> timings =
+		Collections.synchronizedMap(new LinkedHashMap<>());
+
+	private final ExecutorService pool;
+	private final ScheduledExecutorService timer;
+	private final Map<String, CompletableFuture<Void>> done = new HashMap<>();
+
+	private AutoRun() {
+		final AtomicInteger counter = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(Integer.getInteger(
+			"fiji.autorun.threads", Math.min(4, Runtime.getRuntime()
+				.availableProcessors())), r -> {
+					final Thread thread = new Thread(r, "AutoRun-" + counter
+						.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "AutoRun-timeouts");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Runs all AutoRun scripts.
+	 * <p>
+	 * NB: Invoked by macros/StartupMacros.fiji.ijm
+	 * </p>
+	 */
+	public static String run() {
+		final File root = new File(FijiTools.getImageJDir());
+		final List<Script> scripts = new ArrayList<>();
+		final String[] names = new File(root, "macros/AutoRun").list();
+		if (names != null) {
+			Arrays.sort(names, String.CASE_INSENSITIVE_ORDER);
+			for (final String name : names) {
+				if (name.equals(SCRIPTS_MACRO)) collectScripts(root, scripts);
+				else if (name.endsWith(".ijm")) add(new File(root, "macros/AutoRun/" +
+					name), scripts);
+			}
+		}
+		if (names == null || !Arrays.asList(names).contains(SCRIPTS_MACRO)) {
+			collectScripts(root, scripts);
+		}
+		new AutoRun().execute(scripts);
+		return null;
+	}
+
+	/**
+	 * Runs the AutoRun scripts in {@code plugins/Scripts/Plugins/AutoRun/} and
+	 * {@code scripts/Plugins/AutoRun/} only.
+	 * <p>
+	 * NB: Invoked by macros/AutoRun/AutoRun_Scripts.ijm
+	 * </p>
+	 */
+	public static String runScripts() {
+		final List<Script> scripts = new ArrayList<>();
+		collectScripts(new File(FijiTools.getImageJDir()), scripts);
+		new AutoRun().execute(scripts);
+		return null;
+	}
+
+	/** Gets how long each AutoRun script took, in milliseconds. */
+	public static Map<String, Long> getTimings() {
+		synchronized (timings) {
+			return new LinkedHashMap<>(timings);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void execute(final List<Script> scripts) {
+		final List<Script> essential = new ArrayList<>();
+		final List<Script> deferred = new ArrayList<>();
+		for (final Script script : sort(scripts)) {
+			(script.defer ? deferred : essential).add(script);
+		}
+
+		runAll(essential);
+		if (deferred.isEmpty()) {
+			shutdown();
+			return;
+		}
+		final Thread waiter = new Thread(() -> {
+			waitForMainWindow();
+			runAll(deferred);
+			shutdown();
+		}, "AutoRun-deferred");
+		waiter.setDaemon(true);
+		waiter.start();
+	}
+
+	/**
+	 * Runs the scripts in the given order. A script which is not concurrent
+	 * waits for all scripts before it, and all scripts after it wait for it.
+	 */
+	private void runAll(final List<Script> scripts) {
+		final List<CompletableFuture<Void>> running = new ArrayList<>();
+		for (final Script script : scripts) {
+			if (!script.concurrent) {
+				join(running);
+				running.clear();
+			}
+			running.add(schedule(script));
+			if (!script.concurrent) join(running);
+		}
+		join(running);
+	}
+
+	private static void join(final List<CompletableFuture<Void>> futures) {
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+	}
+
+	private CompletableFuture<Void> schedule(final Script script) {
+		final List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+		for (final String name : script.after) {
+			final CompletableFuture<Void> dependency;
+			synchronized (done) {
+				dependency = done.get(name);
+			}
+			if (dependency != null) dependencies.add(dependency);
+		}
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		synchronized (done) {
+			done.put(script.file.getName(), result);
+		}
+		CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+			.whenComplete((v, t) -> pool.execute(() -> {
+				final Thread self = Thread.currentThread();
+				final Interpreter interpreter = script.isMacro() ? new Interpreter()
+					: null;
+				final AtomicBoolean finished = new AtomicBoolean();
+				final ScheduledFuture<?> watchdog = script.timeout <= 0 ? null : timer
+					.schedule(() -> {
+						synchronized (finished) {
+							if (!finished.compareAndSet(false, true)) return;
+							if (interpreter != null) Interpreter.abort(interpreter);
+							else self.interrupt();
+						}
+						IJ.log("AutoRun script " + script.file + " timed out after " +
+							script.timeout + " s");
+						result.complete(null);
+					}, script.timeout, TimeUnit.SECONDS);
+				final long start = System.currentTimeMillis();
+				try {
+					if (interpreter == null) IJ.runMacroFile(script.file.getPath(), null);
+					else interpreter.run(new String(Files.readAllBytes(script.file
+						.toPath()), StandardCharsets.UTF_8), null);
+				}
+				catch (final Throwable throwable) {
+					IJ.log("AutoRun script " + script.file + " failed: " + throwable);
+				}
+				finally {
+					if (watchdog != null) watchdog.cancel(false);
+					final long elapsed = System.currentTimeMillis() - start;
+					timings.put(script.file.getPath(), elapsed);
+					if (IJ.debugMode) {
+						IJ.log("AutoRun: " + script.file.getName() + " took " + elapsed +
+							" ms");
+					}
+					synchronized (finished) {
+						if (finished.compareAndSet(false, true)) result.complete(null);
+						// do not carry the watchdog's interrupt over to the next script
+						else if (interpreter == null) Thread.interrupted();
+					}
+				}
+			}));
+		return result;
+	}
+
+	private void shutdown() {
+		pool.shutdown();
+		timer.shutdownNow();
+	}
+
+	private static void waitForMainWindow() {
+		if (GraphicsEnvironment.isHeadless()) return;
+		// give up after a minute; the scripts should run eventually either way
+		for (int i = 0; i < 600; i++) {
+			final ImageJ ij = IJ.getInstance();
+			if (ij != null && ij.isShowing()) return;
+			try {
+				Thread.sleep(100);
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Orders the scripts such that each comes after the scripts it waits for,
+	 * preferring lower {@code AutoRun-Order}s, then the order in which they were
+	 * collected. Dependencies on unknown scripts, or forming cycles, are
+	 * dropped.
+	 */
+	private static List<Script> sort(final List<Script> scripts) {
+		final Map<String, Script> byName = new HashMap<>();
+		for (final Script script : scripts)
+			byName.put(script.file.getName(), script);
+		final Map<Script, Integer> pending = new HashMap<>();
+		final Map<String, List<Script>> dependents = new HashMap<>();
+		for (final Script script : scripts) {
+			script.after.retainAll(byName.keySet());
+			script.after.remove(script.file.getName());
+			pending.put(script, script.after.size());
+			for (final String name : script.after) {
+				dependents.computeIfAbsent(name, k -> new ArrayList<>()).add(script);
+			}
+		}
+		final PriorityQueue<Script> ready = new PriorityQueue<>();
+		for (final Script script : scripts) {
+			if (pending.get(script) == 0) ready.add(script);
+		}
+		final List<Script> sorted = new ArrayList<>();
+		while (sorted.size() < scripts.size()) {
+			if (ready.isEmpty()) {
+				// a cycle: break it at the first remaining script
+				Script first = null;
+				for (final Script script : scripts) {
+					if (!sorted.contains(script) && (first == null || script
+						.compareTo(first) < 0)) first = script;
+				}
+				IJ.log("AutoRun: ignoring cyclic dependencies of " + first.file
+					.getName());
+				first.after.clear();
+				ready.add(first);
+			}
+			final Script script = ready.poll();
+			if (sorted.contains(script)) continue;
+			sorted.add(script);
+			for (final Script dependent : dependents.getOrDefault(script.file
+				.getName(), Collections.emptyList()))
+			{
+				final int count = pending.merge(dependent, -1, Integer::sum);
+				if (count == 0) ready.add(dependent);
+			}
+		}
+		// a deferred script makes everything waiting for it deferred, too
+		for (final Script script : sorted) {
+			for (final String name : script.after) {
+				if (byName.get(name).defer) script.defer = true;
+			}
+		}
+		return sorted;
+	}
+
+	/** Collects the scripts which {@code AutoRun_Scripts.ijm} used to run. */
+	private static void collectScripts(final File root,
+		final List<Script> scripts)
+	{
+		for (final String path : new String[] { "plugins/Scripts/Plugins/AutoRun",
+			"scripts/Plugins/AutoRun" })
+		{
+			final File dir = new File(root, path);
+			final String[] names = dir.list();
+			if (names == null) continue;
+			Arrays.sort(names, String.CASE_INSENSITIVE_ORDER);
+			for (final String name : names)
+				add(new File(dir, name), scripts);
+		}
+	}
+
+	private static void add(final File file, final List<Script> scripts) {
+		if (file.isFile()) scripts.add(new Script(file, scripts.size()));
+	}
+
+	private static class Script implements Comparable<Script> {
+
+		private final File file;
+		private final int index;
+		private boolean concurrent;
+		private int order;
+		private final List<String> after = new ArrayList<>();
+		/** In seconds; 0 for none. */
+		private long timeout = Long.getLong("fiji.autorun.timeout", 0);
+		private boolean defer;
+
+		private Script(final File file, final int index) {
+			this.file = file;
+			this.index = index;
+			try (final BufferedReader reader = Files.newBufferedReader(file
+				.toPath(), StandardCharsets.UTF_8))
+			{
+				String line;
+				for (int i = 0; i < HEADER_LINES && (line = reader
+					.readLine()) != null; i++)
+				{
+					final Matcher matcher = HEADER.matcher(line);
+					if (matcher.find()) parse(matcher.group(1).toLowerCase(), matcher
+						.group(2));
+				}
+			}
+			catch (final IOException exc) {
+				// no headers, then
+			}
+		}
+
+		private void parse(final String key, final String value) {
+			try {
+				switch (key) {
+					case "concurrent":
+						concurrent = Boolean.parseBoolean(value);
+						break;
+					case "order":
+						order = Integer.parseInt(value);
+						break;
+					case "after":
+						for (final String name : value.split(",")) {
+							if (!name.trim().isEmpty()) after.add(name.trim());
+						}
+						break;
+					case "timeout":
+						timeout = Long.parseLong(value);
+						break;
+					case "defer":
+						defer = Boolean.parseBoolean(value);
+						break;
+				}
+			}
+			catch (final NumberFormatException exc) {
+				IJ.log("AutoRun: ignoring invalid header in " + file.getName() + ": " +
+					key + " = " + value);
+			}
+		}
+
+		@Override
+		public int compareTo(final Script other) {
+			if (order != other.order) return Integer.compare(order, other.order);
+			return Integer.compare(index, other.index);
+		}
+
+		/** Whether the script is in the ImageJ 1.x macro language. */
+		private boolean isMacro() {
+			final String name = file.getName();
+			return name.endsWith(".ijm") || name.endsWith(".txt");
+		}
+	}
+}
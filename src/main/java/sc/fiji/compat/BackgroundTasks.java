@@ -0,0 +1,345 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs Fiji's background work as named, tracked tasks.
+ * <p>
+ * Each task runs on a virtual thread. With
+ * {@code -Dfiji.tasks.virtual=false}, a bounded pool of platform threads is
+ * used instead. Tasks can be listed
+ * while they run, and {@link #shutdown(long)} cancels all of them, which the
+ * {@link FijiService} does when its context is disposed, so that no
+ * background work outlives it.
+ * </p>
+ * <p>
+ * Related tasks can be grouped in a {@link Scope}: when one of them fails, the
+ * others are cancelled, and closing the scope cancels whatever is still
+ * running.
+ * </p>
+ */
+public class BackgroundTasks {
+
+	private static volatile BackgroundTasks defaultTasks;
+
+	private final String name;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService timer;
+	private final Set<Task<?>> live = ConcurrentHashMap.newKeySet();
+
+	public BackgroundTasks(final String name) {
+		this.name = name;
+		final AtomicInteger count = new AtomicInteger();
+		if (!"false".equals(System.getProperty("fiji.tasks.virtual"))) {
+			executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(
+				name + "-task-", 1).factory());
+		}
+		else {
+			final int threads = Math.max(2, Runtime.getRuntime()
+				.availableProcessors());
+			final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+				30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> daemon(r,
+					name + "-task-" + count.incrementAndGet()));
+			pool.allowCoreThreadTimeOut(true);
+			executor = pool;
+		}
+		final ScheduledThreadPoolExecutor scheduler =
+			new ScheduledThreadPoolExecutor(1, r -> daemon(r, name + "-timer"));
+		scheduler.setRemoveOnCancelPolicy(true);
+		timer = scheduler;
+	}
+
+	/**
+	 * Gets the tasks of the most recently initialized Fiji context, for code
+	 * which has no context at hand. Without a context, a process-wide instance
+	 * is created.
+	 */
+	public static BackgroundTasks getDefault() {
+		BackgroundTasks tasks = defaultTasks;
+		if (tasks != null && !tasks.isShutdown()) return tasks;
+		synchronized (BackgroundTasks.class) {
+			if (defaultTasks == null || defaultTasks.isShutdown()) {
+				defaultTasks = new BackgroundTasks("fiji");
+			}
+			return defaultTasks;
+		}
+	}
+
+	static void setDefault(final BackgroundTasks tasks) {
+		defaultTasks = tasks;
+	}
+
+	/** Runs the given code in the background. */
+	public Task<Void> run(final String taskName, final Runnable runnable) {
+		return call(taskName, () -> {
+			runnable.run();
+			return null;
+		});
+	}
+
+	/** Computes a value in the background. */
+	public <T> Task<T> call(final String taskName, final Callable<T> callable) {
+		final Task<T> task = new Task<>(taskName, callable);
+		live.add(task);
+		try {
+			executor.execute(task);
+		}
+		catch (final RejectedExecutionException exc) {
+			live.remove(task);
+			task.cancel(false);
+		}
+		return task;
+	}
+
+	/** Runs the given code in the background, after a delay. */
+	public Task<Void> schedule(final String taskName, final long delayMillis,
+		final Runnable runnable)
+	{
+		final Task<Void> task = new Task<>(taskName, () -> {
+			runnable.run();
+			return null;
+		});
+		live.add(task);
+		try {
+			task.delay = timer.schedule(() -> {
+				try {
+					executor.execute(task);
+				}
+				catch (final RejectedExecutionException exc) {
+					task.cancel(false);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (final RejectedExecutionException exc) {
+			live.remove(task);
+			task.cancel(false);
+		}
+		return task;
+	}
+
+	/** Opens a scope for related tasks; use it with try-with-resources. */
+	public Scope newScope(final String scopeName) {
+		return new Scope(scopeName);
+	}
+
+	/** Lists the tasks which are scheduled or running. */
+	public List<Task<?>> getLiveTasks() {
+		final List<Task<?>> tasks = new ArrayList<>(live);
+		tasks.sort((a, b) -> Long.compare(a.created, b.created));
+		return Collections.unmodifiableList(tasks);
+	}
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	/**
+	 * Cancels all tasks and waits for them to finish.
+	 *
+	 * @param timeoutMillis how long to wait for interrupted tasks to finish
+	 * @return the tasks which did not finish in time
+	 */
+	public List<Task<?>> shutdown(final long timeoutMillis) {
+		timer.shutdownNow();
+		executor.shutdown();
+		for (final Task<?> task : live)
+			task.cancel(true);
+		try {
+			executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		final List<Task<?>> stragglers = new ArrayList<>();
+		for (final Task<?> task : live) {
+			if (task.thread != null) stragglers.add(task);
+		}
+		return stragglers;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + getLiveTasks();
+	}
+
+	// -- Helper methods --
+
+	private static Thread daemon(final Runnable r, final String threadName) {
+		final Thread thread = new Thread(r, threadName);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/** A named background task. */
+	public class Task<T> extends FutureTask<T> {
+
+		private final String taskName;
+		private final long created = System.currentTimeMillis();
+		private volatile Thread thread;
+		private volatile long started;
+		private volatile Future<?> delay;
+
+		private Task(final String taskName, final Callable<T> callable) {
+			super(callable);
+			this.taskName = taskName;
+		}
+
+		public String getName() {
+			return taskName;
+		}
+
+		/** Gets when the task started, or 0 if it is still waiting. */
+		public long getStartTime() {
+			return started;
+		}
+
+		/** Gets the thread running the task, or null if it is not running. */
+		public Thread getThread() {
+			return thread;
+		}
+
+		@Override
+		public void run() {
+			final Thread current = Thread.currentThread();
+			final String threadName = current.getName();
+			thread = current;
+			started = System.currentTimeMillis();
+			current.setName(taskName);
+			try {
+				super.run();
+			}
+			finally {
+				current.setName(threadName);
+				thread = null;
+				live.remove(this);
+			}
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			final Future<?> d = delay;
+			if (d != null) d.cancel(false);
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		protected void done() {
+			// a task cancelled while running is removed once it actually stops
+			if (thread == null) live.remove(this);
+		}
+
+		@Override
+		public String toString() {
+			return taskName + (started == 0 ? " (waiting)" : " (running " + (System
+				.currentTimeMillis() - started) + " ms)");
+		}
+	}
+
+	/**
+	 * A group of tasks which succeed or fail together: the first failure
+	 * cancels the other tasks, and closing the scope cancels those still
+	 * running.
+	 */
+	public class Scope implements AutoCloseable {
+
+		private final String scopeName;
+		private final List<Task<?>> tasks = new ArrayList<>();
+		private volatile Throwable failure;
+
+		private Scope(final String scopeName) {
+			this.scopeName = scopeName;
+		}
+
+		/** Starts a task in this scope. */
+		public synchronized <T> Task<T> fork(final String taskName,
+			final Callable<T> callable)
+		{
+			final Task<T> task = call(scopeName + "/" + taskName, () -> {
+				try {
+					return callable.call();
+				}
+				catch (final Throwable t) {
+					fail(t);
+					throw t;
+				}
+			});
+			tasks.add(task);
+			return task;
+		}
+
+		/**
+		 * Waits for all tasks of this scope to finish.
+		 *
+		 * @throws ExecutionException if a task failed
+		 */
+		public void join() throws InterruptedException, ExecutionException {
+			final List<Task<?>> snapshot;
+			synchronized (this) {
+				snapshot = new ArrayList<>(tasks);
+			}
+			for (final Task<?> task : snapshot) {
+				try {
+					task.get();
+				}
+				catch (final CancellationException exc) {
+					// cancelled because another task failed
+				}
+			}
+			if (failure != null) throw new ExecutionException(failure);
+		}
+
+		@Override
+		public synchronized void close() {
+			for (final Task<?> task : tasks)
+				task.cancel(true);
+		}
+
+		private synchronized void fail(final Throwable t) {
+			if (failure != null) return;
+			failure = t;
+			for (final Task<?> task : tasks)
+				task.cancel(true);
+		}
+	}
+}
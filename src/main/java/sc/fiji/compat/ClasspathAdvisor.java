@@ -0,0 +1,247 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Derives a slim classpath for a workload from what
+ * {@link ClasspathRecorder} recorded.
+ * <p>
+ * A JAR is kept when it supplied classes in at least the given share of the
+ * recorded sessions; by default, in any of them. Run it via
+ * {@code fiji --main-class=sc.fiji.compat.ClasspathAdvisor <workload>
+ * [options]}; without options, it prints which of the installed JARs the
+ * workload needs and how much it could leave out. Options:
+ * </p>
+ * <ul>
+ * <li>{@code --min-share=<fraction>}: keep only JARs used in at least this
+ * share of sessions;</li>
+ * <li>{@code --profile}: write {@code extra-slim-classpath.toml} next to
+ * {@code fiji.toml}, so that launching with {@code --slim} uses only the kept
+ * JARs;</li>
+ * <li>{@code --jars=<dir>}: link (or copy) the kept JARs into {@code <dir>},
+ * keeping their paths below the application directory, e.g. for a container
+ * image;</li>
+ * <li>{@code --artifacts}: print the kept JARs' artifact IDs, for
+ * {@code mvn package -Pslim -Dfiji.slim.artifacts=...}.</li>
+ * </ul>
+ */
+public class ClasspathAdvisor {
+
+	private static final Pattern ARTIFACT = Pattern.compile(
+		"(.+?)-[0-9][^/]*\\.jar");
+
+	private final File appDir;
+	private final int sessions;
+	private final List<String> kept = new ArrayList<>();
+	private final List<String> dropped = new ArrayList<>();
+
+	/**
+	 * Advises on the recorded usage of the given workload.
+	 *
+	 * @param minShare the share of sessions in which a JAR must have supplied
+	 *          classes to be kept, between 0 (any) and 1 (all)
+	 */
+	public ClasspathAdvisor(final String workload, final double minShare)
+		throws IOException
+	{
+		appDir = ClasspathRecorder.appDirectory();
+		final File usage = ClasspathRecorder.usageFile(workload);
+		if (!usage.exists()) {
+			throw new IOException("Nothing recorded for '" + workload +
+				"'; launch Fiji with --record-classpath=" + workload + " first");
+		}
+		final Map<String, int[]> counts = ClasspathRecorder.read(usage);
+		final int[] total = counts.remove("");
+		sessions = total == null ? 0 : total[0];
+		final Set<String> used = new TreeSet<>();
+		for (final Map.Entry<String, int[]> entry : counts.entrySet()) {
+			if (entry.getValue()[0] > 0 && entry.getValue()[0] >= minShare *
+				sessions) used.add(entry.getKey());
+		}
+		for (final String jar : installedJars()) {
+			(used.remove(jar) ? kept : dropped).add(jar);
+		}
+		// JARs from outside the application directory, e.g. --plugins
+		kept.addAll(used);
+	}
+
+	public int getSessionCount() {
+		return sessions;
+	}
+
+	/** Gets the JARs to keep, relative to the application directory. */
+	public List<String> getKept() {
+		return Collections.unmodifiableList(kept);
+	}
+
+	/** Gets the installed JARs the workload did not use. */
+	public List<String> getDropped() {
+		return Collections.unmodifiableList(dropped);
+	}
+
+	/** Writes a launcher configuration adding the kept JARs with {@code --slim}. */
+	public File writeProfile(final String workload) throws IOException {
+		final File jaunchDir = new File(appDir, "config/jaunch");
+		final File file = new File(jaunchDir.isDirectory() ? jaunchDir
+			: new File(appDir, "config"), "extra-slim-classpath.toml");
+		final StringBuilder text = new StringBuilder();
+		text.append("# Generated by sc.fiji.compat.ClasspathAdvisor from ").append(
+			sessions).append(" recorded '").append(workload).append("' sessions.\n");
+		text.append("# Launch with --slim to use only these JARs.\n\n");
+		text.append("jvm.classpath = [\n");
+		for (final String jar : kept) {
+			final boolean absolute = new File(jar).isAbsolute();
+			text.append("    '--slim|").append(absolute ? "" : "${app-dir}/").append(
+				jar).append("',\n");
+		}
+		text.append("]\n");
+		Files.write(file.toPath(), text.toString().getBytes(
+			StandardCharsets.UTF_8));
+		return file;
+	}
+
+	/**
+	 * Populates a directory with the kept JARs, hard-linked where possible and
+	 * copied otherwise.
+	 */
+	public void writeJars(final File target) throws IOException {
+		for (final String jar : kept) {
+			final Path source = resolve(jar);
+			if (!Files.exists(source) || new File(jar).isAbsolute()) continue;
+			final Path link = target.toPath().resolve(jar);
+			Files.createDirectories(link.getParent());
+			Files.deleteIfExists(link);
+			try {
+				Files.createLink(link, source);
+			}
+			catch (final IOException | UnsupportedOperationException exc) {
+				// e.g. a different file system
+				Files.copy(source, link, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	/** Gets the Maven artifact IDs of the kept JARs, comma-separated. */
+	public String getArtifactIds() {
+		final Set<String> ids = new TreeSet<>();
+		for (final String jar : kept) {
+			final Matcher matcher = ARTIFACT.matcher(new File(jar).getName());
+			if (matcher.matches()) ids.add(matcher.group(1));
+		}
+		return String.join(",", ids);
+	}
+
+	public static void main(final String... args) throws IOException {
+		String workload = null;
+		double minShare = 0;
+		boolean profile = false, artifacts = false;
+		File jars = null;
+		for (final String arg : args) {
+			if (arg.startsWith("--min-share=")) {
+				minShare = Double.parseDouble(arg.substring(12));
+			}
+			else if (arg.equals("--profile")) profile = true;
+			else if (arg.equals("--artifacts")) artifacts = true;
+			else if (arg.startsWith("--jars=")) jars = new File(arg.substring(7));
+			else if (!arg.startsWith("--") && workload == null) workload = arg;
+			else {
+				System.err.println("Unknown argument: " + arg);
+				System.exit(1);
+			}
+		}
+		if (workload == null) {
+			System.err.println("Usage: ClasspathAdvisor <workload> " +
+				"[--min-share=<fraction>] [--profile] [--jars=<dir>] [--artifacts]");
+			System.exit(1);
+		}
+
+		final ClasspathAdvisor advisor = new ClasspathAdvisor(workload, minShare);
+		if (artifacts) {
+			System.out.println(advisor.getArtifactIds());
+			return;
+		}
+		System.out.println(advisor.report());
+		if (profile) {
+			System.out.println("Wrote " + advisor.writeProfile(workload));
+		}
+		if (jars != null) {
+			advisor.writeJars(jars);
+			System.out.println("Populated " + jars);
+		}
+	}
+
+	// -- Helper methods --
+
+	private String report() {
+		long keptBytes = 0, droppedBytes = 0;
+		for (final String jar : kept)
+			keptBytes += resolve(jar).toFile().length();
+		for (final String jar : dropped)
+			droppedBytes += resolve(jar).toFile().length();
+		final StringBuilder text = new StringBuilder();
+		text.append("Recorded sessions: ").append(sessions).append('\n');
+		for (final String jar : kept)
+			text.append("  keep ").append(jar).append('\n');
+		text.append(String.format("Keep %d JARs (%.1f MB), drop %d JARs " +
+			"(%.1f MB)", kept.size(), keptBytes / 1048576.0, dropped.size(),
+			droppedBytes / 1048576.0));
+		return text.toString();
+	}
+
+	private Path resolve(final String jar) {
+		return appDir.toPath().resolve(jar);
+	}
+
+	/** Lists the JARs below {@code jars/} and {@code plugins/}. */
+	private List<String> installedJars() throws IOException {
+		final List<String> result = new ArrayList<>();
+		final Path base = appDir.toPath();
+		for (final String dir : new String[] { "jars", "plugins" }) {
+			final Path path = base.resolve(dir);
+			if (!Files.isDirectory(path)) continue;
+			try (final Stream<Path> files = Files.walk(path)) {
+				files.filter(p -> p.toString().endsWith(".jar")).forEach(p -> result
+					.add(base.relativize(p).toString().replace(File.separatorChar,
+						'/')));
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+}
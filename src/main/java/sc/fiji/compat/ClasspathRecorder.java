@@ -0,0 +1,239 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Records which JARs supply the classes a Fiji session loads.
+ * <p>
+ * Launching with {@code --record-classpath=<workload>} makes the JVM log
+ * every class it loads ({@code -Xlog:class+load}) to
+ * {@code config/class-load-<workload>-<pid>.log}. When the session ends,
+ * {@link #record()} folds that log into {@code cache/classpath/<workload>.txt}
+ * and deletes it. The usage file accumulates over sessions, one
+ * {@code sessions<TAB>classes<TAB>jar} line per JAR, after a
+ * {@code sessions<TAB>total} line; {@link ClasspathAdvisor} turns it into a
+ * slim classpath for the workload.
+ * </p>
+ * <p>
+ * Logs left behind by sessions which did not end cleanly are folded in by the
+ * next session which records.
+ * </p>
+ */
+public final class ClasspathRecorder {
+
+	/** The log file pattern, as passed to {@code -Xlog}, with {@code %p}. */
+	public static final String LOG_PROPERTY = "fiji.classpath.log";
+
+	private static final String LOG_PREFIX = "class-load-";
+	private static final String LOG_SUFFIX = ".log";
+
+	private ClasspathRecorder() {
+		// Prevent instantiation of utility class.
+	}
+
+	public static boolean isEnabled() {
+		return System.getProperty(LOG_PROPERTY) != null;
+	}
+
+	/**
+	 * Folds the class loading logs of this session, and of dead sessions, into
+	 * the usage files. Does nothing unless recording is enabled.
+	 */
+	public static void record() {
+		final String pattern = System.getProperty(LOG_PROPERTY);
+		if (pattern == null) return;
+		final long pid = ProcessHandle.current().pid();
+		final File dir = new File(pattern).getAbsoluteFile().getParentFile();
+		final File[] logs = dir.listFiles((d, name) -> name.startsWith(
+			LOG_PREFIX) && name.endsWith(LOG_SUFFIX));
+		if (logs == null) return;
+		for (final File log : logs) {
+			final String name = log.getName();
+			final String base = name.substring(LOG_PREFIX.length(), name.length() -
+				LOG_SUFFIX.length());
+			final int dash = base.lastIndexOf('-');
+			if (dash <= 0) continue;
+			final long logPid;
+			try {
+				logPid = Long.parseLong(base.substring(dash + 1));
+			}
+			catch (final NumberFormatException exc) {
+				continue;
+			}
+			// another session is still writing to its log
+			if (logPid != pid && ProcessHandle.of(logPid).map(ProcessHandle::isAlive)
+				.orElse(false)) continue;
+			try {
+				fold(log, usageFile(base.substring(0, dash)));
+			}
+			catch (final IOException exc) {
+				continue;
+			}
+			if (!log.delete()) log.deleteOnExit();
+		}
+	}
+
+	/** Gets the usage file of the given workload. */
+	public static File usageFile(final String workload) {
+		return new File(appDirectory(), "cache/classpath/" + workload + ".txt");
+	}
+
+	/** Gets the application directory; JAR paths are recorded relative to it. */
+	static File appDirectory() {
+		String appDir = System.getProperty("scijava.app.directory");
+		if (appDir == null) appDir = FijiTools.getImageJDir();
+		return new File(appDir);
+	}
+
+	// -- Helper methods --
+
+	/** Adds one session's log to a usage file. */
+	private static void fold(final File log, final File usage)
+		throws IOException
+	{
+		final Map<String, Integer> classes = parse(log.toPath());
+		final File dir = usage.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create " + dir);
+		}
+		// concurrent sessions may finish at the same time
+		try (final RandomAccessFile lockFile = new RandomAccessFile(new File(dir,
+			usage.getName() + ".lock"), "rw");
+				final FileLock lock = lockFile.getChannel().lock())
+		{
+			final Map<String, int[]> counts = read(usage);
+			counts.computeIfAbsent("", k -> new int[2])[0]++;
+			for (final Map.Entry<String, Integer> entry : classes.entrySet()) {
+				final int[] count = counts.computeIfAbsent(entry.getKey(),
+					k -> new int[2]);
+				count[0]++;
+				count[1] += entry.getValue();
+			}
+			write(counts, usage.toPath());
+		}
+	}
+
+	/** Counts the classes loaded from each JAR, according to a log. */
+	static Map<String, Integer> parse(final Path log) throws IOException {
+		final Path appDir = appDirectory().toPath().toAbsolutePath().normalize();
+		final Map<String, String> jars = new HashMap<>();
+		final Map<String, Integer> classes = new HashMap<>();
+		try (final Stream<String> lines = Files.lines(log,
+			StandardCharsets.UTF_8))
+		{
+			lines.forEach(line -> {
+				// e.g. "net.imagej.ImageJ source: file:/opt/Fiji/jars/imagej-2.17.0.jar"
+				final int source = line.indexOf(" source: ");
+				if (source < 0) return;
+				final String url = line.substring(source + 9).trim();
+				final String jar = jars.computeIfAbsent(url, u -> jarPath(u,
+					appDir));
+				if (!jar.isEmpty()) classes.merge(jar, 1, Integer::sum);
+			});
+		}
+		return classes;
+	}
+
+	/**
+	 * Gets the JAR of a class source, relative to the application directory
+	 * if inside it, or the empty string for sources other than JARs.
+	 */
+	private static String jarPath(final String url, final Path appDir) {
+		String location = url;
+		if (location.startsWith("jar:")) {
+			final int bang = location.indexOf("!/");
+			location = location.substring(4, bang < 0 ? location.length() : bang);
+		}
+		if (!location.startsWith("file:") || !location.endsWith(".jar")) return "";
+		final Path path;
+		try {
+			path = new File(new URI(location)).toPath().toAbsolutePath().normalize();
+		}
+		catch (final URISyntaxException | IllegalArgumentException exc) {
+			return "";
+		}
+		return (path.startsWith(appDir) ? appDir.relativize(path) : path)
+			.toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Reads a usage file into a map from JAR to its session and class counts.
+	 * The empty string maps to the total number of sessions.
+	 */
+	static Map<String, int[]> read(final File usage)
+		throws IOException
+	{
+		final Map<String, int[]> counts = new TreeMap<>();
+		if (!usage.exists()) return counts;
+		for (final String line : Files.readAllLines(usage.toPath(),
+			StandardCharsets.UTF_8))
+		{
+			final String[] fields = line.split("\t");
+			try {
+				if (fields.length == 2 && fields[0].equals("sessions")) {
+					counts.put("", new int[] { Integer.parseInt(fields[1]), 0 });
+				}
+				else if (fields.length == 3) {
+					counts.put(fields[2], new int[] { Integer.parseInt(fields[0]),
+						Integer.parseInt(fields[1]) });
+				}
+			}
+			catch (final NumberFormatException exc) {
+				// skip corrupt line
+			}
+		}
+		return counts;
+	}
+
+	private static void write(final Map<String, int[]> counts, final Path path)
+		throws IOException
+	{
+		final StringBuilder text = new StringBuilder();
+		final int[] total = counts.get("");
+		text.append("sessions\t").append(total == null ? 0 : total[0]).append(
+			'\n');
+		for (final Map.Entry<String, int[]> entry : counts.entrySet()) {
+			if (entry.getKey().isEmpty()) continue;
+			text.append(entry.getValue()[0]).append('\t').append(entry
+				.getValue()[1]).append('\t').append(entry.getKey()).append('\n');
+		}
+		final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tmp, text.toString().getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
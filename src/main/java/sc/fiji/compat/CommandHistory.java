@@ -0,0 +1,166 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.CommandListener;
+import ij.Executer;
+import ij.Prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts how often each ImageJ 1.x command is run, across sessions.
+ * <p>
+ * The counts are kept in {@code fiji-command-history.txt} in the ImageJ
+ * preferences directory, one {@code count<TAB>command} line per command.
+ * They are used by {@link Prewarmer} to load the classes of the most used
+ * commands ahead of time.
+ * </p>
+ */
+public class CommandHistory implements CommandListener {
+
+	private static final String FILE_NAME = "fiji-command-history.txt";
+
+	/** Counts are halved once any of them exceeds this, so old habits fade. */
+	private static final int MAX_COUNT = 1000;
+
+	private static CommandHistory instance;
+
+	private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+	private volatile long lastCommand = System.nanoTime();
+	private volatile boolean dirty;
+
+	/**
+	 * Gets the history, loading it and starting to record commands on first
+	 * use.
+	 */
+	public static synchronized CommandHistory getInstance() {
+		if (instance == null) {
+			instance = new CommandHistory();
+			instance.load();
+			Executer.addCommandListener(instance);
+		}
+		return instance;
+	}
+
+	/** Gets the most used commands, most used first. */
+	public List<String> getTopCommands(final int n) {
+		final List<Map.Entry<String, AtomicInteger>> entries = new ArrayList<>(
+			counts.entrySet());
+		entries.sort((a, b) -> Integer.compare(b.getValue().get(), a.getValue()
+			.get()));
+		final List<String> top = new ArrayList<>();
+		for (int i = 0; i < n && i < entries.size(); i++) {
+			top.add(entries.get(i).getKey());
+		}
+		return top;
+	}
+
+	/** Gets the time of the last command, as per {@link System#nanoTime()}. */
+	public long getLastCommandTime() {
+		return lastCommand;
+	}
+
+	/** Writes the counts back to disk, if they changed. */
+	public synchronized void save() {
+		if (!dirty) return;
+		final Path path = file().toPath();
+		final StringBuilder text = new StringBuilder();
+		for (final Map.Entry<String, AtomicInteger> entry : counts.entrySet()) {
+			text.append(entry.getValue().get()).append('\t').append(entry.getKey())
+				.append('\n');
+		}
+		try {
+			final Path tmp = path.resolveSibling(FILE_NAME + ".tmp");
+			Files.write(tmp, text.toString().getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		}
+		catch (final IOException exc) {
+			// not worth bothering the user with
+		}
+	}
+
+	// -- CommandListener methods --
+
+	@Override
+	public String commandExecuting(final String command) {
+		if (command != null) {
+			lastCommand = System.nanoTime();
+			final int count = counts.computeIfAbsent(command,
+				k -> new AtomicInteger()).incrementAndGet();
+			if (count > MAX_COUNT) decay();
+			dirty = true;
+		}
+		return command;
+	}
+
+	// -- Helper methods --
+
+	private void load() {
+		final File file = file();
+		if (!file.exists()) return;
+		try {
+			for (final String line : Files.readAllLines(file.toPath(),
+				StandardCharsets.UTF_8))
+			{
+				final int tab = line.indexOf('\t');
+				if (tab <= 0) continue;
+				try {
+					counts.put(line.substring(tab + 1), new AtomicInteger(Integer
+						.parseInt(line.substring(0, tab))));
+				}
+				catch (final NumberFormatException exc) {
+					// skip corrupt line
+				}
+			}
+		}
+		catch (final IOException exc) {
+			// start afresh
+		}
+	}
+
+	private synchronized void decay() {
+		// another thread may have decayed the counts already
+		if (counts.values().stream().noneMatch(count -> count
+			.get() > MAX_COUNT)) return;
+		for (final AtomicInteger count : counts.values()) {
+			count.set(count.get() / 2);
+		}
+		counts.values().removeIf(count -> count.get() == 0);
+	}
+
+	private static File file() {
+		return new File(Prefs.getPrefsDir(), FILE_NAME);
+	}
+}
@@ -0,0 +1,436 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.Menus;
+
+import java.awt.Menu;
+import java.awt.MenuBar;
+import java.awt.MenuItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * A trigram index over the ImageJ 1.x command table, for ranked fuzzy search
+ * by command label, menu path or class name.
+ * <p>
+ * The index is an immutable snapshot, so queries need no locking. When the
+ * menus change, {@link MenuRefresher} has it refreshed: only the commands
+ * which were added, removed or changed are reindexed, and the new snapshot
+ * is published atomically.
+ * </p>
+ * <p>
+ * Scripts in any language can use it, e.g. in Python:
+ * </p>
+ * <pre>
+ * from sc.fiji.compat import CommandIndex
+ * for match in CommandIndex.getInstance().search("gaus blur", 5):
+ *     print(match.getLabel(), match.getMenuPath())
+ * </pre>
+ */
+public final class CommandIndex {
+
+	/** A command found by {@link #search}. */
+	public static final class Match {
+
+		private final Entry entry;
+		private final double score;
+
+		private Match(final Entry entry, final double score) {
+			this.entry = entry;
+			this.score = score;
+		}
+
+		/** Gets the label, which can be passed to {@code IJ.run}. */
+		public String getLabel() {
+			return entry.label;
+		}
+
+		/** Gets the command table entry, e.g. {@code ij.plugin.Foo("arg")}. */
+		public String getCommand() {
+			return entry.command;
+		}
+
+		/** Gets the menu path, e.g. {@code Process>Filters>Gaussian Blur...}. */
+		public String getMenuPath() {
+			return entry.menuPath;
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		@Override
+		public String toString() {
+			return entry.label;
+		}
+	}
+
+	private static final int LABEL_WEIGHT = 3;
+
+	private static CommandIndex instance;
+
+	private volatile Snapshot snapshot = new Snapshot();
+
+	private CommandIndex() {
+		// use getInstance()
+	}
+
+	/** Gets the shared index, building it on first use. */
+	public static synchronized CommandIndex getInstance() {
+		if (instance == null) {
+			instance = new CommandIndex();
+			instance.refresh();
+		}
+		return instance;
+	}
+
+	/**
+	 * Has the command table copied anew, and refreshes the shared index if it
+	 * was ever built.
+	 */
+	static synchronized void menusChanged() {
+		CommandTable.changed();
+		if (instance != null) instance.refresh();
+	}
+
+	/** Gets the number of indexed commands. */
+	public int size() {
+		return snapshot.size;
+	}
+
+	/**
+	 * Finds the commands best matching the query, best first.
+	 *
+	 * @param query any part of a label, menu path or class name, possibly
+	 *          misspelled
+	 * @param limit the maximum number of matches
+	 */
+	public List<Match> search(final String query, final int limit) {
+		if (commandTableChanged()) refresh();
+		final Snapshot s = snapshot;
+		final String q = normalize(query);
+		if (q.isEmpty() || limit <= 0) return Collections.emptyList();
+
+		final long[] grams = trigrams(q);
+		final int[] scores = new int[s.entries.length];
+		final int[] touched = new int[s.entries.length];
+		int touchedCount = 0;
+		for (final long gram : grams) {
+			touchedCount = accumulate(s.labelGrams.get(gram), LABEL_WEIGHT, scores,
+				touched, touchedCount);
+			touchedCount = accumulate(s.otherGrams.get(gram), 1, scores, touched,
+				touchedCount);
+		}
+
+		final PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, (a,
+			b) -> Double.compare(a.score, b.score));
+		final double max = grams.length * (LABEL_WEIGHT + 1);
+		for (int i = 0; i < touchedCount; i++) {
+			final Entry entry = s.entries[touched[i]];
+			if (entry == null) continue;
+			double score = scores[touched[i]] / max;
+			if (score < 0.2) continue;
+			score += bonus(entry, q);
+			offer(best, new Match(entry, score), limit);
+		}
+		if (grams.length == 0 || best.isEmpty()) {
+			// too short for trigrams or no fuzzy match: fall back to substrings
+			for (final Entry entry : s.entries) {
+				if (entry == null) continue;
+				final double bonus = bonus(entry, q);
+				if (bonus > 0) offer(best, new Match(entry, bonus), limit);
+			}
+		}
+
+		final List<Match> result = new ArrayList<>(best);
+		result.sort((a, b) -> Double.compare(b.score, a.score));
+		return result;
+	}
+
+	/**
+	 * Brings the index up to date with the command table, reindexing only the
+	 * commands which changed.
+	 */
+	public synchronized void refresh() {
+		final Map<String, String> commands = CommandTable.getAll();
+		final Map<String, String> paths = menuPaths();
+		final Snapshot old = snapshot;
+		final Snapshot next = new Snapshot(old);
+
+		for (int id = 0; id < old.entries.length; id++) {
+			final Entry entry = old.entries[id];
+			if (entry == null) continue;
+			final String command = commands.get(entry.label);
+			if (command == null || !command.equals(entry.command) || !equal(paths
+				.get(entry.label), entry.menuPath))
+			{
+				next.remove(id);
+			}
+		}
+		for (final Map.Entry<String, String> e : commands.entrySet()) {
+			if (!next.ids.containsKey(e.getKey())) {
+				next.add(new Entry(e.getKey(), e.getValue(), paths.get(e.getKey())));
+			}
+		}
+		next.table = commands;
+		snapshot = next.finish();
+	}
+
+	// -- Helper methods --
+
+	private boolean commandTableChanged() {
+		return CommandTable.getAll() != snapshot.table;
+	}
+
+	private static int accumulate(final int[] postings, final int weight,
+		final int[] scores, final int[] touched, int touchedCount)
+	{
+		if (postings == null) return touchedCount;
+		for (final int id : postings) {
+			if (scores[id] == 0) touched[touchedCount++] = id;
+			scores[id] += weight;
+		}
+		return touchedCount;
+	}
+
+	private static void offer(final PriorityQueue<Match> best, final Match match,
+		final int limit)
+	{
+		best.add(match);
+		if (best.size() > limit) best.poll();
+	}
+
+	/** Rewards exact, prefix and substring matches of the label. */
+	private static double bonus(final Entry entry, final String q) {
+		if (entry.normalizedLabel.equals(q)) return 3;
+		if (entry.normalizedLabel.startsWith(q)) return 2;
+		if (entry.normalizedLabel.contains(q)) return 1;
+		if (entry.normalizedOther.contains(q)) return 0.5;
+		return 0;
+	}
+
+	private static boolean equal(final String a, final String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/** Lowercases and turns punctuation into single spaces. */
+	static String normalize(final String s) {
+		if (s == null) return "";
+		final StringBuilder builder = new StringBuilder(s.length());
+		boolean space = true;
+		for (final char c : s.toLowerCase(Locale.ROOT).toCharArray()) {
+			if (Character.isLetterOrDigit(c)) {
+				builder.append(c);
+				space = false;
+			}
+			else if (!space) {
+				builder.append(' ');
+				space = true;
+			}
+		}
+		final int length = builder.length();
+		if (length > 0 && builder.charAt(length - 1) == ' ') builder.setLength(
+			length - 1);
+		return builder.toString();
+	}
+
+	/** Gets the distinct trigrams of a normalized string, padded with spaces. */
+	static long[] trigrams(final String normalized) {
+		if (normalized.length() < 2) return new long[0];
+		final String padded = " " + normalized + " ";
+		final Set<Long> grams = new HashSet<>();
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			grams.add((long) padded.charAt(i) << 32 | (long) padded.charAt(
+				i + 1) << 16 | padded.charAt(i + 2));
+		}
+		final long[] result = new long[grams.size()];
+		int i = 0;
+		for (final long gram : grams)
+			result[i++] = gram;
+		return result;
+	}
+
+	/** Maps command labels to their menu paths, as far as the menu bar tells. */
+	private static Map<String, String> menuPaths() {
+		final Map<String, String> paths = new HashMap<>();
+		final MenuBar bar = Menus.getMenuBar();
+		if (bar == null) return paths;
+		for (int i = 0; i < bar.getMenuCount(); i++) {
+			final Menu menu = bar.getMenu(i);
+			if (menu != null) collectPaths(menu, menu.getLabel(), paths);
+		}
+		return paths;
+	}
+
+	private static void collectPaths(final Menu menu, final String path,
+		final Map<String, String> paths)
+	{
+		for (int i = 0; i < menu.getItemCount(); i++) {
+			final MenuItem item = menu.getItem(i);
+			if (item == null) continue;
+			final String itemPath = path + ">" + item.getLabel();
+			if (item instanceof Menu) collectPaths((Menu) item, itemPath, paths);
+			else paths.putIfAbsent(item.getLabel(), itemPath);
+		}
+	}
+
+	private static final class Entry {
+
+		private final String label;
+		private final String command;
+		private final String menuPath;
+		private final String normalizedLabel;
+		private final String normalizedOther;
+
+		private Entry(final String label, final String command,
+			final String menuPath)
+		{
+			this.label = label;
+			this.command = command;
+			this.menuPath = menuPath;
+			normalizedLabel = normalize(label);
+			normalizedOther = normalize((menuPath == null ? "" : menuPath) + " " +
+				Prewarmer.className(command));
+		}
+	}
+
+	/**
+	 * One state of the index. Snapshots are modified only while being built,
+	 * and never after being published.
+	 */
+	private static final class Snapshot {
+
+		private Entry[] entries;
+		private int size;
+		/** The command table this snapshot was built from. */
+		private Map<String, String> table;
+		private final Map<String, Integer> ids;
+		private final Map<Long, int[]> labelGrams;
+		private final Map<Long, int[]> otherGrams;
+
+		/** Entries and postings added since the last {@link #finish()}. */
+		private final List<Entry> added = new ArrayList<>();
+		private final Map<Long, List<Integer>> addedLabelGrams = new HashMap<>();
+		private final Map<Long, List<Integer>> addedOtherGrams = new HashMap<>();
+
+		private Snapshot() {
+			entries = new Entry[0];
+			ids = new HashMap<>();
+			labelGrams = new HashMap<>();
+			otherGrams = new HashMap<>();
+		}
+
+		/** Copies the given snapshot; the posting arrays are shared. */
+		private Snapshot(final Snapshot other) {
+			entries = other.entries.clone();
+			size = other.size;
+			ids = new HashMap<>(other.ids);
+			labelGrams = new HashMap<>(other.labelGrams);
+			otherGrams = new HashMap<>(other.otherGrams);
+		}
+
+		private void add(final Entry entry) {
+			final int id = entries.length + added.size();
+			added.add(entry);
+			ids.put(entry.label, id);
+			size++;
+			for (final long gram : trigrams(entry.normalizedLabel))
+				addedLabelGrams.computeIfAbsent(gram, g -> new ArrayList<>()).add(id);
+			for (final long gram : trigrams(entry.normalizedOther))
+				addedOtherGrams.computeIfAbsent(gram, g -> new ArrayList<>()).add(id);
+		}
+
+		/** Removes an entry which was there before the copy was made. */
+		private void remove(final int id) {
+			final Entry entry = entries[id];
+			entries[id] = null;
+			ids.remove(entry.label);
+			size--;
+			for (final long gram : trigrams(entry.normalizedLabel))
+				drop(labelGrams, gram, id);
+			for (final long gram : trigrams(entry.normalizedOther))
+				drop(otherGrams, gram, id);
+		}
+
+		/**
+		 * Merges the added entries into the arrays. If removed entries make up a
+		 * good part of them, reindexes from scratch instead.
+		 */
+		private Snapshot finish() {
+			final int length = entries.length + added.size();
+			if (length - size > Math.max(64, size / 4)) {
+				final Snapshot fresh = new Snapshot();
+				for (final Entry entry : entries)
+					if (entry != null) fresh.add(entry);
+				for (final Entry entry : added)
+					fresh.add(entry);
+				fresh.table = table;
+				return fresh.finish();
+			}
+			final int offset = entries.length;
+			entries = Arrays.copyOf(entries, length);
+			for (int i = 0; i < added.size(); i++)
+				entries[offset + i] = added.get(i);
+			merge(labelGrams, addedLabelGrams);
+			merge(otherGrams, addedOtherGrams);
+			added.clear();
+			addedLabelGrams.clear();
+			addedOtherGrams.clear();
+			return this;
+		}
+
+		private static void merge(final Map<Long, int[]> grams,
+			final Map<Long, List<Integer>> added)
+		{
+			for (final Map.Entry<Long, List<Integer>> e : added.entrySet()) {
+				final int[] old = grams.get(e.getKey());
+				final int start = old == null ? 0 : old.length;
+				final int[] postings = old == null ? new int[e.getValue().size()]
+					: Arrays.copyOf(old, start + e.getValue().size());
+				for (int i = 0; i < e.getValue().size(); i++)
+					postings[start + i] = e.getValue().get(i);
+				grams.put(e.getKey(), postings);
+			}
+		}
+
+		private static void drop(final Map<Long, int[]> grams, final long gram,
+			final int id)
+		{
+			final int[] old = grams.get(gram);
+			if (old == null) return;
+			final int[] postings = Arrays.stream(old).filter(i -> i != id)
+				.toArray();
+			if (postings.length == 0) grams.remove(gram);
+			else grams.put(gram, postings);
+		}
+	}
+}
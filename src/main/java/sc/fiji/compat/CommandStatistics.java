@@ -0,0 +1,315 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.scijava.module.Module;
+import org.scijava.module.ModuleInfo;
+
+/**
+ * Execution statistics of SciJava modules, recorded per command by
+ * {@link CommandTimingPreprocessor} and {@link CommandTimingPostprocessor}.
+ * <p>
+ * For each command, the wall-clock time, the CPU time and the bytes allocated
+ * by the executing thread are recorded in {@link LogHistogram}s. CPU time and
+ * allocations are only recorded where the JVM supports measuring them, and do
+ * not include work the command hands off to other threads.
+ * </p>
+ * <p>
+ * Recording can be switched off with {@code -Dfiji.command.stats=false}. If
+ * the {@code fiji.command.stats.file} system property is set, the statistics
+ * are exported to that file when the context is disposed, which is handy for
+ * headless pipelines.
+ * </p>
+ */
+public class CommandStatistics {
+
+	public static final boolean ENABLED = !"false".equals(System.getProperty(
+		"fiji.command.stats"));
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private final ConcurrentHashMap<String, Entry> entries =
+		new ConcurrentHashMap<>();
+
+	/**
+	 * The modules being executed, by identity. Entries are removed by
+	 * {@link #stop}, or by {@link #discard} for modules which failed or were
+	 * canceled, so that they do not pile up.
+	 */
+	private final Map<Module, Start> running = Collections.synchronizedMap(
+		new IdentityHashMap<>());
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final com.sun.management.ThreadMXBean allocations =
+		threads instanceof com.sun.management.ThreadMXBean
+			? (com.sun.management.ThreadMXBean) threads : null;
+
+	/** Gets the statistics of the given command, or null if it never ran. */
+	public Entry get(final String id) {
+		return entries.get(id);
+	}
+
+	/** Gets the statistics of all commands, those with the most time first. */
+	public List<Entry> getEntries() {
+		final List<Entry> list = new ArrayList<>(entries.values());
+		list.sort(Comparator.comparingLong((Entry e) -> e.getWallTime().getSum())
+			.reversed());
+		return Collections.unmodifiableList(list);
+	}
+
+	public void reset() {
+		entries.clear();
+	}
+
+	/**
+	 * Writes the statistics to the given file: as JSON if its name ends in
+	 * {@code .json}, in the Prometheus text format otherwise.
+	 */
+	public void export(final File file) throws IOException {
+		final String text = file.getName().toLowerCase(Locale.ROOT).endsWith(
+			".json") ? toJSON() : toPrometheus();
+		final Path path = file.getAbsoluteFile().toPath();
+		if (path.getParent() != null) Files.createDirectories(path.getParent());
+		final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public String toJSON() {
+		final StringBuilder json = new StringBuilder("{\"commands\":[");
+		String separator = "";
+		for (final Entry entry : getEntries()) {
+			json.append(separator).append("\n{\"id\":").append(quote(entry.getId()))
+				.append(",\"title\":").append(quote(entry.getTitle()));
+			appendJSON(json, "wallNanos", entry.getWallTime());
+			appendJSON(json, "cpuNanos", entry.getCpuTime());
+			appendJSON(json, "allocatedBytes", entry.getAllocated());
+			json.append('}');
+			separator = ",";
+		}
+		return json.append("\n]}\n").toString();
+	}
+
+	public String toPrometheus() {
+		final StringBuilder text = new StringBuilder();
+		appendPrometheus(text, "fiji_command_duration_seconds",
+			"Wall-clock time of command executions.", 1e-9, Entry::getWallTime);
+		appendPrometheus(text, "fiji_command_cpu_seconds",
+			"CPU time of the executing thread.", 1e-9, Entry::getCpuTime);
+		appendPrometheus(text, "fiji_command_allocated_bytes",
+			"Bytes allocated by the executing thread.", 1, Entry::getAllocated);
+		return text.toString();
+	}
+
+	// -- Internal methods --
+
+	/** Called by {@link CommandTimingPreprocessor} right before execution. */
+	void start(final Module module) {
+		final Thread thread = Thread.currentThread();
+		running.put(module, new Start(thread, System.nanoTime(), cpuTime(),
+			allocatedBytes(thread.getId())));
+	}
+
+	/** Called by {@link CommandTimingPostprocessor} right after execution. */
+	void stop(final Module module) {
+		final long end = System.nanoTime();
+		final Thread thread = Thread.currentThread();
+		final Start start = running.remove(module);
+		if (start == null) return;
+		// the executing thread's counters mean nothing on another thread
+		final boolean sameThread = start.thread == thread;
+		final long cpu = sameThread ? cpuTime() : -1;
+		final long allocated = sameThread ? allocatedBytes(thread.getId()) : -1;
+
+		final ModuleInfo info = module.getInfo();
+		final String id = id(info);
+		final Entry entry = entries.computeIfAbsent(id, k -> new Entry(id, info
+			.getTitle()));
+		entry.wall.record(end - start.wall);
+		if (cpu >= 0 && start.cpu >= 0) entry.cpu.record(cpu - start.cpu);
+		if (allocated >= 0 && start.allocated >= 0) entry.allocated.record(
+			allocated - start.allocated);
+	}
+
+	/**
+	 * Forgets a module which failed or was canceled, and whose postprocessors
+	 * therefore never ran.
+	 */
+	void discard(final Module module) {
+		running.remove(module);
+	}
+
+	// -- Helper methods --
+
+	private long cpuTime() {
+		try {
+			return threads.isCurrentThreadCpuTimeSupported() ? threads
+				.getCurrentThreadCpuTime() : -1;
+		}
+		catch (final UnsupportedOperationException exc) {
+			return -1;
+		}
+	}
+
+	private long allocatedBytes(final long thread) {
+		if (allocations == null) return -1;
+		try {
+			return allocations.getThreadAllocatedBytes(thread);
+		}
+		catch (final UnsupportedOperationException exc) {
+			return -1;
+		}
+	}
+
+	private static String id(final ModuleInfo info) {
+		final String id = info.getIdentifier();
+		return id != null ? id : info.getDelegateClassName();
+	}
+
+	private static void appendJSON(final StringBuilder json, final String name,
+		final LogHistogram histogram)
+	{
+		json.append(",\"").append(name).append("\":{\"count\":").append(histogram
+			.getCount()).append(",\"sum\":").append(histogram.getSum()).append(
+				",\"max\":").append(histogram.getMax());
+		for (final double q : QUANTILES) {
+			json.append(",\"p").append(Math.round(q * 100)).append("\":").append(
+				histogram.getQuantile(q));
+		}
+		json.append('}');
+	}
+
+	private void appendPrometheus(final StringBuilder text, final String metric,
+		final String help, final double scale,
+		final Function<Entry, LogHistogram> select)
+	{
+		text.append("# HELP ").append(metric).append(' ').append(help).append(
+			'\n');
+		text.append("# TYPE ").append(metric).append(" summary\n");
+		for (final Entry entry : getEntries()) {
+			final LogHistogram histogram = select.apply(entry);
+			if (histogram.getCount() == 0) continue;
+			final String label = "command=" + quote(entry.getId());
+			for (final double q : QUANTILES) {
+				text.append(metric).append('{').append(label).append(",quantile=\"")
+					.append(q).append("\"} ").append(histogram.getQuantile(q) * scale)
+					.append('\n');
+			}
+			text.append(metric).append("_sum{").append(label).append("} ").append(
+				histogram.getSum() * scale).append('\n');
+			text.append(metric).append("_count{").append(label).append("} ").append(
+				histogram.getCount()).append('\n');
+		}
+	}
+
+	static String quote(final String s) {
+		if (s == null) return "null";
+		final StringBuilder quoted = new StringBuilder("\"");
+		for (final char c : s.toCharArray()) {
+			switch (c) {
+				case '"':
+				case '\\':
+					quoted.append('\\').append(c);
+					break;
+				case '\n':
+					quoted.append("\\n");
+					break;
+				default:
+					if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+					else quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	/** The statistics of one command. */
+	public static class Entry {
+
+		private final String id;
+		private final String title;
+		private final LogHistogram wall = new LogHistogram();
+		private final LogHistogram cpu = new LogHistogram();
+		private final LogHistogram allocated = new LogHistogram();
+
+		private Entry(final String id, final String title) {
+			this.id = id;
+			this.title = title;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		/** Gets the wall-clock times of the executions, in nanoseconds. */
+		public LogHistogram getWallTime() {
+			return wall;
+		}
+
+		/** Gets the CPU times of the executions, in nanoseconds. */
+		public LogHistogram getCpuTime() {
+			return cpu;
+		}
+
+		/** Gets the bytes allocated by the executions. */
+		public LogHistogram getAllocated() {
+			return allocated;
+		}
+	}
+
+	private static class Start {
+
+		private final Thread thread;
+		private final long wall, cpu, allocated;
+
+		private Start(final Thread thread, final long wall, final long cpu,
+			final long allocated)
+		{
+			this.thread = thread;
+			this.wall = wall;
+			this.cpu = cpu;
+			this.allocated = allocated;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.Menus;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A view of the ImageJ 1.x command table which can be read without locking.
+ * <p>
+ * {@link Menus#getCommands()} is a {@link Hashtable}, whose every lookup takes
+ * its monitor, and which must be locked for as long as it is iterated over,
+ * blocking every command lookup in the meantime. This class keeps an
+ * immutable copy of the table, from which {@link #get} and {@link #getAll()}
+ * read without locking. Writers go through {@link #put}, {@link #putAll} or
+ * {@link #remove}, which update the {@link Hashtable} for the benefit of
+ * ImageJ 1.x, and then publish a new copy.
+ * </p>
+ * <p>
+ * The copy carries a version number, which writers and {@link #changed()}
+ * bump; a copy of an older version, or of a {@link Hashtable} which a menu
+ * rebuild has since replaced, is taken anew on the next read. Code which
+ * writes to the {@link Hashtable} directly must call {@link #changed()}
+ * afterwards; menu rebuilds do so via {@link MenuRefresher} and
+ * {@link CommandIndex#menusChanged()}.
+ * </p>
+ */
+public final class CommandTable {
+
+	private static final AtomicLong version = new AtomicLong();
+
+	private static volatile Snapshot snapshot = new Snapshot(null, -1,
+		Collections.emptyMap());
+
+	private CommandTable() {
+		// Prevent instantiation of utility class.
+	}
+
+	/** Gets the command for the given menu label, or null if there is none. */
+	public static String get(final String label) {
+		return label == null ? null : current().commands.get(label);
+	}
+
+	/** Gets an immutable copy of the whole command table. */
+	public static Map<String, String> getAll() {
+		return current().commands;
+	}
+
+	/** Adds or replaces a command. */
+	public static void put(final String label, final String command) {
+		putAll(Collections.singletonMap(label, command));
+	}
+
+	/** Adds or replaces several commands, publishing them at once. */
+	@SuppressWarnings("unchecked")
+	public static synchronized void putAll(final Map<String, String> commands) {
+		final Hashtable<String, String> table = Menus.getCommands();
+		if (table == null) return;
+		table.putAll(commands);
+		publish(table);
+	}
+
+	/** Removes a command. */
+	@SuppressWarnings("unchecked")
+	public static synchronized void remove(final String label) {
+		final Hashtable<String, String> table = Menus.getCommands();
+		if (table == null) return;
+		table.remove(label);
+		publish(table);
+	}
+
+	/**
+	 * Notes that the {@link Hashtable} was changed behind this class's back, so
+	 * that the next read copies it anew.
+	 */
+	public static void changed() {
+		version.incrementAndGet();
+	}
+
+	/** Copies the {@link Hashtable} anew, e.g. after the menus were rebuilt. */
+	@SuppressWarnings("unchecked")
+	public static synchronized void refresh() {
+		publish(Menus.getCommands());
+	}
+
+	// -- Helper methods --
+
+	private static Snapshot current() {
+		final Snapshot s = snapshot;
+		if (s.version == version.get() && s.table == Menus.getCommands()) {
+			return s;
+		}
+		refresh();
+		return snapshot;
+	}
+
+	/** Publishes a new copy; callers hold the class's monitor. */
+	private static void publish(final Hashtable<String, String> table) {
+		final long v = version.incrementAndGet();
+		snapshot = new Snapshot(table, v, table == null ? Collections.emptyMap()
+			: copy(table));
+	}
+
+	private static Map<String, String> copy(
+		final Hashtable<String, String> table)
+	{
+		// iterating over a Hashtable requires holding its monitor
+		synchronized (table) {
+			return Collections.unmodifiableMap(new HashMap<>(table));
+		}
+	}
+
+	private static final class Snapshot {
+
+		private final Hashtable<?, ?> table;
+		private final long version;
+		private final Map<String, String> commands;
+
+		private Snapshot(final Hashtable<?, ?> table, final long version,
+			final Map<String, String> commands)
+		{
+			this.table = table;
+			this.version = version;
+			this.commands = commands;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import org.scijava.Priority;
+import org.scijava.module.Module;
+import org.scijava.module.process.AbstractPreprocessorPlugin;
+import org.scijava.module.process.PreprocessorPlugin;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Starts measuring a module's execution for the {@link CommandStatistics}.
+ * <p>
+ * Runs after all other preprocessors, so that time spent in dialogs
+ * harvesting the inputs is not counted.
+ * </p>
+ */
+@Plugin(type = PreprocessorPlugin.class, priority = Priority.LAST)
+public class CommandTimingPreprocessor extends AbstractPreprocessorPlugin {
+
+	@Parameter(required = false)
+	private FijiService fiji;
+
+	@Override
+	public void process(Module module) {
+		if (fiji != null && CommandStatistics.ENABLED) {
+			fiji.getCommandStatistics().start(module);
+		}
+	}
+}
@@ -27,14 +27,27 @@
 
 import java.awt.GraphicsEnvironment;
 import java.awt.Toolkit;
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.module.event.ModuleCanceledEvent;
+import org.scijava.module.event.ModuleErroredEvent;
+import org.scijava.module.event.ModulesRemovedEvent;
+import org.scijava.module.event.ModulesUpdatedEvent;
+import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.service.AbstractService;
 import org.scijava.service.Service;
 import org.scijava.service.event.ServicesLoadedEvent;
 
+import sc.fiji.daemon.InstanceEndpoint;
+
 /**
  * The default initializer for the Fiji legacy application.
  * <p>
@@ -48,27 +61,184 @@
 @Plugin(type = Service.class)
 public class DefaultFijiService extends AbstractService implements FijiService {
 
+	@Parameter(required = false)
+	private LogService log;
+
+	private final CompletableFuture<Void> disposed = new CompletableFuture<>();
+	private Thread shutdownHook;
+	private final Map<Class<?>, ModuleInfoCache<?>> moduleInfoCaches =
+		new ConcurrentHashMap<>();
+	private final CommandStatistics commandStatistics = new CommandStatistics();
+	private BackgroundTasks tasks;
+	private final ShutdownCoordinator shutdown = new ShutdownCoordinator();
+	private ThreadMonitor threadMonitor;
+	private final Object planeCacheLock = new Object();
+	private PlaneCache planeCache;
+
 	public void actuallyInitialize() {
 		FileDialogDecorator.registerAutomaticDecorator();
 		JFileChooserDecorator.registerAutomaticDecorator();
 		final ImageJ ij = IJ.getInstance();
 		if (ij != null) {
 			new MenuRefresher().run();
-			new Thread() {
-				@Override
-				public void run() {
-					/*
-					 * Do not run updater when command line
-					 * parameters were specified.
-					 * Fiji automatically adds -eval ...
-					 * and -port7, so there should be at
-					 * least 3 parameters anyway.
-					 */
-					String[] ijArgs = ImageJ.getArgs();
-					if (ijArgs != null && ijArgs.length > 3)
-						return;
-				}
-			}.start();
+			final CommandHistory commandHistory = CommandHistory.getInstance();
+			shutdown.register("command history", commandHistory::save);
+			Prewarmer.start(tasks);
+			MenuWatcher.start(tasks);
+			InstanceEndpoint.start(getContext(), tasks);
+			tasks.run("Fiji updater check", () -> {
+				/*
+				 * Do not run updater when command line
+				 * parameters were specified.
+				 * Fiji automatically adds -eval ...
+				 * and -port7, so there should be at
+				 * least 3 parameters anyway.
+				 */
+				String[] ijArgs = ImageJ.getArgs();
+				if (ijArgs != null && ijArgs.length > 3)
+					return;
+			});
+		}
+	}
+
+	// -- FijiService methods --
+
+	@Override
+	public CompletableFuture<Void> whenDisposed() {
+		return disposed;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V> ModuleInfoCache<V> getModuleInfoCache(final Class<?> owner) {
+		return (ModuleInfoCache<V>) moduleInfoCaches.computeIfAbsent(owner,
+			k -> new ModuleInfoCache<>());
+	}
+
+	@Override
+	public CommandStatistics getCommandStatistics() {
+		return commandStatistics;
+	}
+
+	@Override
+	public BackgroundTasks getBackgroundTasks() {
+		return tasks;
+	}
+
+	@Override
+	public CommandIndex getCommandIndex() {
+		return CommandIndex.getInstance();
+	}
+
+	@Override
+	public ShutdownCoordinator getShutdownCoordinator() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized ThreadMonitor getThreadMonitor() {
+		// created on demand, as it turns on contention monitoring in the JVM
+		if (threadMonitor == null) threadMonitor = new ThreadMonitor(tasks);
+		return threadMonitor;
+	}
+
+	@Override
+	public PlaneCache getPlaneCache() {
+		// created on demand, as it sets the heap pools' usage thresholds
+		synchronized (planeCacheLock) {
+			if (planeCache == null) {
+				planeCache = new PlaneCache(PlaneCache.defaultBudget());
+				PlaneCache.setDefault(planeCache);
+			}
+			return planeCache;
+		}
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		tasks = new BackgroundTasks("fiji");
+		BackgroundTasks.setDefault(tasks);
+		shutdown.register("background tasks", () -> {
+			for (final BackgroundTasks.Task<?> task : tasks.shutdown(shutdown
+				.getRemainingMillis()))
+			{
+				if (log != null) log.warn("Background task did not stop in time: " +
+					task);
+			}
+		});
+		shutdown.register("plane cache", this::closePlaneCache);
+		shutdown.register("command statistics", this::exportCommandStatistics);
+		shutdown.register("classpath recorder", ClasspathRecorder::record);
+		shutdownHook = new Thread(this::finish, "Fiji shutdown latch");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		}
+		catch (final IllegalStateException exc) {
+			// the JVM is already shutting down
+		}
+		finish();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Runs once, on dispose or on JVM shutdown, whichever comes first. Gives
+	 * Fiji's parts {@code fiji.shutdown.timeout} milliseconds (default: 5000)
+	 * to shut down, and names those which did not.
+	 */
+	private synchronized void finish() {
+		if (disposed.isDone()) return;
+		final ShutdownCoordinator.Report report = shutdown.shutdown(Long.getLong(
+			"fiji.shutdown.timeout", 5000));
+		if (log != null) {
+			for (final Map.Entry<String, Throwable> failure : report.getFailures()
+				.entrySet())
+			{
+				log.warn("Shutdown of " + failure.getKey() + " failed", failure
+					.getValue());
+			}
+			if (!report.getStragglers().isEmpty()) {
+				log.warn("Shutdown held up by:\n" + report.describeStragglers());
+			}
+			else if (!report.getLingeringThreads().isEmpty()) {
+				// in the GUI, the AWT threads are expected to linger
+				final String message = "Threads left after shutdown:\n" + report
+					.describeStragglers();
+				if (GraphicsEnvironment.isHeadless()) log.warn(message);
+				else log.debug(message);
+			}
+			log.debug(report);
+		}
+		disposed.complete(null);
+	}
+
+	private void closePlaneCache() {
+		// not synchronized on this: finish() holds that while shutting down
+		synchronized (planeCacheLock) {
+			if (planeCache == null) return;
+			if (log != null) log.debug("Plane cache: " + planeCache);
+			planeCache.close();
+		}
+	}
+
+	private void exportCommandStatistics() {
+		final String path = System.getProperty("fiji.command.stats.file");
+		if (path == null || path.isEmpty()) return;
+		try {
+			commandStatistics.export(new File(path));
+		}
+		catch (final IOException exc) {
+			if (log != null) log.warn("Could not write command statistics to " +
+				path, exc);
 		}
 	}
 
@@ -76,4 +246,26 @@ public void run() {
 	protected void onEvent(@SuppressWarnings("unused") ServicesLoadedEvent evt) {
 		actuallyInitialize();
 	}
+
+	@EventHandler
+	protected void onEvent(final ModuleErroredEvent evt) {
+		commandStatistics.discard(evt.getModule());
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleCanceledEvent evt) {
+		commandStatistics.discard(evt.getModule());
+	}
+
+	@EventHandler
+	protected void onEvent(final ModulesRemovedEvent evt) {
+		for (final ModuleInfoCache<?> cache : moduleInfoCaches.values())
+			cache.invalidate(evt.getItems());
+	}
+
+	@EventHandler
+	protected void onEvent(final ModulesUpdatedEvent evt) {
+		for (final ModuleInfoCache<?> cache : moduleInfoCaches.values())
+			cache.invalidate(evt.getItems());
+	}
 }
@@ -0,0 +1,437 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptLanguage;
+import org.scijava.script.ScriptService;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.util.FileUtils;
+
+/**
+ * Default implementation of {@link ScriptCacheService}.
+ * <p>
+ * The number of compiled scripts kept in memory is limited by the
+ * {@code fiji.script.cache.size} system property (default: 256).
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultScriptCacheService extends AbstractService implements
+	ScriptCacheService
+{
+
+	/** Phase of Groovy's {@code CompilationUnit} which generates class files. */
+	private static final int GROOVY_CLASS_GENERATION = 7;
+
+	/** System property naming the directory of Nashorn's code cache. */
+	private static final String NASHORN_CACHE_DIR =
+		"nashorn.persistent.code.cache";
+
+	@Parameter
+	private ScriptService scriptService;
+
+	@Parameter
+	private LogService log;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final Map<String, Compiled> memory;
+
+	private File cacheDir;
+
+	public DefaultScriptCacheService() {
+		final int capacity = Integer.getInteger("fiji.script.cache.size", 256);
+		memory = new LinkedHashMap<String, Compiled>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<String, Compiled> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	// -- ScriptCacheService methods --
+
+	@Override
+	public Object run(final File file, final Map<String, Object> bindings)
+		throws IOException, ScriptException
+	{
+		final ScriptLanguage language = scriptService.getLanguageByExtension(
+			FileUtils.getExtension(file));
+		if (language == null) {
+			throw new ScriptException("No script language for " + file);
+		}
+		final String source = new String(Files.readAllBytes(file.toPath()),
+			StandardCharsets.UTF_8);
+		final String key = key(source, language);
+
+		Compiled compiled;
+		synchronized (memory) {
+			compiled = memory.get(key);
+		}
+		if (compiled != null) hits.incrementAndGet();
+		else {
+			misses.incrementAndGet();
+			compiled = compile(file, source, key, language);
+			if (compiled == null) {
+				// not compilable: evaluate with an engine of its own
+				final ScriptEngine engine = newEngine(language);
+				return engine.eval(source, bindings(engine, file, bindings));
+			}
+			synchronized (memory) {
+				memory.put(key, compiled);
+			}
+		}
+		return compiled.run(bindings);
+	}
+
+	@Override
+	public void clear() {
+		synchronized (memory) {
+			memory.clear();
+		}
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		cacheDir = cacheDirectory();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Compiles the given script, or returns null if its engine cannot compile.
+	 */
+	private Compiled compile(final File file, final String source,
+		final String key, final ScriptLanguage language) throws ScriptException
+	{
+		final ScriptEngine engine = newEngine(language);
+		if (isGroovy(engine)) {
+			try {
+				return new GroovyCompiled(engine, key, source);
+			}
+			catch (final ReflectiveOperationException | IOException exc) {
+				log.debug("Could not cache Groovy classes for " + file, exc);
+			}
+		}
+		if (!(engine instanceof Compilable)) return null;
+		return new EngineCompiled(language, file, source, engine);
+	}
+
+	private ScriptEngine newEngine(final ScriptLanguage language) {
+		final ScriptEngine engine = language.getScriptEngine();
+		return isNashorn(engine) ? withCodeCache(engine) : engine;
+	}
+
+	private static Bindings bindings(final ScriptEngine engine, final File file,
+		final Map<String, Object> values)
+	{
+		final Bindings bindings = engine.createBindings();
+		bindings.put(ScriptEngine.FILENAME, file.getPath());
+		if (values != null) bindings.putAll(values);
+		return bindings;
+	}
+
+	private static boolean isGroovy(final ScriptEngine engine) {
+		return engine.getClass().getName().startsWith("org.codehaus.groovy.");
+	}
+
+	private static boolean isNashorn(final ScriptEngine engine) {
+		return engine.getFactory() != null && engine.getFactory().getClass()
+			.getName().endsWith(".NashornScriptEngineFactory");
+	}
+
+	/**
+	 * Creates a Nashorn engine of its own with the persistent code cache
+	 * enabled, leaving the options of all other Nashorn engines alone.
+	 * <p>
+	 * Nashorn reads the cache directory from a system property when the engine
+	 * is created, so the property is only set for that moment.
+	 * </p>
+	 */
+	private ScriptEngine withCodeCache(final ScriptEngine engine) {
+		final ScriptEngineFactory factory = engine.getFactory();
+		synchronized (DefaultScriptCacheService.class) {
+			final String previous = System.getProperty(NASHORN_CACHE_DIR);
+			if (previous == null) {
+				System.setProperty(NASHORN_CACHE_DIR, new File(cacheDir, "nashorn")
+					.getPath());
+			}
+			try {
+				return (ScriptEngine) factory.getClass().getMethod("getScriptEngine",
+					String[].class).invoke(factory, (Object) new String[] {
+						"--persistent-code-cache" });
+			}
+			catch (final ReflectiveOperationException exc) {
+				log.debug("Could not enable Nashorn's code cache", exc);
+				return engine;
+			}
+			finally {
+				if (previous == null) System.clearProperty(NASHORN_CACHE_DIR);
+			}
+		}
+	}
+
+	/**
+	 * Gets the cache directory below the application directory, or one in the
+	 * temporary directory if the application directory is read-only.
+	 */
+	private static File cacheDirectory() {
+		String appDir = System.getProperty("scijava.app.directory");
+		if (appDir == null) appDir = FijiTools.getImageJDir();
+		final File dir = new File(appDir, "cache/scripts");
+		if (dir.isDirectory() ? dir.canWrite() : new File(appDir).canWrite()) {
+			return dir;
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "fiji-" + System
+			.getProperty("user.name") + "/scripts");
+	}
+
+	private static String key(final String source,
+		final ScriptLanguage language)
+	{
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException exc) {
+			throw new IllegalStateException(exc);
+		}
+		digest.update((language.getEngineName() + "\n" + language
+			.getEngineVersion() + "\n").getBytes(StandardCharsets.UTF_8));
+		digest.update(source.getBytes(StandardCharsets.UTF_8));
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	/** A compiled script, ready to be run any number of times. */
+	private interface Compiled {
+
+		Object run(Map<String, Object> bindings) throws ScriptException;
+	}
+
+	/**
+	 * A script compiled by a {@link Compilable} engine.
+	 * <p>
+	 * Engines keep global state between evaluations, so every thread running the
+	 * script compiles it once with an engine of its own.
+	 * </p>
+	 */
+	private class EngineCompiled implements Compiled {
+
+		private final ScriptLanguage language;
+		private final File file;
+		private final String source;
+		private final ThreadLocal<CompiledScript> scripts = new ThreadLocal<>();
+
+		private EngineCompiled(final ScriptLanguage language, final File file,
+			final String source, final ScriptEngine engine) throws ScriptException
+		{
+			this.language = language;
+			this.file = file;
+			this.source = source;
+			scripts.set(((Compilable) engine).compile(source));
+		}
+
+		@Override
+		public Object run(final Map<String, Object> bindings)
+			throws ScriptException
+		{
+			CompiledScript script = scripts.get();
+			if (script == null) {
+				script = ((Compilable) newEngine(language)).compile(source);
+				scripts.set(script);
+			}
+			return script.eval(bindings(script.getEngine(), file, bindings));
+		}
+	}
+
+	/**
+	 * A Groovy script compiled to class files, which are stored in the cache
+	 * directory and loaded from there in later sessions.
+	 * <p>
+	 * The class files of a script are written to a temporary directory which is
+	 * then renamed into place, so a directory in the cache is always complete.
+	 * </p>
+	 * <p>
+	 * Groovy is accessed reflectively, since it is an optional runtime
+	 * dependency.
+	 * </p>
+	 */
+	private class GroovyCompiled implements Compiled {
+
+		private final Class<?> scriptClass;
+		private final Class<?> bindingClass;
+
+		private GroovyCompiled(final ScriptEngine engine, final String key,
+			final String source) throws ReflectiveOperationException, IOException
+		{
+			final ClassLoader parent = engine.getClass().getClassLoader();
+			final String mainClass = "FijiScript_" + key.substring(0, 16);
+			final File dir = new File(new File(cacheDir, "groovy"), key);
+			if (!dir.isDirectory()) compileTo(parent, mainClass, source, dir);
+			final Map<String, byte[]> classes = new HashMap<>();
+			final File[] files = dir.listFiles((d, name) -> name.endsWith(".class"));
+			if (files != null) for (final File f : files) {
+				final String name = f.getName();
+				classes.put(name.substring(0, name.length() - 6), Files.readAllBytes(f
+					.toPath()));
+			}
+			final ClassLoader loader = new ClassLoader(parent) {
+
+				@Override
+				protected Class<?> findClass(final String name)
+					throws ClassNotFoundException
+				{
+					final byte[] bytes = classes.get(name);
+					if (bytes == null) throw new ClassNotFoundException(name);
+					return defineClass(name, bytes, 0, bytes.length);
+				}
+			};
+			scriptClass = loader.loadClass(mainClass);
+			bindingClass = parent.loadClass("groovy.lang.Binding");
+		}
+
+		@Override
+		public Object run(final Map<String, Object> bindings)
+			throws ScriptException
+		{
+			try {
+				final Object binding = bindingClass.getConstructor(Map.class)
+					.newInstance(new HashMap<>(bindings == null ? new HashMap<>()
+						: bindings));
+				final Object script = scriptClass.getConstructor(bindingClass)
+					.newInstance(binding);
+				return scriptClass.getMethod("run").invoke(script);
+			}
+			catch (final ReflectiveOperationException exc) {
+				final Throwable cause = exc.getCause() != null ? exc.getCause() : exc;
+				final ScriptException scriptException = new ScriptException(cause
+					.toString());
+				scriptException.initCause(cause);
+				throw scriptException;
+			}
+		}
+
+		private void compileTo(final ClassLoader loader, final String mainClass,
+			final String source, final File dir) throws ReflectiveOperationException,
+			IOException
+		{
+			final Class<?> configClass = loader.loadClass(
+				"org.codehaus.groovy.control.CompilerConfiguration");
+			final Class<?> groovyLoaderClass = loader.loadClass(
+				"groovy.lang.GroovyClassLoader");
+			final Class<?> unitClass = loader.loadClass(
+				"org.codehaus.groovy.control.CompilationUnit");
+			final Object config = configClass.getConstructor().newInstance();
+			final Object groovyLoader = groovyLoaderClass.getConstructor(
+				ClassLoader.class).newInstance(loader);
+			final Object unit = unitClass.getConstructor(configClass,
+				CodeSource.class, groovyLoaderClass).newInstance(config,
+					null, groovyLoader);
+			unitClass.getMethod("addSource", String.class, String.class).invoke(unit,
+				mainClass + ".groovy", source);
+			unitClass.getMethod("compile", int.class).invoke(unit,
+				GROOVY_CLASS_GENERATION);
+			final File parentDir = dir.getParentFile();
+			if (!parentDir.isDirectory() && !parentDir.mkdirs()) {
+				throw new IOException("Could not create " + parentDir);
+			}
+			final Method getName = loader.loadClass(
+				"org.codehaus.groovy.tools.GroovyClass").getMethod("getName");
+			final Method getBytes = loader.loadClass(
+				"org.codehaus.groovy.tools.GroovyClass").getMethod("getBytes");
+			final Path tmp = Files.createTempDirectory(parentDir.toPath(), dir
+				.getName() + ".");
+			try {
+				for (final Object groovyClass : (Iterable<?>) unitClass.getMethod(
+					"getClasses").invoke(unit))
+				{
+					final String name = (String) getName.invoke(groovyClass);
+					Files.write(tmp.resolve(name + ".class"), (byte[]) getBytes.invoke(
+						groovyClass));
+				}
+				Files.move(tmp, dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final IOException exc) {
+				// another session may have stored the same script meanwhile
+				if (!dir.isDirectory()) throw exc;
+			}
+			finally {
+				delete(tmp);
+			}
+		}
+
+		private void delete(final Path tmp) throws IOException {
+			if (!Files.exists(tmp)) return;
+			try (final DirectoryStream<Path> files = Files.newDirectoryStream(tmp)) {
+				for (final Path file : files)
+					Files.delete(file);
+			}
+			Files.delete(tmp);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.widget.FileWidget;
+
+/**
+ * Writes a {@link ThreadMonitor} snapshot to a file, as JSON if its name ends
+ * in {@code .json} and as tab-separated values otherwise. While the
+ * <em>Thread Monitor</em> is open, its latest snapshot is written; otherwise,
+ * the threads are sampled for a second.
+ */
+@Plugin(type = Command.class,
+	menuPath = "Plugins>Utilities>Export Thread Snapshot...")
+public class ExportThreadSnapshot implements Command {
+
+	@Parameter
+	private FijiService fiji;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(style = FileWidget.SAVE_STYLE)
+	private File file;
+
+	@Override
+	public void run() {
+		try {
+			fiji.getThreadMonitor().current(1000).export(file);
+		}
+		catch (final IOException exc) {
+			log.error("Could not write " + file, exc);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -22,6 +22,8 @@
 
 package sc.fiji.compat;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.scijava.service.SciJavaService;
 
 /**
@@ -31,4 +33,45 @@
  */
 public interface FijiService extends SciJavaService {
 
+	/**
+	 * Gets a future which completes once the context is disposed, or the JVM
+	 * shuts down, whichever happens first. Lets callers such as the Python
+	 * launcher block until Fiji quits, without polling.
+	 */
+	CompletableFuture<Void> whenDisposed();
+
+	/**
+	 * Gets the {@link ModuleInfoCache} of the given owner, typically a pre- or
+	 * postprocessor class. The cache forgets modules which are removed or
+	 * updated.
+	 */
+	<V> ModuleInfoCache<V> getModuleInfoCache(Class<?> owner);
+
+	/** Gets the execution statistics of the commands run in this context. */
+	CommandStatistics getCommandStatistics();
+
+	/**
+	 * Gets the executor for background work belonging to this context. Its
+	 * tasks are cancelled when the context is disposed.
+	 */
+	BackgroundTasks getBackgroundTasks();
+
+	/** Gets the fuzzy search index over the ImageJ 1.x commands. */
+	CommandIndex getCommandIndex();
+
+	/**
+	 * Gets the coordinator which shuts down Fiji's parts when the context is
+	 * disposed. Register a disposer with it to be shut down alongside.
+	 */
+	ShutdownCoordinator getShutdownCoordinator();
+
+	/** Gets the monitor sampling the CPU time and contention of all threads. */
+	ThreadMonitor getThreadMonitor();
+
+	/**
+	 * Gets the off-heap cache of decoded image planes, for code which reopens
+	 * the same files, e.g. the Cover Maker placing its tiles.
+	 */
+	PlaneCache getPlaneCache();
+
 }
@@ -294,7 +294,7 @@ public static MenuItem installPlugin(String menuPath, String name,
 	@SuppressWarnings("unchecked")
 	public static MenuItem installPlugin(String menuPath, String name,
 			String command, File jarFile) {
-		if (Menus.getCommands().get(name) != null) {
+		if (CommandTable.get(name) != null) {
 			IJ.log("The user plugin " + name
 				+ (jarFile == null ? "" : " (in " + jarFile + ")")
 				+ " would override an existing command!");
@@ -308,7 +308,7 @@ public static MenuItem installPlugin(String menuPath, String name,
 			menu.add(item);
 			item.addActionListener(IJ.getInstance());
 		}
-		Menus.getCommands().put(name, command);
+		CommandTable.put(name, command);
 
 		if (jarFile != null) {
 			if (menuEntry2jarFile == null) try {
@@ -335,6 +335,27 @@ public static MenuItem installPlugin(String menuPath, String name,
 		return item;
 	}
 
+	/**
+	 * Uninstall a single menu item, as installed by
+	 * {@link #installPlugin(String, String, String)}
+	 *
+	 * @param menuPath the menu containing it
+	 * @param name the label of the menu item
+	 */
+	public static void uninstallPlugin(String menuPath, String name) {
+		CommandTable.remove(name);
+		if (IJ.getInstance() == null)
+			return;
+		MenuItem menu = getMenuItem(menuPath);
+		if (!(menu instanceof Menu))
+			return;
+		for (int i = 0; i < ((Menu)menu).getItemCount(); i++)
+			if (name.equals(((Menu)menu).getItem(i).getLabel())) {
+				((Menu)menu).remove(i);
+				break;
+			}
+	}
+
 	public static Menu getMenu(String menuPath) {
 		return (Menu)getMenuItem(Menus.getMenuBar(), menuPath, true);
 	}
@@ -360,9 +381,14 @@ public static void runPlugInGently(String className, String arg) {
 		catch (IllegalAccessException e) { }
 	}
 
+	/**
+	 * Checks for updates in the background, as a task which is cancelled if
+	 * Fiji quits first.
+	 */
 	public static void runUpdater() {
 		System.setProperty("fiji.main.checksUpdaterAtStartup", "true");
-		runPlugInGently("fiji.updater.UptodateCheck", "quick");
+		BackgroundTasks.getDefault().run("Fiji updater check",
+			() -> runPlugInGently("fiji.updater.UptodateCheck", "quick"));
 	}
 
 	/**
@@ -372,7 +398,7 @@ public static void runUpdater() {
 	 * @param arg the arg to pass to the plugin's run() (or setup()) method
 	 */
 	public static void runGently(String menuLabel, final String arg) {
-		String className = (String)Menus.getCommands().get(menuLabel);
+		String className = CommandTable.get(menuLabel);
 		if (className != null)
 			IJ.runPlugIn(className, null);
 	}
@@ -37,7 +37,6 @@
  * @author Johannes Schindelin
  */
 public class InvokeLater implements Runnable {
-	private long waitMillis;
 	private int count;
 	private final Runnable runnable;
 
@@ -53,20 +52,16 @@ public InvokeLater(final int count, final Runnable runnable) {
 		this.runnable = runnable;
 	}
 
+	/**
+	 * Queues the task after the given delay, as a background task which is
+	 * cancelled if Fiji quits first.
+	 */
 	public void later(long millis) {
-		waitMillis = millis;
-		new Thread(this).start();
+		BackgroundTasks.getDefault().schedule("InvokeLater", millis, this);
 	}
 
 	@Override
 	public void run() {
-		if (waitMillis > 0) try {
-			Thread.sleep(waitMillis);
-			waitMillis = 0;
-		} catch (InterruptedException e) {
-			// ignore and return
-			return;
-		}
 		if (--count <= 0) {
 			runnable.run();
 		} else {
@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the Java packages and classes on Fiji's class path, in the form
+ * Jython needs to resolve {@code import} statements of Java packages.
+ * <p>
+ * Fiji starts Jython with {@code python.cachedir.skip=true}, because Jython's
+ * own package cache re-scans every JAR on first use. Instead, this index is
+ * built once per set of JARs, identified by a fingerprint of their paths,
+ * sizes and modification times, and stored in {@code cache/jython/} below the
+ * application directory. Loading it only reads one small file.
+ * </p>
+ */
+public class JythonPackageIndex {
+
+	private static final String PREFIX = "packages-";
+	private static final String SUFFIX = ".idx";
+
+	/** Maps package names to comma-separated top-level class names. */
+	private final Map<String, String> packages;
+
+	private JythonPackageIndex(final Map<String, String> packages) {
+		this.packages = packages;
+	}
+
+	public Map<String, String> getPackages() {
+		return packages;
+	}
+
+	/**
+	 * Loads the index matching the current class path, building and storing it
+	 * first if necessary.
+	 */
+	public static JythonPackageIndex get() throws IOException {
+		final List<File> jars = classPathJars();
+		final File cacheDir = cacheDirectory();
+		final File file = new File(cacheDir, PREFIX + fingerprint(jars) + SUFFIX);
+		if (file.exists()) return new JythonPackageIndex(read(file));
+
+		final JythonPackageIndex index = build(jars);
+		if (cacheDir.isDirectory() || cacheDir.mkdirs()) {
+			index.write(file);
+			// remove indices of previous JAR sets
+			final File[] stale = cacheDir.listFiles((dir, name) -> name
+				.startsWith(PREFIX) && name.endsWith(SUFFIX) && !name.equals(file
+					.getName()));
+			if (stale != null) for (final File f : stale)
+				f.delete();
+		}
+		return index;
+	}
+
+	/**
+	 * Announces all indexed packages to Jython, via
+	 * {@code PySystemState.add_package(String, String)}.
+	 *
+	 * @return false if Jython is not available
+	 */
+	public boolean registerWithJython(final ClassLoader loader) {
+		final Method addPackage;
+		try {
+			addPackage = Class.forName("org.python.core.PySystemState", true, loader)
+				.getMethod("add_package", String.class, String.class);
+		}
+		catch (final ClassNotFoundException | NoSuchMethodException exc) {
+			return false;
+		}
+		for (final Map.Entry<String, String> entry : packages.entrySet()) {
+			try {
+				addPackage.invoke(null, entry.getKey(), entry.getValue());
+			}
+			catch (final ReflectiveOperationException exc) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// -- Helper methods --
+
+	static JythonPackageIndex build(final List<File> jars) throws IOException {
+		final Map<String, Set<String>> classes = new TreeMap<>();
+		for (final File jar : jars) {
+			try (final ZipFile zip = new ZipFile(jar)) {
+				final Enumeration<? extends ZipEntry> entries = zip.entries();
+				while (entries.hasMoreElements()) {
+					final String name = entries.nextElement().getName();
+					if (!name.endsWith(".class") || name.indexOf('$') >= 0 || name
+						.startsWith("META-INF/")) continue;
+					final int slash = name.lastIndexOf('/');
+					if (slash < 0) continue;
+					classes.computeIfAbsent(name.substring(0, slash).replace('/', '.'),
+						k -> new TreeSet<>()).add(name.substring(slash + 1, name.length() -
+							".class".length()));
+				}
+			}
+			catch (final IOException exc) {
+				// not a valid JAR; skip it
+			}
+		}
+		final Map<String, String> packages = new TreeMap<>();
+		for (final Map.Entry<String, Set<String>> entry : classes.entrySet()) {
+			packages.put(entry.getKey(), String.join(",", entry.getValue()));
+		}
+		return new JythonPackageIndex(packages);
+	}
+
+	private static Map<String, String> read(final File file) throws IOException {
+		final Map<String, String> packages = new TreeMap<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file.toPath(),
+			StandardCharsets.UTF_8))
+		{
+			for (String line = reader.readLine(); line != null; line = reader
+				.readLine())
+			{
+				final int tab = line.indexOf('\t');
+				if (tab > 0) packages.put(line.substring(0, tab), line.substring(tab +
+					1));
+			}
+		}
+		return packages;
+	}
+
+	private void write(final File file) throws IOException {
+		// write to a temporary file first, so concurrent readers never see a
+		// partial index
+		final File tmp = File.createTempFile(PREFIX, ".tmp", file.getParentFile());
+		try (final BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(),
+			StandardCharsets.UTF_8))
+		{
+			for (final Map.Entry<String, String> entry : packages.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write('\t');
+				writer.write(entry.getValue());
+				writer.newLine();
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static List<File> classPathJars() {
+		final List<File> jars = new ArrayList<>();
+		final String classPath = System.getProperty("java.class.path", "");
+		for (final String element : classPath.split(File.pathSeparator)) {
+			if (element.endsWith(".jar")) jars.add(new File(element));
+		}
+		return jars;
+	}
+
+	static String fingerprint(final List<File> jars) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (final NoSuchAlgorithmException exc) {
+			throw new IllegalStateException(exc);
+		}
+		final Set<String> keys = new TreeSet<>();
+		for (final File jar : jars) {
+			keys.add(jar.getAbsolutePath() + "|" + jar.length() + "|" + jar
+				.lastModified());
+		}
+		for (final String key : keys) {
+			digest.update(key.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	private static File cacheDirectory() {
+		String appDir = System.getProperty("scijava.app.directory");
+		if (appDir == null) appDir = FijiTools.getImageJDir();
+		final File dir = new File(appDir, "cache/jython");
+		if (dir.isDirectory() ? dir.canWrite() : new File(appDir).canWrite()) {
+			return dir;
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "fiji-" + System
+			.getProperty("user.name") + "/jython");
+	}
+}
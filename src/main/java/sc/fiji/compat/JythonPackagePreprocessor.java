@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.IOException;
+
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.process.AbstractPreprocessorPlugin;
+import org.scijava.module.process.PreprocessorPlugin;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptLanguage;
+import org.scijava.script.ScriptModule;
+
+/**
+ * Announces the Java packages of Fiji's class path to Jython before the first
+ * Jython script runs, using the cached {@link JythonPackageIndex}.
+ */
+@Plugin(type = PreprocessorPlugin.class)
+public class JythonPackagePreprocessor extends AbstractPreprocessorPlugin {
+
+	private static volatile boolean registered;
+
+	@Parameter
+	private LogService log;
+
+	@Override
+	public void process(final Module module) {
+		if (registered || !(module instanceof ScriptModule)) return;
+		final ScriptLanguage language = ((ScriptModule) module).getInfo()
+			.getLanguage();
+		if (language == null || !language.getClass().getName().toLowerCase()
+			.contains("jython")) return;
+		register(language.getClass().getClassLoader(), log);
+	}
+
+	private static synchronized void register(final ClassLoader loader,
+		final LogService log)
+	{
+		if (registered) return;
+		try {
+			final long start = System.currentTimeMillis();
+			final JythonPackageIndex index = JythonPackageIndex.get();
+			if (!index.registerWithJython(loader)) {
+				log.debug("Could not register Java packages with Jython; " +
+					"will try again with the next script");
+				return;
+			}
+			registered = true;
+			log.debug("Registered " + index.getPackages().size() +
+				" Java packages with Jython in " + (System.currentTimeMillis() -
+					start) + " ms");
+		}
+		catch (final IOException exc) {
+			log.warn("Could not index Java packages for Jython", exc);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values, such as durations in
+ * nanoseconds or sizes in bytes.
+ * <p>
+ * As in HdrHistogram, the buckets are laid out log-linearly: every power of
+ * two is split into {@value #SUB_BUCKETS} equally wide sub-buckets, so that
+ * any recorded value is reported with a relative error of at most about 3%,
+ * no matter its magnitude. Recording is a handful of atomic increments and
+ * never blocks.
+ * </p>
+ */
+public class LogHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/** Records a value. Negative values are recorded as zero. */
+	public void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		final long n = getCount();
+		return n == 0 ? 0 : (double) getSum() / n;
+	}
+
+	/**
+	 * Gets the value below which the given fraction of the recorded values
+	 * lies, e.g. the median for {@code 0.5}.
+	 *
+	 * @param quantile a fraction between 0 and 1
+	 * @return the upper bound of the bucket containing the quantile, or 0 if
+	 *         nothing was recorded
+	 */
+	public long getQuantile(final double quantile) {
+		long total = 0;
+		final long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) return 0;
+		final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) return Math.min(upperBound(i), getMax());
+		}
+		return getMax();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	// -- Helper methods --
+
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) return (int) value;
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int top = (int) (value >>> (exponent - SUB_BITS));
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+	}
+
+	static long upperBound(final int index) {
+		if (index < SUB_BUCKETS) return index;
+		final int bucket = index / SUB_BUCKETS;
+		final long sub = index % SUB_BUCKETS;
+		final long lower = (SUB_BUCKETS + sub) << (bucket - 1);
+		return lower + (1L << (bucket - 1)) - 1;
+	}
+}
@@ -0,0 +1,529 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.plugin.LutLoader;
+import ij.plugin.frame.Recorder;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * All lookup tables of {@code luts/}, parsed once and packed into a single
+ * file which is memory-mapped, together with a colour-bar thumbnail of each.
+ * <p>
+ * The pack lives in {@code cache/luts.pack} and is rebuilt whenever a file in
+ * {@code luts/} is added, removed or modified; an installer can build it
+ * ahead of time by running this class. Where the cache is not writable, the
+ * pack is built in memory instead.
+ * </p>
+ * <p>
+ * The pack is a header ({@code FLUT}, version, entry count, thumbnail size)
+ * followed by one index entry per LUT (name, source modification time and
+ * size, offsets of its table and thumbnail or -1 where the file could not be
+ * parsed), the 768-byte tables (256 reds, greens, then blues) and the
+ * thumbnails as ARGB ints.
+ * </p>
+ * <p>
+ * Macros use {@link #list()} and {@link #apply(String)}:
+ * </p>
+ * <pre>
+ * names = split(call("sc.fiji.compat.LutPack.list"), "\n");
+ * call("sc.fiji.compat.LutPack.apply", "mpl-viridis");
+ * </pre>
+ * <p>
+ * {@link #render(String)} converts an image to RGB through a LUT with the
+ * table-lookup kernel of {@link #toRGB(Object, int, int[], double, double,
+ * int[])}.
+ * </p>
+ */
+public class LutPack {
+
+	public static final int THUMBNAIL_WIDTH = 128;
+	public static final int THUMBNAIL_HEIGHT = 16;
+
+	private static final int MAGIC = 0x464c5554; // "FLUT"
+	private static final int VERSION = 1;
+	private static final String[] EXTENSIONS = { ".lut", ".txt" };
+
+	private static LutPack instance;
+
+	private final ByteBuffer buffer;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	private LutPack(final ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		final ByteBuffer header = buffer.duplicate();
+		if (header.remaining() < 20 || header.getInt() != MAGIC || header
+			.getInt() != VERSION) throw new IOException("Not a LUT pack");
+		final int count = header.getInt();
+		if (header.getInt() != THUMBNAIL_WIDTH || header
+			.getInt() != THUMBNAIL_HEIGHT) throw new IOException(
+				"Unexpected thumbnail size");
+		for (int i = 0; i < count; i++) {
+			final byte[] name = new byte[header.getShort() & 0xffff];
+			header.get(name);
+			final Entry entry = new Entry(header.getLong(), header.getLong(), header
+				.getInt(), header.getInt());
+			entries.put(new String(name, StandardCharsets.UTF_8), entry);
+		}
+	}
+
+	/**
+	 * Gets the pack of Fiji's {@code luts/} directory, building it if it is
+	 * missing or out of date.
+	 */
+	public static synchronized LutPack getInstance() throws IOException {
+		final File lutsDir = new File(ClasspathRecorder.appDirectory(), "luts");
+		if (instance != null && instance.isCurrent(lutsDir)) return instance;
+		final File file = new File(ClasspathRecorder.appDirectory(),
+			"cache/luts.pack");
+		if (file.exists()) {
+			try {
+				final LutPack pack = open(file);
+				if (pack.isCurrent(lutsDir)) return instance = pack;
+			}
+			catch (final IOException exc) {
+				// corrupt or from another version; rebuild it
+			}
+		}
+		final byte[] bytes = build(lutsDir);
+		try {
+			write(bytes, file);
+			instance = open(file);
+		}
+		catch (final IOException exc) {
+			// read-only installation
+			instance = new LutPack(ByteBuffer.wrap(bytes));
+		}
+		return instance;
+	}
+
+	/** Maps the given pack file. */
+	public static LutPack open(final File file) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			return new LutPack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+				.size()));
+		}
+	}
+
+	/** Parses all LUTs of the given directory into a pack. */
+	public static byte[] build(final File lutsDir) throws IOException {
+		final File[] files = lutFiles(lutsDir);
+		final List<byte[]> tables = new ArrayList<>();
+		int valid = 0;
+		for (final File file : files) {
+			final LUT lut = LutLoader.openLut(file.getPath());
+			if (lut == null || lut.getMapSize() != 256) {
+				// keep it in the index, so that the pack is not rebuilt for it
+				tables.add(null);
+				continue;
+			}
+			final byte[] table = new byte[768];
+			lut.getReds(table);
+			final byte[] greens = new byte[256], blues = new byte[256];
+			lut.getGreens(greens);
+			lut.getBlues(blues);
+			System.arraycopy(greens, 0, table, 256, 256);
+			System.arraycopy(blues, 0, table, 512, 256);
+			tables.add(table);
+			valid++;
+		}
+
+		int headerSize = 20;
+		for (final File file : files)
+			headerSize += 2 + name(file).getBytes(StandardCharsets.UTF_8).length + 24;
+		// align the thumbnails, so that they can be viewed as ints
+		final int tablesOffset = (headerSize + 3) & ~3;
+		final int thumbnailsOffset = tablesOffset + 768 * valid;
+		final int thumbnailSize = 4 * THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT;
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+			thumbnailsOffset + thumbnailSize * valid);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(files.length);
+		out.writeInt(THUMBNAIL_WIDTH);
+		out.writeInt(THUMBNAIL_HEIGHT);
+		for (int i = 0, j = 0; i < files.length; i++) {
+			final byte[] name = name(files[i]).getBytes(StandardCharsets.UTF_8);
+			out.writeShort(name.length);
+			out.write(name);
+			out.writeLong(files[i].lastModified());
+			out.writeLong(files[i].length());
+			if (tables.get(i) == null) {
+				out.writeInt(-1);
+				out.writeInt(-1);
+				continue;
+			}
+			out.writeInt(tablesOffset + 768 * j);
+			out.writeInt(thumbnailsOffset + thumbnailSize * j);
+			j++;
+		}
+		while (out.size() < tablesOffset)
+			out.writeByte(0);
+		for (final byte[] table : tables)
+			if (table != null) out.write(table);
+		for (final byte[] table : tables) {
+			if (table == null) continue;
+			final int[] bar = new int[THUMBNAIL_WIDTH];
+			for (int x = 0; x < THUMBNAIL_WIDTH; x++) {
+				final int index = x * 256 / THUMBNAIL_WIDTH;
+				bar[x] = 0xff000000 | (table[index] & 0xff) << 16 |
+					(table[256 + index] & 0xff) << 8 | table[512 + index] & 0xff;
+			}
+			for (int y = 0; y < THUMBNAIL_HEIGHT; y++)
+				for (final int argb : bar)
+					out.writeInt(argb);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	// -- Lookups --
+
+	/** Gets the names of the LUTs, without extension, in file name order. */
+	public List<String> getNames() {
+		final List<String> names = new ArrayList<>();
+		for (final Map.Entry<String, Entry> entry : entries.entrySet())
+			if (entry.getValue().table >= 0) names.add(entry.getKey());
+		return Collections.unmodifiableList(names);
+	}
+
+	public boolean contains(final String name) {
+		final Entry entry = entries.get(name);
+		return entry != null && entry.table >= 0;
+	}
+
+	/** Gets the given LUT, or null if there is none by that name. */
+	public LUT getLut(final String name) {
+		if (!contains(name)) return null;
+		final Entry entry = entries.get(name);
+		final byte[] reds = new byte[256], greens = new byte[256],
+				blues = new byte[256];
+		final ByteBuffer table = buffer.duplicate();
+		table.position(entry.table);
+		table.get(reds).get(greens).get(blues);
+		return new LUT(reds, greens, blues);
+	}
+
+	/**
+	 * Gets the colour bar of the given LUT, {@link #THUMBNAIL_WIDTH} by
+	 * {@link #THUMBNAIL_HEIGHT} ARGB pixels, or null if there is no such LUT.
+	 */
+	public int[] getThumbnail(final String name) {
+		if (!contains(name)) return null;
+		final Entry entry = entries.get(name);
+		final int[] pixels = new int[THUMBNAIL_WIDTH * THUMBNAIL_HEIGHT];
+		final IntBuffer ints = buffer.duplicate().asIntBuffer();
+		ints.position(entry.thumbnail / 4);
+		ints.get(pixels);
+		return pixels;
+	}
+
+	/** Whether the pack still matches the LUT files of the given directory. */
+	public boolean isCurrent(final File lutsDir) {
+		final File[] files = lutFiles(lutsDir);
+		if (files.length != entries.size()) return false;
+		for (final File file : files) {
+			final Entry entry = entries.get(name(file));
+			if (entry == null || entry.mtime != file.lastModified() ||
+				entry.size != file.length()) return false;
+		}
+		return true;
+	}
+
+	// -- Applying LUTs --
+
+	/** Packs a LUT into 256 RGB ints, for {@link #toRGB}. */
+	public static int[] toTable(final LUT lut) {
+		final int[] table = new int[256];
+		for (int i = 0; i < 256; i++)
+			table[i] = lut.getRGB(i) & 0xffffff;
+		return table;
+	}
+
+	/**
+	 * Renders a grayscale image in the colours of a LUT, using its current
+	 * display range, like <em>Image&gt;Type&gt;RGB Color</em> does, but with a
+	 * table lookup per pixel instead of going through an AWT image.
+	 */
+	public static ColorProcessor toRGB(final ImageProcessor ip, final LUT lut) {
+		final int[] rgb = new int[ip.getWidth() * ip.getHeight()];
+		toRGB(ip.getPixels(), ip.getWidth(), toTable(lut), ip.getMin(), ip
+			.getMax(), rgb);
+		return new ColorProcessor(ip.getWidth(), ip.getHeight(), rgb);
+	}
+
+	/**
+	 * Looks up the colours of 8-bit, 16-bit or 32-bit pixels, mapping the range
+	 * from {@code min} to {@code max} onto the 256 entries of {@code table}.
+	 * Rows are processed in parallel.
+	 */
+	public static void toRGB(final Object pixels, final int width,
+		final int[] table, final double min, final double max, final int[] out)
+	{
+		final int height = out.length / width;
+		// the scaling follows that of the processors' create8BitImage()
+		if (pixels instanceof float[]) {
+			final float[] in = (float[]) pixels;
+			final double scale = max > min ? 255 / (max - min) : 1;
+			Parallel.forRange(0, height, y -> {
+				for (int i = y * width, end = i + width; i < end; i++) {
+					final double v = (in[i] - min) * scale + 0.5;
+					// NaN ends up at 0
+					out[i] = table[v >= 255 ? 255 : v > 0 ? (int) v : 0];
+				}
+			});
+			return;
+		}
+		// integer pixels: expand the table to one entry per possible value
+		final boolean shorts = pixels instanceof short[];
+		final int[] expanded = new int[shorts ? 65536 : 256];
+		for (int v = 0; v < expanded.length; v++) {
+			final double index = shorts ? (v - min) * 256 / (max - min + 1) + 0.5
+				: (v - min) * 256 / Math.max(1, max - min);
+			expanded[v] = table[index >= 255 ? 255 : index > 0 ? (int) index : 0];
+		}
+		if (shorts) {
+			final short[] in = (short[]) pixels;
+			Parallel.forRange(0, height, y -> {
+				for (int i = y * width, end = i + width; i < end; i++)
+					out[i] = expanded[in[i] & 0xffff];
+			});
+		}
+		else if (pixels instanceof byte[]) {
+			final byte[] in = (byte[]) pixels;
+			Parallel.forRange(0, height, y -> {
+				for (int i = y * width, end = i + width; i < end; i++)
+					out[i] = expanded[in[i] & 0xff];
+			});
+		}
+		else throw new IllegalArgumentException("Unsupported pixels: " + pixels);
+	}
+
+	// -- Macro functions --
+
+	/** Lists the LUT names, one per line; for {@code call()} from macros. */
+	public static String list() {
+		try {
+			return String.join("\n", getInstance().getNames());
+		}
+		catch (final IOException exc) {
+			IJ.handleException(exc);
+			return "";
+		}
+	}
+
+	/**
+	 * Applies the named LUT to the current image, like choosing it from
+	 * <em>Image&gt;Lookup Tables</em>; without an image, a 256x32 ramp in the
+	 * LUT's colours is shown, as {@link LutLoader} does. The command is
+	 * recorded. For {@code call()} from macros.
+	 *
+	 * @return "true", or "false" if there is no such LUT in the pack
+	 */
+	public static String apply(final String name) {
+		final LUT lut;
+		try {
+			final LutPack pack = getInstance();
+			lut = pack.getLut(name);
+			if (lut == null) return "false";
+			if (Recorder.record) Recorder.record("run", menuLabel(name));
+			final ImagePlus imp = WindowManager.getCurrentImage();
+			if (imp == null) {
+				final byte[] pixels = new byte[256 * 32];
+				for (int i = 0; i < pixels.length; i++)
+					pixels[i] = (byte) i;
+				final ByteProcessor ramp = new ByteProcessor(256, 32, pixels);
+				ramp.setLut(lut);
+				new ImagePlus(name, ramp).show();
+				return "true";
+			}
+			if (imp.getType() == ImagePlus.COLOR_RGB) {
+				IJ.error("LUTs cannot be assigned to RGB images.");
+				return "true";
+			}
+			imp.setLut(lut);
+			imp.updateAndDraw();
+			return "true";
+		}
+		catch (final IOException exc) {
+			IJ.handleException(exc);
+			return "false";
+		}
+	}
+
+	/**
+	 * Renders all slices of the current image in the colours of the named LUT,
+	 * or of the image's own LUT if the name is empty, and shows the result as a
+	 * new RGB image; like applying the LUT and choosing
+	 * <em>Image&gt;Type&gt;RGB Color</em>, but leaving the original alone. For
+	 * {@code call()} from macros.
+	 *
+	 * @return "true", or "false" if there is no image or no such LUT
+	 */
+	public static String render(final String name) {
+		final ImagePlus imp = WindowManager.getCurrentImage();
+		if (imp == null) {
+			IJ.noImage();
+			return "false";
+		}
+		if (imp.getType() == ImagePlus.COLOR_RGB) {
+			IJ.error("LUTs cannot be assigned to RGB images.");
+			return "false";
+		}
+		final ImageProcessor ip = imp.getProcessor();
+		final LUT lut;
+		if (name == null || name.isEmpty()) lut = ip.getLut();
+		else {
+			try {
+				lut = getInstance().getLut(name);
+			}
+			catch (final IOException exc) {
+				IJ.handleException(exc);
+				return "false";
+			}
+			if (lut == null) return "false";
+		}
+		final int[] table = toTable(lut);
+		final int width = imp.getWidth(), height = imp.getHeight();
+		final ImageStack stack = imp.getStack();
+		final ImageStack rgb = new ImageStack(width, height);
+		for (int i = 1; i <= stack.getSize(); i++) {
+			final int[] pixels = new int[width * height];
+			toRGB(stack.getPixels(i), width, table, ip.getMin(), ip.getMax(),
+				pixels);
+			rgb.addSlice(stack.getSliceLabel(i), pixels);
+		}
+		final ImagePlus result = new ImagePlus(imp.getShortTitle() + " (RGB)",
+			rgb);
+		result.setDimensions(imp.getNChannels(), imp.getNSlices(), imp
+			.getNFrames());
+		result.setCalibration(imp.getCalibration());
+		result.show();
+		return "true";
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the label under which ImageJ lists a LUT file in
+	 * <em>Image&gt;Lookup Tables</em>, i.e. with spaces for underscores.
+	 */
+	static String menuLabel(final String name) {
+		return name.replace('_', ' ');
+	}
+
+	private static File[] lutFiles(final File lutsDir) {
+		final File[] files = lutsDir.listFiles((dir, name) -> {
+			final String lower = name.toLowerCase(Locale.ROOT);
+			for (final String extension : EXTENSIONS)
+				if (lower.endsWith(extension) && !lower.equals("readme.txt")) {
+					return true;
+				}
+			return false;
+		});
+		if (files == null) return new File[0];
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static String name(final File file) {
+		final String name = file.getName();
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+
+	private static void write(final byte[] bytes, final File file)
+		throws IOException
+	{
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException(
+			"Could not create " + dir);
+		final File tmp = new File(dir, "." + file.getName() + ".tmp");
+		Files.write(tmp.toPath(), bytes);
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static class Entry {
+
+		private final long mtime;
+		private final long size;
+		private final int table;
+		private final int thumbnail;
+
+		private Entry(final long mtime, final long size, final int table,
+			final int thumbnail)
+		{
+			this.mtime = mtime;
+			this.size = size;
+			this.table = table;
+			this.thumbnail = thumbnail;
+		}
+	}
+
+	// -- Main method --
+
+	/**
+	 * Builds the pack ahead of time, e.g. when installing Fiji:
+	 * {@code LutPack [<luts-dir> <pack-file>]}.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final File lutsDir = args.length > 0 ? new File(args[0]) : new File(
+			ClasspathRecorder.appDirectory(), "luts");
+		final File file = args.length > 1 ? new File(args[1]) : new File(
+			ClasspathRecorder.appDirectory(), "cache/luts.pack");
+		final byte[] bytes = build(lutsDir);
+		write(bytes, file);
+		System.out.println("Packed " + open(file).getNames().size() +
+			" LUTs into " + file + " (" + bytes.length + " bytes)");
+	}
+}
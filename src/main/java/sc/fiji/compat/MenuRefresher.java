@@ -23,12 +23,12 @@
 package sc.fiji.compat;
 
 import ij.IJ;
-import ij.Menus;
 import ij.Prefs;
 import ij.plugin.PlugIn;
 
 import java.awt.Menu;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Map;
 
 import fiji.Main;
 
@@ -49,13 +49,14 @@ public void run(final String arg) {
 	public void run() {
 		overrideCommands();
 		Main.installRecentCommands();
+		CommandIndex.menusChanged();
 	}
 
-	@SuppressWarnings("unchecked")
 	static void overrideCommands() {
-		final Hashtable<String, String> commands = Menus.getCommands();
-		if (!commands.containsKey("Install PlugIn...")) {
-			commands.put("Install PlugIn...", "sc.fiji.compat.PlugInInstaller");
+		CommandTable.refresh();
+		final Map<String, String> overrides = new HashMap<>();
+		if (CommandTable.get("Install PlugIn...") == null) {
+			overrides.put("Install PlugIn...", "sc.fiji.compat.PlugInInstaller");
 			if (IJ.getInstance() != null) {
 				final Menu plugins = FijiTools.getMenu("Plugins");
 				if (plugins != null)
@@ -68,9 +69,10 @@ static void overrideCommands() {
 						}
 			}
 		}
-		commands.put("Compile and Run...", "sc.fiji.compat.Compile_and_Run");
+		overrides.put("Compile and Run...", "sc.fiji.compat.Compile_and_Run");
 		// make sure "Edit>Options>Memory & Threads runs Fiji's plugin
-		commands.put("Memory & Threads...", "sc.fiji.compat.Memory");
+		overrides.put("Memory & Threads...", "sc.fiji.compat.Memory");
+		CommandTable.putAll(overrides);
 
 		// disable the Bio-Formats upgrade check
 		Prefs.set("bioformats.upgradeCheck", false);
@@ -0,0 +1,413 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates the menus when files below {@code plugins/}, {@code scripts/},
+ * {@code macros/} or {@code jars/} change, without <em>Help&gt;Refresh
+ * Menus</em>.
+ * <p>
+ * Changes are collected until things have been quiet for a moment
+ * ({@code fiji.menus.watch.delay} milliseconds, default: 500), then compared
+ * with what was there before. Where ImageJ 1.x allows it, only the changed
+ * entries are applied:
+ * </p>
+ * <ul>
+ * <li>plugin classes with an underscore in their name, added to or removed
+ * from {@code plugins/}, and likewise macros in {@code plugins/} or one of
+ * its subfolders, are installed in or removed from the <em>Plugins</em>
+ * menu;</li>
+ * <li>a changed {@code macros/StartupMacros} file is installed again;</li>
+ * <li>modified macros and scripts need nothing, as they are read whenever
+ * they run.</li>
+ * </ul>
+ * <p>
+ * Anything else, such as a new or modified JAR, a modified class or a script
+ * added to {@code scripts/}, requires a full <em>Refresh Menus</em>, which is
+ * then run once for the whole batch of changes. Opt in with
+ * {@code -Dfiji.menus.watch=true}.
+ * </p>
+ */
+public class MenuWatcher implements Runnable {
+
+	private static final String[] ROOTS = { "plugins", "scripts", "macros",
+		"jars" };
+	private static final Set<String> MACRO_EXTENSIONS = new HashSet<>(Arrays
+		.asList("ijm", "txt", "js", "bsh", "py"));
+
+	private final Path appDir;
+	private final long delayMillis;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final Map<Path, FileState> files = new HashMap<>();
+	private WatchService watcher;
+
+	public MenuWatcher(final Path appDir) {
+		this.appDir = appDir.toAbsolutePath().normalize();
+		delayMillis = Long.getLong("fiji.menus.watch.delay", 500);
+	}
+
+	/**
+	 * Starts watching as a background task, if enabled; shutting down the
+	 * tasks stops it.
+	 */
+	public static void start(final BackgroundTasks tasks) {
+		if (!Boolean.getBoolean("fiji.menus.watch")) return;
+		tasks.run("Fiji menu watcher", new MenuWatcher(ClasspathRecorder
+			.appDirectory().toPath()));
+	}
+
+	@Override
+	public void run() {
+		try (final WatchService service = FileSystems.getDefault()
+			.newWatchService())
+		{
+			watcher = service;
+			for (final String root : ROOTS) {
+				final Path dir = appDir.resolve(root);
+				if (Files.isDirectory(dir)) register(dir, null);
+			}
+			while (true) {
+				WatchKey key = service.take();
+				final Set<Path> dirs = new HashSet<>();
+				boolean overflow = false;
+				// debounce: wait until no events arrive for a while
+				while (key != null) {
+					overflow |= collect(key, dirs);
+					key = service.poll(delayMillis, TimeUnit.MILLISECONDS);
+				}
+				final Changes changes = new Changes();
+				if (overflow) {
+					dirs.clear();
+					dirs.addAll(keys.values());
+					changes.refresh = true;
+				}
+				for (final Path dir : dirs)
+					rescan(dir, changes);
+				apply(changes);
+			}
+		}
+		catch (final InterruptedException | ClosedWatchServiceException exc) {
+			// stopped
+		}
+		catch (final IOException exc) {
+			IJ.log("Could not watch the menus: " + exc);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Drains a key's events, noting the directories with changes. */
+	private boolean collect(final WatchKey key, final Set<Path> dirs) {
+		boolean overflow = false;
+		final Path dir = keys.get(key);
+		for (final WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) overflow = true;
+			else if (dir != null) dirs.add(dir);
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+			if (dir != null && dir.getParent() != null) dirs.add(dir.getParent());
+		}
+		return overflow;
+	}
+
+	/**
+	 * Watches a directory and its subdirectories, and records their files. If
+	 * {@code changes} is not null, the files are recorded as added.
+	 */
+	private void register(final Path dir, final Changes changes)
+		throws IOException
+	{
+		keys.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_DELETE,
+			StandardWatchEventKinds.ENTRY_MODIFY), dir);
+		try (final DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+			for (final Path entry : entries) {
+				final BasicFileAttributes attributes = attributes(entry);
+				if (attributes == null || ignored(entry)) continue;
+				if (attributes.isDirectory()) register(entry, changes);
+				else {
+					files.put(entry, new FileState(attributes));
+					if (changes != null) changes.added.add(entry);
+				}
+			}
+		}
+	}
+
+	/** Compares a directory's entries with what was recorded. */
+	private void rescan(final Path dir, final Changes changes)
+		throws IOException
+	{
+		final Set<Path> before = new HashSet<>();
+		for (final Path file : files.keySet()) {
+			if (dir.equals(file.getParent())) before.add(file);
+		}
+		final Set<Path> watchedBefore = new HashSet<>();
+		for (final Path watched : keys.values()) {
+			if (dir.equals(watched.getParent())) watchedBefore.add(watched);
+		}
+		if (Files.isDirectory(dir)) {
+			try (final DirectoryStream<Path> entries = Files.newDirectoryStream(
+				dir))
+			{
+				for (final Path entry : entries) {
+					final BasicFileAttributes attributes = attributes(entry);
+					if (attributes == null || ignored(entry)) continue;
+					if (attributes.isDirectory()) {
+						if (!watchedBefore.remove(entry)) register(entry, changes);
+						continue;
+					}
+					before.remove(entry);
+					final FileState state = new FileState(attributes);
+					final FileState old = files.put(entry, state);
+					if (old == null) changes.added.add(entry);
+					else if (!old.equals(state)) changes.modified.add(entry);
+				}
+			}
+		}
+		else {
+			watchedBefore.add(dir);
+		}
+		for (final Path gone : before) {
+			files.remove(gone);
+			changes.removed.add(gone);
+		}
+		// removed subdirectories: forget everything below them
+		for (final Path gone : watchedBefore) {
+			keys.values().removeIf(watched -> watched.startsWith(gone));
+			files.keySet().removeIf(file -> {
+				if (!file.startsWith(gone)) return false;
+				changes.removed.add(file);
+				return true;
+			});
+		}
+	}
+
+	private void apply(final Changes changes) {
+		final List<Runnable> actions = new ArrayList<>();
+		for (final Path file : changes.added) {
+			if (!changes.refresh) changes.refresh = !handle(file, Kind.ADDED, actions);
+		}
+		for (final Path file : changes.removed) {
+			if (!changes.refresh) changes.refresh = !handle(file, Kind.REMOVED,
+				actions);
+		}
+		for (final Path file : changes.modified) {
+			if (!changes.refresh) changes.refresh = !handle(file, Kind.MODIFIED,
+				actions);
+		}
+		if (changes.refresh) {
+			IJ.run("Refresh Menus");
+			return;
+		}
+		if (actions.isEmpty()) return;
+		EventQueue.invokeLater(() -> {
+			for (final Runnable action : actions)
+				action.run();
+			CommandIndex.menusChanged();
+		});
+	}
+
+	/**
+	 * Works out what a change to a file means for the menus.
+	 *
+	 * @return false if the change needs a full refresh
+	 */
+	private boolean handle(final Path file, final Kind kind,
+		final List<Runnable> actions)
+	{
+		final String name = file.getFileName().toString();
+		switch (root(file)) {
+			case "plugins": {
+				// modified classes and JARs need a new class loader
+				if (kind == Kind.MODIFIED) return isMacro(file);
+				final Plugin plugin = plugin(file);
+				if (plugin == null) {
+					// classes in subfolders and JARs may provide any number of entries
+					return !name.endsWith(".jar") && !(name.endsWith(".class") && name
+						.indexOf('_') >= 0 && name.indexOf('$') < 0);
+				}
+				if (kind == Kind.ADDED) {
+					if (CommandTable.get(plugin.label) != null) return false;
+					actions.add(() -> FijiTools.installPlugin(plugin.menuPath,
+						plugin.label, plugin.command));
+				}
+				else {
+					// only remove what this file installed
+					if (!plugin.command.equals(CommandTable.get(plugin.label))) {
+						return false;
+					}
+					actions.add(() -> FijiTools.uninstallPlugin(plugin.menuPath,
+						plugin.label));
+				}
+				return true;
+			}
+			case "macros":
+				if (kind != Kind.REMOVED && name.startsWith("StartupMacros") && file
+					.getParent().equals(appDir.resolve("macros")))
+				{
+					actions.add(() -> IJ.run("Install...", "install=[" + file + "]"));
+				}
+				return true;
+			case "scripts":
+				// scripts are read anew whenever they run
+				return kind == Kind.MODIFIED;
+			case "jars":
+				return !name.endsWith(".jar");
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Describes the menu entry ImageJ 1.x makes for a plugin class or macro
+	 * directly in {@code plugins/} or one of its subfolders, or returns null
+	 * for any other file.
+	 */
+	Plugin plugin(final Path file) {
+		final Path plugins = appDir.resolve("plugins");
+		if (!file.startsWith(plugins)) return null;
+		final Path relative = plugins.relativize(file);
+		if (relative.getNameCount() > 2) return null;
+		final String name = file.getFileName().toString();
+		final int dot = name.lastIndexOf('.');
+		if (dot < 0 || name.indexOf('_') < 0) return null;
+		final String base = name.substring(0, dot);
+		final String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+		final String subfolder = relative.getNameCount() == 2 ? relative
+			.getName(0).toString() : null;
+		final String menuPath = subfolder == null ? "Plugins" : "Plugins>" +
+			subfolder;
+		final String label = base.replace('_', ' ').trim();
+		if (extension.equals("class")) {
+			if (name.indexOf('$') >= 0) return null;
+			// a new class in a new subfolder is not on the plugin class path
+			return subfolder == null ? new Plugin(menuPath, label, base) : null;
+		}
+		if (!MACRO_EXTENSIONS.contains(extension)) return null;
+		return new Plugin(menuPath, label, "ij.plugin.Macro_Runner(\"" +
+			(subfolder == null ? "" : subfolder + "/") + name + "\")");
+	}
+
+	private boolean isMacro(final Path file) {
+		final String name = file.getFileName().toString();
+		final int dot = name.lastIndexOf('.');
+		return dot >= 0 && MACRO_EXTENSIONS.contains(name.substring(dot + 1)
+			.toLowerCase(Locale.ROOT));
+	}
+
+	private String root(final Path file) {
+		return file.startsWith(appDir) && file.getNameCount() > appDir
+			.getNameCount() ? file.getName(appDir.getNameCount()).toString() : "";
+	}
+
+	/** Skips hidden files and editors' temporary files. */
+	private static boolean ignored(final Path path) {
+		final String name = path.getFileName().toString();
+		return name.startsWith(".") || name.endsWith("~") || name.endsWith(
+			".swp") || name.endsWith(".tmp");
+	}
+
+	private static BasicFileAttributes attributes(final Path path) {
+		try {
+			return Files.readAttributes(path, BasicFileAttributes.class);
+		}
+		catch (final IOException exc) {
+			return null; // gone already
+		}
+	}
+
+	private enum Kind {
+		ADDED, REMOVED, MODIFIED
+	}
+
+	/** The changes found in one batch of events. */
+	static class Changes {
+
+		final List<Path> added = new ArrayList<>();
+		final List<Path> removed = new ArrayList<>();
+		final List<Path> modified = new ArrayList<>();
+		boolean refresh;
+	}
+
+	/** A menu entry made for a file in {@code plugins/}. */
+	static class Plugin {
+
+		final String menuPath;
+		final String label;
+		final String command;
+
+		Plugin(final String menuPath, final String label, final String command) {
+			this.menuPath = menuPath;
+			this.label = label;
+			this.command = command;
+		}
+	}
+
+	private static class FileState {
+
+		private final long size;
+		private final long modified;
+
+		private FileState(final BasicFileAttributes attributes) {
+			size = attributes.size();
+			modified = attributes.lastModifiedTime().toMillis();
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof FileState)) return false;
+			final FileState other = (FileState) o;
+			return size == other.size && modified == other.modified;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(size) * 31 + Long.hashCode(modified);
+		}
+	}
+}
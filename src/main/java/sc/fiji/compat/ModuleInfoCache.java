@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.scijava.module.ModuleInfo;
+
+/**
+ * Memoizes a per-{@link ModuleInfo} decision, such as whether a module has an
+ * input of a given type.
+ * <p>
+ * Pre- and postprocessors run for every module execution, so anything they
+ * derive from the module's metadata is worth computing only once. Modules are
+ * compared by identity. Caches obtained from
+ * {@link FijiService#getModuleInfoCache(Class)} are invalidated automatically
+ * when modules are removed or updated.
+ * </p>
+ * <p>
+ * Modules are held weakly: every {@code ScriptService.run(file)} creates a
+ * fresh, unregistered module which no removal event will ever announce, and a
+ * long-lived process such as the daemon would otherwise accumulate one entry
+ * per job. Values must therefore not refer to their module.
+ * </p>
+ *
+ * @param <V> the type of the cached values, which must not be null
+ */
+public class ModuleInfoCache<V> {
+
+	private final ConcurrentHashMap<Key, V> values = new ConcurrentHashMap<>();
+	private final ReferenceQueue<ModuleInfo> collected = new ReferenceQueue<>();
+
+	/**
+	 * Gets the value for the given module, computing it on first access.
+	 */
+	public V get(final ModuleInfo info, final Function<ModuleInfo, V> compute) {
+		final V value = values.get(new Key(info, null));
+		if (value != null) return value;
+		expunge();
+		return values.computeIfAbsent(new Key(info, collected), k -> compute.apply(
+			info));
+	}
+
+	public void invalidate(final ModuleInfo info) {
+		values.remove(new Key(info, null));
+	}
+
+	public void invalidate(final Collection<? extends ModuleInfo> infos) {
+		for (final ModuleInfo info : infos)
+			invalidate(info);
+	}
+
+	public void clear() {
+		values.clear();
+	}
+
+	public int size() {
+		expunge();
+		return values.size();
+	}
+
+	/** Removes the entries of modules which have been garbage collected. */
+	private void expunge() {
+		Object key;
+		while ((key = collected.poll()) != null)
+			values.remove(key);
+	}
+
+	/** Refers weakly to a {@link ModuleInfo}, comparing by identity. */
+	private static final class Key extends WeakReference<ModuleInfo> {
+
+		private final int hash;
+
+		private Key(final ModuleInfo info, final ReferenceQueue<ModuleInfo> queue) {
+			super(info, queue);
+			hash = System.identityHashCode(info);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o == this) return true;
+			if (!(o instanceof Key)) return false;
+			final ModuleInfo info = get();
+			return info != null && info == ((Key) o).get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs per-index, per-slice or per-tile work in parallel.
+ * <p>
+ * All work runs on one shared work-stealing pool, sized by the thread count
+ * set in <em>Edit&gt;Options&gt;Memory &amp; Threads...</em>. Ranges are
+ * split adaptively: a worker splits off half of its remaining range only
+ * while the other workers are short of work, so that cheap items are handled
+ * in large chunks and expensive items are spread evenly, without anybody
+ * having to pick a chunk size. Calls may be nested.
+ * </p>
+ * <p>
+ * The tasks are single-method interfaces, so they can be given as lambdas in
+ * Java and as plain functions in JavaScript, Python, Groovy or Ruby; in
+ * Clojure, use {@code reify}. For example, in Python:
+ * </p>
+ * <pre>
+ * from sc.fiji.compat import Parallel
+ * def blur(ip, slice):
+ *     ip.blurGaussian(2)
+ * Parallel.forSlices(imp, blur)
+ * </pre>
+ * <p>
+ * If a task throws, the remaining items are skipped and the exception is
+ * rethrown to the caller, wrapped in a {@link RuntimeException} if it is a
+ * checked one.
+ * </p>
+ */
+public final class Parallel {
+
+	/** Work on one index of a range. */
+	public interface IndexTask {
+
+		void run(int index) throws Exception;
+	}
+
+	/** Work on one slice of a stack; {@code slice} is 1-based. */
+	public interface SliceTask {
+
+		void run(ImageProcessor ip, int slice) throws Exception;
+	}
+
+	/** Work on one rectangular tile of an image. */
+	public interface TileTask {
+
+		void run(ImageProcessor ip, Rectangle tile) throws Exception;
+	}
+
+	/** Receives progress updates, from any of the worker threads. */
+	public interface ProgressListener {
+
+		void progress(int done, int total);
+	}
+
+	/**
+	 * Tracks, reports and cancels a parallel run. May be reused for several
+	 * consecutive runs.
+	 */
+	public static class Control {
+
+		private final AtomicInteger done = new AtomicInteger();
+		private volatile int total;
+		private volatile boolean canceled;
+		private volatile ProgressListener listener;
+		private volatile long lastBar;
+		private boolean progressBar;
+
+		/** Asks the running tasks to stop; items not yet started are skipped. */
+		public void cancel() {
+			canceled = true;
+		}
+
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		public int getDone() {
+			return done.get();
+		}
+
+		public int getTotal() {
+			return total;
+		}
+
+		public Control setListener(final ProgressListener listener) {
+			this.listener = listener;
+			return this;
+		}
+
+		/** Whether to show the progress in ImageJ's progress bar. */
+		public Control setProgressBar(final boolean progressBar) {
+			this.progressBar = progressBar;
+			return this;
+		}
+
+		private void start(final int count) {
+			done.set(0);
+			total = count;
+			canceled = false;
+		}
+
+		private void advance() {
+			final int count = done.incrementAndGet();
+			final ProgressListener l = listener;
+			if (l != null) l.progress(count, total);
+			if (progressBar) {
+				final long now = System.currentTimeMillis();
+				if (count == total || now - lastBar > 100) {
+					lastBar = now;
+					IJ.showProgress(count, total);
+				}
+			}
+		}
+	}
+
+	/** Workers split their range while fewer tasks than this are queued. */
+	private static final int SURPLUS = 2;
+
+	private static ForkJoinPool pool;
+
+	private Parallel() {
+		// Prevent instantiation of utility class.
+	}
+
+	/**
+	 * Gets the shared pool, creating a new one if the configured number of
+	 * threads changed.
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		final int threads = Math.max(1, Prefs.getThreads());
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			final AtomicInteger count = new AtomicInteger();
+			pool = new ForkJoinPool(threads, p -> {
+				final ForkJoinWorkerThread thread =
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				thread.setName("Fiji-parallel-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setContextClassLoader(IJ.getClassLoader());
+				return thread;
+			}, null, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the task for every index from {@code start} (inclusive) to
+	 * {@code end} (exclusive).
+	 */
+	public static void forRange(final int start, final int end,
+		final IndexTask task)
+	{
+		forRange(start, end, task, null);
+	}
+
+	/**
+	 * Runs the task for every index from {@code start} (inclusive) to
+	 * {@code end} (exclusive).
+	 *
+	 * @param control tracks and cancels the run; may be null
+	 * @return false if the run was canceled
+	 */
+	public static boolean forRange(final int start, final int end,
+		final IndexTask task, final Control control)
+	{
+		if (control != null) control.start(Math.max(0, end - start));
+		if (end <= start) return true;
+		final Run run = new Run(task, control);
+		final Chunk root = new Chunk(run, start, end);
+		final ForkJoinPool p = getPool();
+		if (inPool(p)) root.invoke();
+		else p.invoke(root);
+		final Throwable failure = run.failure.get();
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure != null) throw new RuntimeException(failure);
+		return control == null || !control.isCanceled();
+	}
+
+	/** Runs the task for every slice of the image's stack. */
+	public static void forSlices(final ImagePlus imp, final SliceTask task) {
+		forPlanes(imp.getStack(), task, null);
+	}
+
+	/**
+	 * Runs the task for every slice of the image's stack.
+	 *
+	 * @see #forPlanes(ImageStack, SliceTask, Control)
+	 */
+	public static boolean forSlices(final ImagePlus imp, final SliceTask task,
+		final Control control)
+	{
+		return forPlanes(imp.getStack(), task, control);
+	}
+
+	/** Runs the task for every plane of the stack. */
+	public static void forPlanes(final ImageStack stack, final SliceTask task) {
+		forPlanes(stack, task, null);
+	}
+
+	/**
+	 * Runs the task for every plane of the stack.
+	 * <p>
+	 * The processors of a virtual stack are copies, so changes to them are
+	 * lost unless the task saves them.
+	 * </p>
+	 *
+	 * @param control tracks and cancels the run; may be null
+	 * @return false if the run was canceled
+	 */
+	public static boolean forPlanes(final ImageStack stack, final SliceTask task,
+		final Control control)
+	{
+		return forRange(1, stack.getSize() + 1, slice -> task.run(stack
+			.getProcessor(slice), slice), control);
+	}
+
+	/** Runs the task for every tile of the image. */
+	public static void forTiles(final ImageProcessor ip, final int tileWidth,
+		final int tileHeight, final TileTask task)
+	{
+		forTiles(ip, tileWidth, tileHeight, task, null);
+	}
+
+	/**
+	 * Runs the task for every tile of the image. Tiles at the right and bottom
+	 * borders may be smaller than requested.
+	 *
+	 * @param control tracks and cancels the run; may be null
+	 * @return false if the run was canceled
+	 */
+	public static boolean forTiles(final ImageProcessor ip, final int tileWidth,
+		final int tileHeight, final TileTask task, final Control control)
+	{
+		if (tileWidth < 1 || tileHeight < 1) {
+			throw new IllegalArgumentException("Invalid tile size: " + tileWidth +
+				"x" + tileHeight);
+		}
+		final int width = ip.getWidth(), height = ip.getHeight();
+		final int columns = (width + tileWidth - 1) / tileWidth;
+		final int rows = (height + tileHeight - 1) / tileHeight;
+		return forRange(0, columns * rows, index -> {
+			final int x = index % columns * tileWidth;
+			final int y = index / columns * tileHeight;
+			task.run(ip, new Rectangle(x, y, Math.min(tileWidth, width - x), Math
+				.min(tileHeight, height - y)));
+		}, control);
+	}
+
+	// -- Helper methods --
+
+	private static boolean inPool(final ForkJoinPool p) {
+		final Thread thread = Thread.currentThread();
+		return thread instanceof ForkJoinWorkerThread &&
+			((ForkJoinWorkerThread) thread).getPool() == p;
+	}
+
+	/** The state shared by the chunks of one run. */
+	private static class Run {
+
+		private final IndexTask task;
+		private final Control control;
+		private final AtomicReference<Throwable> failure =
+			new AtomicReference<>();
+
+		private Run(final IndexTask task, final Control control) {
+			this.task = task;
+			this.control = control;
+		}
+
+		private boolean stopped() {
+			return failure.get() != null || control != null && control
+				.isCanceled();
+		}
+
+		private void run(final int start, final int end) {
+			for (int i = start; i < end && !stopped(); i++) {
+				try {
+					task.run(i);
+				}
+				catch (final Throwable t) {
+					failure.compareAndSet(null, t);
+					return;
+				}
+				if (control != null) control.advance();
+			}
+		}
+	}
+
+	/**
+	 * A range of indices, which splits off its upper half for other workers as
+	 * long as they are short of work.
+	 */
+	private static class Chunk extends RecursiveAction {
+
+		private final Run run;
+		private final int start;
+		private final int end;
+
+		private Chunk(final Run run, final int start, final int end) {
+			this.run = run;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			int high = end;
+			final List<Chunk> forked = new ArrayList<>();
+			while (high - start > 1 && getSurplusQueuedTaskCount() < SURPLUS &&
+				!run.stopped())
+			{
+				final int middle = (start + high) >>> 1;
+				final Chunk upper = new Chunk(run, middle, high);
+				upper.fork();
+				forked.add(upper);
+				high = middle;
+			}
+			run.run(start, high);
+			for (int i = forked.size() - 1; i >= 0; i--)
+				forked.get(i).join();
+		}
+	}
+}
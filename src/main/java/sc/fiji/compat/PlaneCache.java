@@ -0,0 +1,650 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.CompositeImage;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.LUT;
+import ij.process.ShortProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Keeps decoded image planes off the heap, so that reopening a file skips
+ * reading and decoding it.
+ * <p>
+ * Planes are keyed by the file's canonical path, modification time and size,
+ * and the plane's index, so a file which changes on disk is simply decoded
+ * anew. Their pixels live in direct buffers, within a byte budget of
+ * {@code fiji.plane.cache.mb} megabytes (default: an eighth of the maximum
+ * heap, at most 4 GB; 0 disables the cache). What does not fit is evicted in
+ * CLOCK order: a plane is only kept when the hand comes around if it was
+ * read since the hand last passed it. Planes enter the cache unreferenced, so
+ * a one-off sweep through many files, such as a batch conversion, does not
+ * push out the planes which are actually reused.
+ * </p>
+ * <p>
+ * Reads always return copies, which the caller may modify. When the heap is
+ * still nearly full after a garbage collection, the cache halves itself.
+ * </p>
+ */
+public class PlaneCache {
+
+	private static volatile PlaneCache defaultCache;
+
+	/**
+	 * The heap pools whose collection usage threshold the caches set, with the
+	 * thresholds they had before; restored when the last listening cache is
+	 * closed, as the thresholds are global to the JVM.
+	 */
+	private static final Map<MemoryPoolMXBean, Long> thresholds =
+		new HashMap<>();
+	private static int listeners;
+
+	private final long budget;
+	private final Map<PlaneKey, Plane> planes = new HashMap<>();
+	private final Map<FileKey, Meta> images = new HashMap<>();
+	private final Map<String, FileKey> current = new HashMap<>();
+	private final List<Plane> clock = new ArrayList<>();
+	private int hand;
+	private long bytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder pressureEvents = new LongAdder();
+
+	private NotificationListener pressureListener;
+
+	public PlaneCache(final long budget) {
+		this.budget = budget;
+		if (budget > 0) listenForMemoryPressure();
+	}
+
+	/**
+	 * Gets the cache of the most recently initialized Fiji context, for code
+	 * which has no context at hand. Without a context, a process-wide cache is
+	 * created.
+	 */
+	public static PlaneCache getDefault() {
+		PlaneCache cache = defaultCache;
+		if (cache != null) return cache;
+		synchronized (PlaneCache.class) {
+			if (defaultCache == null) defaultCache = new PlaneCache(defaultBudget());
+			return defaultCache;
+		}
+	}
+
+	static void setDefault(final PlaneCache cache) {
+		defaultCache = cache;
+	}
+
+	/** The budget given by {@code fiji.plane.cache.mb}, in bytes. */
+	static long defaultBudget() {
+		final long mb = Long.getLong("fiji.plane.cache.mb", Math.min(4096, Runtime
+			.getRuntime().maxMemory() / 8 >> 20));
+		return Math.max(0, mb) << 20;
+	}
+
+	// -- Reading --
+
+	/**
+	 * Opens an image like {@link IJ#openImage(String)} does, from the cache if
+	 * all its planes are there.
+	 *
+	 * @return the image, or null if it could not be opened
+	 */
+	public ImagePlus openImage(final String path) {
+		final FileKey key = key(path);
+		if (key == null) return IJ.openImage(path);
+		final ImagePlus cached = get(key);
+		if (cached != null) return cached;
+		final ImagePlus imp = IJ.openImage(path);
+		if (imp != null) put(key, imp);
+		return imp;
+	}
+
+	/**
+	 * Gets one plane of an image file, decoding the whole file if the plane is
+	 * not cached.
+	 *
+	 * @param slice the 1-based index of the plane in the image's stack
+	 * @return a copy of the plane, or null if the file could not be opened
+	 */
+	public ImageProcessor getPlane(final String path, final int slice) {
+		final FileKey key = key(path);
+		if (key != null) {
+			final Meta meta;
+			final Plane plane;
+			synchronized (this) {
+				meta = images.get(key);
+				plane = meta == null ? null : touch(new PlaneKey(key, slice - 1));
+			}
+			if (plane != null) {
+				hits.increment();
+				return meta.processor(plane, slice - 1);
+			}
+			misses.increment();
+		}
+		final ImagePlus imp = IJ.openImage(path);
+		if (imp == null) return null;
+		if (key != null) put(key, imp);
+		return imp.getStack().getProcessor(slice);
+	}
+
+	/** Whether all planes of the given file are cached. */
+	public boolean contains(final String path) {
+		final FileKey key = key(path);
+		if (key == null) return false;
+		synchronized (this) {
+			final Meta meta = images.get(key);
+			return meta != null && meta.cachedPlanes == meta.planeCount;
+		}
+	}
+
+	// -- Maintenance --
+
+	/** Forgets the planes of the given file. */
+	public void invalidate(final String path) {
+		final String canonical = canonical(path);
+		synchronized (this) {
+			final FileKey key = current.get(canonical);
+			if (key != null) remove(key);
+		}
+	}
+
+	/** Evicts planes until at most the given number of bytes are cached. */
+	public synchronized void trim(final long target) {
+		while (bytes > Math.max(0, target) && !clock.isEmpty())
+			evict();
+	}
+
+	public void clear() {
+		trim(0);
+	}
+
+	/**
+	 * Clears the cache and stops listening for memory pressure; the last cache
+	 * to do so restores the heap pools' collection usage thresholds.
+	 */
+	public void close() {
+		clear();
+		synchronized (PlaneCache.class) {
+			if (defaultCache == this) defaultCache = null;
+			if (pressureListener == null) return;
+			try {
+				((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+					.removeNotificationListener(pressureListener);
+			}
+			catch (final ListenerNotFoundException exc) {
+				// already gone
+			}
+			pressureListener = null;
+			if (--listeners > 0) return;
+			for (final Map.Entry<MemoryPoolMXBean, Long> entry : thresholds
+				.entrySet())
+			{
+				entry.getKey().setCollectionUsageThreshold(entry.getValue());
+			}
+			thresholds.clear();
+		}
+	}
+
+	// -- Metrics --
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getPlaneCount() {
+		return clock.size();
+	}
+
+	/** The number of images or planes served from the cache. */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** The number of images or planes which had to be decoded. */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/** How often the cache was halved because the heap ran full. */
+	public long getPressureEvents() {
+		return pressureEvents.sum();
+	}
+
+	public double getHitRate() {
+		final long h = getHits(), total = h + getMisses();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d planes, %d of %d MB, %d hits, %d misses " +
+			"(%.0f%%), %d evictions, %d memory pressure events", getPlaneCount(),
+			getBytes() >> 20, budget >> 20, getHits(), getMisses(), 100 *
+				getHitRate(), getEvictions(), getPressureEvents());
+	}
+
+	// -- Helper methods --
+
+	private ImagePlus get(final FileKey key) {
+		final Meta meta;
+		final Plane[] found;
+		synchronized (this) {
+			meta = images.get(key);
+			if (meta == null || meta.cachedPlanes < meta.planeCount) {
+				misses.increment();
+				return null;
+			}
+			found = new Plane[meta.planeCount];
+			for (int i = 0; i < found.length; i++)
+				found[i] = touch(new PlaneKey(key, i));
+		}
+		hits.increment();
+		// copy outside the lock; evicted buffers stay valid while referenced
+		final ImageStack stack = new ImageStack(meta.width, meta.height);
+		for (int i = 0; i < found.length; i++)
+			stack.addSlice(meta.labels == null ? null : meta.labels[i], meta
+				.processor(found[i], i));
+		return meta.image(stack);
+	}
+
+	private void put(final FileKey key, final ImagePlus imp) {
+		if (budget <= 0) return;
+		final ImageStack stack = imp.getStack();
+		final long size = (long) imp.getWidth() * imp.getHeight() * bytesPerPixel(
+			imp.getType()) * imp.getStackSize();
+		if (size > budget / 2 || stack.isVirtual()) return;
+		final Meta meta;
+		synchronized (this) {
+			final FileKey previous = current.put(key.path, key);
+			if (previous != null && !previous.equals(key)) remove(previous);
+			final Meta existing = images.get(key);
+			if (existing != null) meta = existing;
+			else {
+				meta = new Meta(imp);
+				images.put(key, meta);
+			}
+		}
+		for (int i = 0; i < meta.planeCount; i++) {
+			final PlaneKey planeKey = new PlaneKey(key, i);
+			synchronized (this) {
+				if (planes.containsKey(planeKey)) continue;
+			}
+			final ByteBuffer buffer;
+			try {
+				buffer = store(stack.getPixels(i + 1));
+			}
+			catch (final OutOfMemoryError exc) {
+				// no direct memory left: make room for others, and give up here
+				trim(getBytes() / 2);
+				return;
+			}
+			if (buffer == null) return;
+			synchronized (this) {
+				if (images.get(key) != meta || planes.containsKey(planeKey)) continue;
+				while (bytes + buffer.capacity() > budget && !clock.isEmpty())
+					evict();
+				final Plane plane = new Plane(planeKey, buffer);
+				planes.put(planeKey, plane);
+				// behind the hand, so that it is examined last
+				clock.add(hand, plane);
+				hand = (hand + 1) % clock.size();
+				bytes += buffer.capacity();
+				meta.cachedPlanes++;
+			}
+		}
+	}
+
+	/** Marks a plane as referenced, and returns it. */
+	private Plane touch(final PlaneKey key) {
+		final Plane plane = planes.get(key);
+		if (plane != null) plane.referenced = true;
+		return plane;
+	}
+
+	/** Evicts the plane under the CLOCK hand, sparing referenced ones. */
+	private void evict() {
+		while (true) {
+			if (hand >= clock.size()) hand = 0;
+			final Plane plane = clock.get(hand);
+			if (plane.referenced) {
+				plane.referenced = false;
+				hand++;
+				continue;
+			}
+			clock.remove(hand);
+			drop(plane);
+			evictions.increment();
+			return;
+		}
+	}
+
+	private void remove(final FileKey key) {
+		for (final Iterator<Plane> iter = clock.iterator(); iter.hasNext();) {
+			final Plane plane = iter.next();
+			if (!plane.key.file.equals(key)) continue;
+			iter.remove();
+			drop(plane);
+		}
+		images.remove(key);
+		current.remove(key.path, key);
+		if (hand >= clock.size()) hand = 0;
+	}
+
+	private void drop(final Plane plane) {
+		planes.remove(plane.key);
+		bytes -= plane.buffer.capacity();
+		final Meta meta = images.get(plane.key.file);
+		if (meta != null && --meta.cachedPlanes == 0) {
+			images.remove(plane.key.file);
+			current.remove(plane.key.file.path, plane.key.file);
+		}
+	}
+
+	private static ByteBuffer store(final Object pixels) {
+		final ByteBuffer buffer;
+		if (pixels instanceof byte[]) {
+			final byte[] array = (byte[]) pixels;
+			buffer = ByteBuffer.allocateDirect(array.length);
+			buffer.put(array);
+		}
+		else if (pixels instanceof short[]) {
+			final short[] array = (short[]) pixels;
+			buffer = ByteBuffer.allocateDirect(2 * array.length).order(ByteOrder
+				.nativeOrder());
+			buffer.asShortBuffer().put(array);
+		}
+		else if (pixels instanceof float[]) {
+			final float[] array = (float[]) pixels;
+			buffer = ByteBuffer.allocateDirect(4 * array.length).order(ByteOrder
+				.nativeOrder());
+			buffer.asFloatBuffer().put(array);
+		}
+		else if (pixels instanceof int[]) {
+			final int[] array = (int[]) pixels;
+			buffer = ByteBuffer.allocateDirect(4 * array.length).order(ByteOrder
+				.nativeOrder());
+			buffer.asIntBuffer().put(array);
+		}
+		else return null;
+		return buffer;
+	}
+
+	private static int bytesPerPixel(final int type) {
+		return type == ImagePlus.GRAY8 || type == ImagePlus.COLOR_256 ? 1 :
+			type == ImagePlus.GRAY16 ? 2 : 4;
+	}
+
+	private static String canonical(final String path) {
+		try {
+			return new File(path).getCanonicalPath();
+		}
+		catch (final IOException exc) {
+			return new File(path).getAbsolutePath();
+		}
+	}
+
+	/** Gets the key of a local file, or null for URLs and missing files. */
+	private static FileKey key(final String path) {
+		if (path == null || path.indexOf("://") >= 0) return null;
+		final File file = new File(canonical(path));
+		final long mtime = file.lastModified();
+		if (mtime == 0 || !file.isFile()) return null;
+		return new FileKey(file.getPath(), mtime, file.length());
+	}
+
+	/**
+	 * Halves the cache whenever the heap is more than 80% full right after a
+	 * garbage collection. The heap and the direct buffers compete for the same
+	 * physical memory, so the cache makes room for the heap.
+	 */
+	private void listenForMemoryPressure() {
+		synchronized (PlaneCache.class) {
+			if (listeners++ == 0) {
+				for (final MemoryPoolMXBean pool : ManagementFactory
+					.getMemoryPoolMXBeans())
+				{
+					if (pool.getType() != MemoryType.HEAP || !pool
+						.isCollectionUsageThresholdSupported()) continue;
+					final long max = pool.getUsage().getMax();
+					final long previous = pool.getCollectionUsageThreshold();
+					if (max <= 0 || previous > 0) continue;
+					pool.setCollectionUsageThreshold(max / 5 * 4);
+					thresholds.put(pool, previous);
+				}
+			}
+			pressureListener = (final Notification notification,
+				final Object handback) -> {
+				if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED
+					.equals(notification.getType())) return;
+				pressureEvents.increment();
+				trim(getBytes() / 2);
+			};
+			((NotificationEmitter) ManagementFactory.getMemoryMXBean())
+				.addNotificationListener(pressureListener, null, null);
+		}
+	}
+
+	// -- Helper classes --
+
+	private static class FileKey {
+
+		private final String path;
+		private final long mtime;
+		private final long length;
+
+		private FileKey(final String path, final long mtime, final long length) {
+			this.path = path;
+			this.mtime = mtime;
+			this.length = length;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof FileKey)) return false;
+			final FileKey other = (FileKey) o;
+			return path.equals(other.path) && mtime == other.mtime &&
+				length == other.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(path, mtime, length);
+		}
+	}
+
+	private static class PlaneKey {
+
+		private final FileKey file;
+		private final int index;
+
+		private PlaneKey(final FileKey file, final int index) {
+			this.file = file;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof PlaneKey)) return false;
+			final PlaneKey other = (PlaneKey) o;
+			return index == other.index && file.equals(other.file);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * file.hashCode() + index;
+		}
+	}
+
+	private static class Plane {
+
+		private final PlaneKey key;
+		private final ByteBuffer buffer;
+		private boolean referenced;
+
+		private Plane(final PlaneKey key, final ByteBuffer buffer) {
+			this.key = key;
+			this.buffer = buffer;
+		}
+	}
+
+	/** What it takes, besides the pixels, to rebuild the image. */
+	private static class Meta {
+
+		private final String title;
+		private final int width, height, type, planeCount;
+		private final int channels, slices, frames;
+		private final Calibration calibration;
+		private final FileInfo fileInfo;
+		private final String info;
+		private final String[] labels;
+		private final LUT[] luts;
+		private final int compositeMode;
+		private final boolean hyperStack;
+		private final double min, max;
+		private int cachedPlanes;
+
+		private Meta(final ImagePlus imp) {
+			title = imp.getTitle();
+			width = imp.getWidth();
+			height = imp.getHeight();
+			type = imp.getType();
+			planeCount = imp.getStackSize();
+			channels = imp.getNChannels();
+			slices = imp.getNSlices();
+			frames = imp.getNFrames();
+			calibration = imp.getCalibration().copy();
+			final FileInfo original = imp.getOriginalFileInfo();
+			fileInfo = original == null ? null : (FileInfo) original.clone();
+			info = imp.getInfoProperty();
+			final String[] sliceLabels = imp.getStack().getSliceLabels();
+			labels = sliceLabels == null ? null : sliceLabels.clone();
+			if (imp instanceof CompositeImage) {
+				luts = ((CompositeImage) imp).getLuts();
+				compositeMode = ((CompositeImage) imp).getMode();
+			}
+			else {
+				final LUT lut = imp.getProcessor().getLut();
+				luts = lut == null ? null : new LUT[] { lut };
+				compositeMode = -1;
+			}
+			hyperStack = imp.isHyperStack();
+			min = imp.getDisplayRangeMin();
+			max = imp.getDisplayRangeMax();
+		}
+
+		private ImageProcessor processor(final Plane plane, final int index) {
+			final ByteBuffer buffer = plane.buffer.duplicate().order(plane.buffer
+				.order());
+			final ImageProcessor ip;
+			switch (type) {
+				case ImagePlus.GRAY16: {
+					final short[] pixels = new short[width * height];
+					buffer.asShortBuffer().get(pixels);
+					ip = new ShortProcessor(width, height, pixels, null);
+					break;
+				}
+				case ImagePlus.GRAY32: {
+					final float[] pixels = new float[width * height];
+					buffer.asFloatBuffer().get(pixels);
+					ip = new FloatProcessor(width, height, pixels, null);
+					break;
+				}
+				case ImagePlus.COLOR_RGB: {
+					final int[] pixels = new int[width * height];
+					buffer.asIntBuffer().get(pixels);
+					ip = new ColorProcessor(width, height, pixels);
+					break;
+				}
+				default: {
+					final byte[] pixels = new byte[width * height];
+					buffer.get(pixels);
+					ip = new ByteProcessor(width, height, pixels, null);
+				}
+			}
+			if (luts != null && compositeMode < 0 && type != ImagePlus.COLOR_RGB) {
+				ip.setLut(luts[0]);
+			}
+			if (type != ImagePlus.COLOR_RGB) ip.resetMinAndMax();
+			return ip;
+		}
+
+		private ImagePlus image(final ImageStack stack) {
+			ImagePlus imp = new ImagePlus(title, stack);
+			imp.setDimensions(channels, slices, frames);
+			imp.setOpenAsHyperStack(hyperStack);
+			if (compositeMode >= 0) {
+				final CompositeImage composite = new CompositeImage(imp,
+					compositeMode);
+				composite.setLuts(luts);
+				imp = composite;
+			}
+			else if (type != ImagePlus.COLOR_RGB) {
+				imp.setDisplayRange(min, max);
+			}
+			imp.setCalibration(calibration.copy());
+			if (fileInfo != null) imp.setFileInfo((FileInfo) fileInfo.clone());
+			if (info != null) imp.setProperty("Info", info);
+			return imp;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the classes of the most used commands in the background, so that
+ * their first invocation does not stall on class loading.
+ * <p>
+ * After a delay, a platform thread of the lowest priority, tracked as a
+ * background task, takes the top commands of the {@link CommandHistory}, and
+ * for each loads its plugin class and, following the class files' constant
+ * pools, the classes those refer to. Whenever the user runs a command, the
+ * thread pauses until things have been quiet for a while.
+ * </p>
+ * <p>
+ * Classes are initialized, which verifies their bytecode, too, where that runs
+ * none of their code: when neither the class nor any of its supertypes outside
+ * the Java platform has a static initializer. Other classes are only loaded,
+ * since static initializers of arbitrary plugins may have side effects. The
+ * behavior is controlled by system properties:
+ * </p>
+ * <ul>
+ * <li>{@code fiji.prewarm}: set to {@code false} to disable;</li>
+ * <li>{@code fiji.prewarm.commands}: how many commands (default: 10);</li>
+ * <li>{@code fiji.prewarm.classes}: how many classes per command at most
+ * (default: 2000);</li>
+ * <li>{@code fiji.prewarm.delay}: seconds to wait after startup (default:
+ * 15).</li>
+ * </ul>
+ */
+public class Prewarmer implements Runnable {
+
+	/** How long no command must have run before prewarming continues. */
+	private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+	private final CommandHistory history;
+	private final ClassLoader loader;
+	private final int commandCount;
+	private final int classLimit;
+	private final long delayMillis;
+	private final Map<String, Boolean> initializable = new HashMap<>();
+	private volatile int loaded;
+
+	public Prewarmer(final CommandHistory history, final ClassLoader loader) {
+		this.history = history;
+		this.loader = loader;
+		commandCount = Integer.getInteger("fiji.prewarm.commands", 10);
+		classLimit = Integer.getInteger("fiji.prewarm.classes", 2000);
+		delayMillis = TimeUnit.SECONDS.toMillis(Integer.getInteger(
+			"fiji.prewarm.delay", 15));
+	}
+
+	/**
+	 * Starts prewarming as a background task, unless disabled. Shutting down
+	 * the tasks stops it.
+	 * <p>
+	 * The task waits for a platform thread of its own, since the priority of
+	 * the task's thread, which may be virtual, cannot be lowered.
+	 * </p>
+	 */
+	public static void start(final BackgroundTasks tasks) {
+		if ("false".equals(System.getProperty("fiji.prewarm"))) return;
+		final Prewarmer prewarmer = new Prewarmer(CommandHistory.getInstance(), IJ
+			.getClassLoader());
+		tasks.run("Fiji prewarm", () -> {
+			final Thread thread = new Thread(prewarmer, "Fiji prewarm");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+			try {
+				thread.join();
+			}
+			catch (final InterruptedException exc) {
+				thread.interrupt();
+			}
+		});
+	}
+
+	/** Gets the number of classes loaded so far. */
+	public int getLoadedCount() {
+		return loaded;
+	}
+
+	@Override
+	public void run() {
+		try {
+			Thread.sleep(delayMillis);
+			final Set<String> seen = new HashSet<>();
+			for (final String command : history.getTopCommands(commandCount)) {
+				final String className = className(CommandTable.get(command));
+				if (className != null) prewarm(className, seen);
+			}
+		}
+		catch (final InterruptedException exc) {
+			// stop quietly
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Loads the class and, breadth first, the classes it refers to. */
+	private void prewarm(final String className, final Set<String> seen)
+		throws InterruptedException
+	{
+		final Deque<String> queue = new ArrayDeque<>();
+		queue.add(className);
+		int count = 0;
+		while (!queue.isEmpty() && count < classLimit) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			waitUntilIdle();
+			final String name = queue.poll();
+			if (!seen.add(name) || isPlatformClass(name)) continue;
+			final ClassFile file = classFile(name);
+			final Class<?> c;
+			try {
+				c = Class.forName(name, initializable(name, file), loader);
+			}
+			catch (final ClassNotFoundException | LinkageError exc) {
+				continue;
+			}
+			count++;
+			loaded++;
+			try {
+				// resolves the classes in the members' signatures
+				c.getDeclaredMethods();
+				c.getDeclaredFields();
+			}
+			catch (final LinkageError exc) {
+				// an optional dependency is missing; fine
+			}
+			if (file != null) queue.addAll(file.references);
+			Thread.yield();
+		}
+	}
+
+	private void waitUntilIdle() throws InterruptedException {
+		while (System.nanoTime() - history.getLastCommandTime() < IDLE_NANOS) {
+			Thread.sleep(TimeUnit.NANOSECONDS.toMillis(IDLE_NANOS));
+		}
+	}
+
+	private static boolean isPlatformClass(final String name) {
+		return name.startsWith("java.") || name.startsWith("javax.") || name
+			.startsWith("jdk.") || name.startsWith("sun.") || name.startsWith(
+				"com.sun.");
+	}
+
+	/**
+	 * Extracts the plugin class from an ImageJ 1.x command table entry such as
+	 * {@code ij.plugin.filter.Filters("invert")}.
+	 */
+	static String className(final String entry) {
+		if (entry == null) return null;
+		final int paren = entry.indexOf('(');
+		return (paren < 0 ? entry : entry.substring(0, paren)).trim();
+	}
+
+	/**
+	 * Whether initializing the class runs only the Java platform's code:
+	 * neither the class nor its other supertypes have static initializers.
+	 */
+	private boolean initializable(final String name, final ClassFile file) {
+		if (file == null) return false;
+		final Boolean known = initializable.get(name);
+		if (known != null) return known;
+		boolean result = !file.staticInitializer;
+		for (final String supertype : file.supertypes) {
+			if (!result) break;
+			if (!isPlatformClass(supertype)) {
+				result = initializable(supertype, classFile(supertype));
+			}
+		}
+		initializable.put(name, result);
+		return result;
+	}
+
+	/** Reads the given class's file, or returns null if it cannot be read. */
+	private ClassFile classFile(final String className) {
+		try (final InputStream in = loader.getResourceAsStream(className.replace(
+			'.', '/') + ".class"))
+		{
+			return in == null ? null : parse(in);
+		}
+		catch (final IOException exc) {
+			return null;
+		}
+	}
+
+	static ClassFile parse(final InputStream stream) throws IOException {
+		final DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != 0xcafebabe) throw new IOException("Not a class file");
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+		final int count = in.readUnsignedShort();
+		final String[] utf8 = new String[count];
+		final int[] classNames = new int[count];
+		for (int i = 1; i < count; i++) {
+			final int tag = in.readUnsignedByte();
+			switch (tag) {
+				case 1: // Utf8
+					utf8[i] = in.readUTF();
+					break;
+				case 7: // Class
+					classNames[i] = in.readUnsignedShort();
+					break;
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					in.skipBytes(2);
+					break;
+				case 15: // MethodHandle
+					in.skipBytes(3);
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					in.skipBytes(4);
+					break;
+				case 5: // Long
+				case 6: // Double
+					in.skipBytes(8);
+					i++; // takes two slots
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag: " + tag);
+			}
+		}
+		final ClassFile result = new ClassFile();
+		for (final int index : classNames) {
+			if (index == 0) continue;
+			String name = utf8[index];
+			if (name == null) continue;
+			if (name.startsWith("[")) {
+				// array type: keep only the element class, if any
+				final int l = name.indexOf('L');
+				if (l < 0) continue;
+				name = name.substring(l + 1, name.length() - 1);
+			}
+			result.references.add(name.replace('/', '.'));
+		}
+		// only a class declaring a static initializer has this name in its pool
+		result.staticInitializer = Arrays.asList(utf8).contains("<clinit>");
+
+		in.readUnsignedShort(); // access flags
+		in.readUnsignedShort(); // this class
+		final int superClass = in.readUnsignedShort();
+		if (superClass != 0) result.supertypes.add(utf8[classNames[superClass]]
+			.replace('/', '.'));
+		final int interfaces = in.readUnsignedShort();
+		for (int i = 0; i < interfaces; i++) {
+			result.supertypes.add(utf8[classNames[in.readUnsignedShort()]].replace(
+				'/', '.'));
+		}
+		return result;
+	}
+
+	/** What the prewarmer needs to know of a class file. */
+	static class ClassFile {
+
+		/** The classes in the constant pool. */
+		final List<String> references = new ArrayList<>();
+
+		/** The superclass, if any, and the interfaces. */
+		final List<String> supertypes = new ArrayList<>();
+
+		/** Whether the class declares a static initializer. */
+		boolean staticInitializer;
+	}
+}
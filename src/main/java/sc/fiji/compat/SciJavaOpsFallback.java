@@ -22,7 +22,12 @@
 
 package sc.fiji.compat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.scijava.module.Module;
+import org.scijava.module.ModuleInfo;
 import org.scijava.module.ModuleItem;
 import org.scijava.module.process.AbstractPreprocessorPlugin;
 import org.scijava.module.process.PreprocessorPlugin;
@@ -37,10 +42,15 @@ public class SciJavaOpsFallback extends AbstractPreprocessorPlugin {
 	@Parameter
 	private UIService ui;
 
+	@Parameter
+	private FijiService fiji;
+
 	@Override
 	public void process(Module module) {
-		for (ModuleItem<?> input : module.getInfo().inputs()) {
-			if ("OpEnvironment".equals(input.getType().getSimpleName()) && !module.isInputResolved(input.getName())) {
+		final ModuleInfoCache<List<String>> cache =
+			fiji.getModuleInfoCache(SciJavaOpsFallback.class);
+		for (String name : cache.get(module.getInfo(), SciJavaOpsFallback::opEnvironmentInputs)) {
+			if (!module.isInputResolved(name)) {
 				// Unresolved OpEnvironment input!
 				ui.showDialog(
 					"<html>It looks like you are trying to use the <tt>OpEnvironment</tt> from<br>" +
@@ -53,4 +63,16 @@ public void process(Module module) {
 			}
 		}
 	}
+
+	/** Gets the names of the module's inputs typed as {@code OpEnvironment}. */
+	static List<String> opEnvironmentInputs(ModuleInfo info) {
+		List<String> names = null;
+		for (ModuleItem<?> input : info.inputs()) {
+			if ("OpEnvironment".equals(input.getType().getSimpleName())) {
+				if (names == null) names = new ArrayList<>();
+				names.add(input.getName());
+			}
+		}
+		return names == null ? Collections.emptyList() : names;
+	}
 }
@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+import org.scijava.service.SciJavaService;
+
+/**
+ * Compiles scripts at most once, so that scripts run from loops do not pay for
+ * parsing and compilation on every invocation.
+ * <p>
+ * Compiled scripts are kept in memory, keyed by a hash of the script's
+ * contents and the name and version of its engine, and evicted in
+ * least-recently-used order. Where the engine allows it, compiled code is also
+ * kept on disk below {@code cache/scripts/} in the application directory (or
+ * in the temporary directory, if that is read-only), so that it survives
+ * restarts: Groovy scripts are stored as class files, and
+ * Nashorn uses its persistent code cache. Other engines implementing
+ * {@link javax.script.Compilable} are cached in memory only; in particular,
+ * Jython's {@code $py.class} files and ahead-of-time compiled Clojure are not
+ * used. Scripts of engines which cannot compile are evaluated afresh on every
+ * run.
+ * </p>
+ * <p>
+ * Script engines keep global variables between evaluations, so engines are
+ * never shared between threads: each thread running a script compiles its own
+ * copy with an engine of its own.
+ * </p>
+ * <p>
+ * Scripts are evaluated directly by their engines: their SciJava script
+ * parameters ({@code #@}) are not harvested, but must be passed as bindings.
+ * </p>
+ */
+public interface ScriptCacheService extends SciJavaService {
+
+	/**
+	 * Evaluates the given script with the given bindings, compiling it only if
+	 * no compiled version is cached.
+	 *
+	 * @return the value of the script
+	 */
+	Object run(File file, Map<String, Object> bindings) throws IOException,
+		ScriptException;
+
+	/** Forgets all compiled scripts held in memory. */
+	void clear();
+
+	/** Gets the number of runs which reused a compiled script. */
+	long getHits();
+
+	/** Gets the number of runs which had to compile their script. */
+	long getMisses();
+}
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.measure.ResultsTable;
+
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Shows the {@link CommandStatistics} in a results table, which can be sorted
+ * by any column via <em>Results&gt;Sort...</em>.
+ */
+@Plugin(type = Command.class,
+	menuPath = "Plugins>Utilities>Command Statistics...")
+public class ShowCommandStatistics implements Command {
+
+	private static final double MS = 1e-6;
+	private static final double MB = 1.0 / (1 << 20);
+
+	@Parameter
+	private FijiService fiji;
+
+	@Parameter(label = "Reset after showing")
+	private boolean reset;
+
+	@Override
+	public void run() {
+		final CommandStatistics statistics = fiji.getCommandStatistics();
+		final ResultsTable table = new ResultsTable();
+		for (final CommandStatistics.Entry entry : statistics.getEntries()) {
+			final LogHistogram wall = entry.getWallTime();
+			table.incrementCounter();
+			table.addValue("Command", entry.getTitle() != null ? entry.getTitle()
+				: entry.getId());
+			table.addValue("Runs", wall.getCount());
+			table.addValue("Total (ms)", wall.getSum() * MS);
+			table.addValue("Mean (ms)", wall.getMean() * MS);
+			table.addValue("Median (ms)", wall.getQuantile(0.5) * MS);
+			table.addValue("P90 (ms)", wall.getQuantile(0.9) * MS);
+			table.addValue("P99 (ms)", wall.getQuantile(0.99) * MS);
+			table.addValue("Max (ms)", wall.getMax() * MS);
+			table.addValue("CPU (ms)", entry.getCpuTime().getSum() * MS);
+			table.addValue("Allocated (MB)", entry.getAllocated().getSum() * MB);
+			table.addValue("Identifier", entry.getId());
+		}
+		table.show("Command Statistics");
+		if (reset) statistics.reset();
+	}
+}
@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+import ij.WindowManager;
+import ij.measure.ResultsTable;
+
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Shows the busiest threads, top-style, in a results table which refreshes
+ * until it is closed; a second table lists the most contended monitors, and
+ * a third the background tasks running on virtual threads, which the thread
+ * table cannot show. Headless, one sample is logged instead.
+ * <p>
+ * All viewers share the {@link ThreadMonitor}'s sampler, so running this
+ * command twice shows the same numbers twice rather than splitting them.
+ * </p>
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>Utilities>Thread Monitor...")
+public class ShowThreadMonitor implements Command {
+
+	private static final String TITLE = "Thread Monitor";
+	private static final String MONITORS_TITLE = "Contended Monitors";
+	private static final String TASKS_TITLE = "Background Tasks";
+
+	@Parameter
+	private FijiService fiji;
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(label = "Refresh interval (seconds)", min = "0.2")
+	private double interval = 2;
+
+	@Parameter(label = "Threads to show", min = "1")
+	private int count = 30;
+
+	@Parameter(label = "Sort by", choices = { "CPU", "Blocked time",
+		"Waited time" })
+	private String sortBy = "CPU";
+
+	@Override
+	public void run() {
+		final ThreadMonitor monitor = fiji.getThreadMonitor();
+		final long millis = Math.round(interval * 1000);
+		if (GraphicsEnvironment.isHeadless()) {
+			try {
+				log.info(monitor.current(millis).toTSV());
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		monitor.acquire(millis);
+		fiji.getBackgroundTasks().run(TITLE, () -> {
+			try {
+				boolean shown = false;
+				while (true) {
+					final ThreadMonitor.Snapshot snapshot = monitor.awaitNext();
+					// stop once the table was closed
+					if (shown && WindowManager.getWindow(TITLE) == null) break;
+					show(snapshot);
+					shown = true;
+				}
+			}
+			catch (final InterruptedException exc) {
+				// context disposed
+			}
+			finally {
+				monitor.release();
+			}
+		});
+	}
+
+	private void show(final ThreadMonitor.Snapshot snapshot) {
+		final List<ThreadMonitor.ThreadSample> threads = new ArrayList<>(snapshot
+			.getThreads());
+		threads.sort((a, b) -> Long.compare(key(b), key(a)));
+
+		final ResultsTable table = new ResultsTable();
+		for (final ThreadMonitor.ThreadSample t : threads.subList(0, Math.min(
+			count, threads.size())))
+		{
+			table.incrementCounter();
+			table.addValue("Thread", t.getName());
+			table.addValue("State", t.getState().name());
+			table.addValue("CPU %", snapshot.getCpuPercent(t));
+			table.addValue("CPU (s)", t.getCpuTime() * 1e-9);
+			table.addValue("Blocked", t.getBlockedCountDelta());
+			table.addValue("Blocked (ms)", t.getBlockedTimeDelta());
+			table.addValue("Waited", t.getWaitedCountDelta());
+			table.addValue("Waited (ms)", t.getWaitedTimeDelta());
+			table.addValue("Lock", orEmpty(t.getLockName()));
+			table.addValue("Lock owner", orEmpty(t.getLockOwner()));
+			table.addValue("Command", orEmpty(t.getCommand()));
+			// a pool's threads run other code's tasks: name the task
+			table.addValue("Origin", t.isPooled() ? "(pool task) " + orEmpty(t
+				.getOrigin()) : orEmpty(t.getOrigin()));
+			table.addValue("JAR", orEmpty(t.getJar()));
+		}
+		table.show(TITLE);
+
+		final ResultsTable monitors = new ResultsTable();
+		int i = 0;
+		for (final Map.Entry<String, Long> monitor : snapshot
+			.getContendedMonitors())
+		{
+			if (i++ == 10) break;
+			monitors.incrementCounter();
+			monitors.addValue("Monitor", monitor.getKey());
+			monitors.addValue("Blocked (ms)", monitor.getValue());
+		}
+		if (monitors.size() > 0 || WindowManager.getWindow(
+			MONITORS_TITLE) != null) monitors.show(MONITORS_TITLE);
+
+		// tasks on virtual threads are invisible to the thread table
+		final ResultsTable tasks = new ResultsTable();
+		for (final ThreadMonitor.TaskSample task : snapshot.getTasks()) {
+			if (!task.isVirtual()) continue;
+			tasks.incrementCounter();
+			tasks.addValue("Task", task.getName());
+			tasks.addValue("State", task.getState().name());
+			tasks.addValue("Running (s)", task.getRunningMillis() * 1e-3);
+		}
+		if (tasks.size() > 0 || WindowManager.getWindow(TASKS_TITLE) != null) {
+			tasks.show(TASKS_TITLE);
+		}
+
+		IJ.showStatus(String.format("%d threads, %d runnable, load %.1f of %d " +
+			"processors", threads.size(), snapshot.getRunnableCount(), snapshot
+				.getLoad(), snapshot.getProcessors()));
+	}
+
+	private long key(final ThreadMonitor.ThreadSample t) {
+		switch (sortBy) {
+			case "Blocked time":
+				return t.getBlockedTimeDelta();
+			case "Waited time":
+				return t.getWaitedTimeDelta();
+			default:
+				return t.getCpuTimeDelta();
+		}
+	}
+
+	private static String orEmpty(final String s) {
+		return s == null ? "" : s;
+	}
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shuts down Fiji's own parts concurrently, under a common deadline.
+ * <p>
+ * Parts register a disposer under a name. {@link #shutdown(long)} runs all
+ * disposers at once, each on its own daemon thread, and waits for them until
+ * the deadline. It does not wait longer: disposers still running by then, and
+ * non-daemon threads which would keep the JVM from exiting, are listed in the
+ * returned {@link Report}, so that whatever holds up exit can be named.
+ * </p>
+ * <p>
+ * Disposers must not depend on each other; one which needs the rest of the
+ * deadline can ask for {@link #getRemainingMillis()}.
+ * </p>
+ */
+public class ShutdownCoordinator {
+
+	private final Map<String, Runnable> participants = new LinkedHashMap<>();
+	private volatile long deadline;
+
+	/** Registers a disposer, replacing any registered under the same name. */
+	public synchronized void register(final String name,
+		final Runnable disposer)
+	{
+		participants.put(name, disposer);
+	}
+
+	public synchronized void unregister(final String name) {
+		participants.remove(name);
+	}
+
+	/**
+	 * Gets how much time is left until the deadline of the shutdown in
+	 * progress, or 0 if there is none.
+	 */
+	public long getRemainingMillis() {
+		final long d = deadline;
+		return d == 0 ? 0 : Math.max(0, TimeUnit.NANOSECONDS.toMillis(d - System
+			.nanoTime()));
+	}
+
+	/**
+	 * Runs all disposers concurrently and waits for them, at most for the
+	 * given time. Disposers are forgotten afterwards.
+	 */
+	public Report shutdown(final long timeoutMillis) {
+		final Map<String, Runnable> disposers;
+		synchronized (this) {
+			disposers = new LinkedHashMap<>(participants);
+			participants.clear();
+		}
+		final long start = System.nanoTime();
+		deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		final Map<String, Long> finished = Collections.synchronizedMap(
+			new LinkedHashMap<>());
+		final Map<String, Throwable> failures = Collections.synchronizedMap(
+			new LinkedHashMap<>());
+		final Map<String, Thread> threads = new LinkedHashMap<>();
+		for (final Map.Entry<String, Runnable> entry : disposers.entrySet()) {
+			final String name = entry.getKey();
+			final Thread thread = new Thread(() -> {
+				try {
+					entry.getValue().run();
+					finished.put(name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() -
+						start));
+				}
+				catch (final Throwable t) {
+					failures.put(name, t);
+				}
+			}, "Fiji shutdown: " + name);
+			thread.setDaemon(true);
+			thread.start();
+			threads.put(name, thread);
+		}
+		try {
+			for (final Thread thread : threads.values()) {
+				final long remaining = getRemainingMillis();
+				if (remaining > 0) thread.join(remaining);
+			}
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		deadline = 0;
+
+		// take stock; disposers finishing from now on are too late
+		final Report report = new Report(TimeUnit.NANOSECONDS.toMillis(System
+			.nanoTime() - start));
+		synchronized (finished) {
+			report.finished.putAll(finished);
+		}
+		synchronized (failures) {
+			report.failures.putAll(failures);
+		}
+		for (final Map.Entry<String, Thread> entry : threads.entrySet()) {
+			final String name = entry.getKey();
+			if (!report.finished.containsKey(name) && !report.failures.containsKey(
+				name)) report.stragglers.put(name, entry.getValue());
+		}
+		for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && !thread.isDaemon() && thread != Thread
+				.currentThread() && !"main".equals(thread.getName()) &&
+				!"DestroyJavaVM".equals(thread.getName()))
+			{
+				report.lingering.add(thread);
+			}
+		}
+		return report;
+	}
+
+	/** What happened during a {@link ShutdownCoordinator#shutdown(long)}. */
+	public static class Report {
+
+		private final Map<String, Long> finished = new LinkedHashMap<>();
+		private final Map<String, Throwable> failures = new LinkedHashMap<>();
+		private final Map<String, Thread> stragglers = new LinkedHashMap<>();
+		private final List<Thread> lingering = new ArrayList<>();
+		private final long elapsedMillis;
+
+		private Report(final long elapsedMillis) {
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		/** Gets how long each finished disposer took, in milliseconds. */
+		public Map<String, Long> getFinished() {
+			return Collections.unmodifiableMap(finished);
+		}
+
+		/** Gets the disposers which threw, with what they threw. */
+		public Map<String, Throwable> getFailures() {
+			return Collections.unmodifiableMap(failures);
+		}
+
+		/** Gets the disposers still running at the deadline, with their threads. */
+		public Map<String, Thread> getStragglers() {
+			return Collections.unmodifiableMap(stragglers);
+		}
+
+		/** Gets the non-daemon threads which keep the JVM from exiting. */
+		public List<Thread> getLingeringThreads() {
+			return Collections.unmodifiableList(lingering);
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/** Describes the stragglers, with what they are doing, one per line. */
+		public String describeStragglers() {
+			final StringBuilder text = new StringBuilder();
+			for (final Map.Entry<String, Thread> entry : stragglers.entrySet()) {
+				text.append(entry.getKey()).append(at(entry.getValue())).append('\n');
+			}
+			for (final Thread thread : lingering) {
+				text.append("thread '").append(thread.getName()).append("'").append(at(
+					thread)).append('\n');
+			}
+			return text.toString();
+		}
+
+		@Override
+		public String toString() {
+			return "shutdown took " + elapsedMillis + " ms: " + finished.size() +
+				" finished, " + failures.size() + " failed, " + stragglers.size() +
+				" still running, " + lingering.size() + " non-daemon threads left";
+		}
+
+		private static String at(final Thread thread) {
+			final StackTraceElement[] stack = thread.getStackTrace();
+			return stack.length == 0 ? "" : " at " + stack[0];
+		}
+	}
+}
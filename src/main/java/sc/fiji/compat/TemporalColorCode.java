@@ -0,0 +1,268 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.process.ColorProcessor;
+import ij.process.ImageConverter;
+import ij.process.LUT;
+
+import java.io.IOException;
+
+/**
+ * Colour-codes time: the maximum intensity projection over the frames of a
+ * single-channel hyperstack, with each frame drawn in the colour a LUT
+ * assigns to its position in time.
+ * <p>
+ * This computes what {@code Image>Hyperstacks>Temporal-Color Code} used to
+ * compute by copying every plane through a temporary image: every frame is
+ * converted to 8-bit like <em>Image&gt;Type&gt;8-bit</em> would, scaled by
+ * its colour and folded into a single RGB accumulator per slice, taking the
+ * per-channel maximum. The accumulator is processed in parallel bands of
+ * rows; planes of a virtual stack are read only once each.
+ * </p>
+ * <p>
+ * From a macro:
+ * </p>
+ * <pre>
+ * error = call("sc.fiji.compat.TemporalColorCode.run", "Fire", 1, nFrames);
+ * </pre>
+ */
+public final class TemporalColorCode {
+
+	private static final int BAND_HEIGHT = 64;
+
+	private TemporalColorCode() {
+		// Prevent instantiation of utility class.
+	}
+
+	/**
+	 * Colour-codes the frames {@code first} to {@code last} (1-based,
+	 * inclusive) of the image. A stack with slices but no frames is treated as
+	 * a time series.
+	 *
+	 * @return the RGB projection, with one plane per slice
+	 */
+	public static ImagePlus project(final ImagePlus imp, final LUT lut,
+		final int first, final int last)
+	{
+		if (imp.getNChannels() > 1) {
+			throw new IllegalArgumentException(
+				"Cannot color-code multi-channel images!");
+		}
+		int slices = imp.getNSlices(), frames = imp.getNFrames();
+		if (slices > 1 && frames == 1) {
+			frames = slices;
+			slices = 1;
+		}
+		final int start = Math.max(1, first), end = Math.min(frames, last);
+		if (end < start) {
+			throw new IllegalArgumentException("No frames between " + first +
+				" and " + last);
+		}
+
+		final int[][] colours = colours(lut, end - start + 1);
+		final Levels levels = new Levels(imp);
+		final ImageStack stack = imp.getStack();
+		final int width = imp.getWidth(), height = imp.getHeight();
+		final ImageStack result = new ImageStack(width, height);
+		for (int z = 1; z <= slices; z++) {
+			final ColorProcessor accumulator = new ColorProcessor(width, height);
+			final int[] acc = (int[]) accumulator.getPixels();
+			final int[] planes = new int[colours.length];
+			for (int t = start; t <= end; t++)
+				planes[t - start] = (t - 1) * slices + z;
+			if (stack.isVirtual()) {
+				// read each plane once, then fold it in parallel
+				for (int i = 0; i < planes.length; i++) {
+					final Object pixels = stack.getProcessor(planes[i]).getPixels();
+					final int[] table = colours[i];
+					Parallel.forTiles(accumulator, width, BAND_HEIGHT, (ip,
+						band) -> fold(pixels, levels, table, acc, band.y * width,
+							(band.y + band.height) * width));
+					IJ.showProgress(i + 1, planes.length);
+				}
+			}
+			else {
+				// keep each band in cache while all its frames are folded in
+				Parallel.forTiles(accumulator, width, BAND_HEIGHT, (ip, band) -> {
+					for (int i = 0; i < planes.length; i++)
+						fold(stack.getPixels(planes[i]), levels, colours[i], acc, band.y *
+							width, (band.y + band.height) * width);
+				}, new Parallel.Control().setProgressBar(true));
+			}
+			result.addSlice(stack.getSliceLabel(planes[0]), accumulator);
+		}
+
+		final ImagePlus projection = new ImagePlus("MAX_colored", result);
+		projection.setCalibration(imp.getCalibration().copy());
+		if (slices > 1) projection.setDimensions(1, slices, 1);
+		return projection;
+	}
+
+	// -- Macro functions --
+
+	/**
+	 * Colour-codes the current image with the named LUT and shows the result;
+	 * for {@code call()} from macros.
+	 *
+	 * @return an empty string, or the error message
+	 */
+	public static String run(final String lutName, final String first,
+		final String last)
+	{
+		final ImagePlus imp = WindowManager.getCurrentImage();
+		if (imp == null) return "There are no images open";
+		final LUT lut = lut(lutName);
+		if (lut == null) return "No such LUT: " + lutName;
+		try {
+			project(imp, lut, (int) Double.parseDouble(first), (int) Double
+				.parseDouble(last)).show();
+			return "";
+		}
+		catch (final IllegalArgumentException exc) {
+			return exc.getMessage();
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the LUT by name, from the {@link LutPack} if it is there, or by
+	 * applying the command of that name to a ramp otherwise.
+	 */
+	static LUT lut(final String name) {
+		try {
+			final LUT lut = LutPack.getInstance().getLut(name);
+			if (lut != null) return lut;
+		}
+		catch (final IOException exc) {
+			// fall back to the command
+		}
+		final ImagePlus ramp = IJ.createImage("stamp", "8-bit ramp", 256, 1, 1);
+		IJ.run(ramp, name, "");
+		final LUT lut = ramp.getProcessor().getLut();
+		return lut.getMapSize() == 256 ? lut : null;
+	}
+
+	/**
+	 * Computes, for each of the frames, the colour of each 8-bit level: the
+	 * colour of the frame's position in the LUT, scaled by the level.
+	 */
+	static int[][] colours(final LUT lut, final int frames) {
+		final int[][] colours = new int[frames][256];
+		for (int i = 0; i < frames; i++) {
+			final int rgb = lut.getRGB((int) Math.floor(256.0 / frames * i));
+			final int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+			for (int level = 0; level < 256; level++) {
+				final double factor = level / 255.0;
+				colours[i][level] = (int) Math.round(r * factor) << 16 | (int) Math
+					.round(g * factor) << 8 | (int) Math.round(b * factor);
+			}
+		}
+		return colours;
+	}
+
+	/** Folds the pixels {@code from} to {@code to} of a plane into the maxima. */
+	static void fold(final Object pixels, final Levels levels, final int[] table,
+		final int[] acc, final int from, final int to)
+	{
+		if (pixels instanceof byte[]) {
+			final byte[] in = (byte[]) pixels;
+			for (int i = from; i < to; i++)
+				acc[i] = max(acc[i], table[in[i] & 0xff]);
+		}
+		else if (pixels instanceof short[]) {
+			final short[] in = (short[]) pixels;
+			final int[] shorts = levels.shorts;
+			for (int i = from; i < to; i++)
+				acc[i] = max(acc[i], table[shorts[in[i] & 0xffff]]);
+		}
+		else if (pixels instanceof float[]) {
+			final float[] in = (float[]) pixels;
+			for (int i = from; i < to; i++)
+				acc[i] = max(acc[i], table[levels.level(in[i])]);
+		}
+		else {
+			final int[] in = (int[]) pixels;
+			for (int i = from; i < to; i++)
+				acc[i] = max(acc[i], table[levels.level(in[i])]);
+		}
+	}
+
+	/** The per-channel maximum of two RGB values. */
+	private static int max(final int a, final int b) {
+		return Math.max(a & 0xff0000, b & 0xff0000) | Math.max(a & 0xff00,
+			b & 0xff00) | Math.max(a & 0xff, b & 0xff);
+	}
+
+	/**
+	 * Maps pixel values to 8-bit levels like {@link ImageConverter} does,
+	 * honouring the display range and the "Scale when converting" option.
+	 */
+	static class Levels {
+
+		private final boolean scale;
+		private final double min, max;
+		private final double[] weights;
+		private int[] shorts;
+
+		Levels(final ImagePlus imp) {
+			this(imp.getBitDepth(), imp.getDisplayRangeMin(), imp
+				.getDisplayRangeMax(), ImageConverter.getDoScaling());
+		}
+
+		Levels(final int bitDepth, final double min, final double max,
+			final boolean scale)
+		{
+			this.min = min;
+			this.max = max;
+			this.scale = scale;
+			weights = ColorProcessor.getWeightingFactors();
+			if (bitDepth == 16) {
+				shorts = new int[65536];
+				final double factor = 256.0 / (max - min + 1);
+				for (int v = 0; v < shorts.length; v++) {
+					final double level = scale ? Math.max(0, v - min) * factor + 0.5 : v;
+					shorts[v] = level >= 255 ? 255 : (int) level;
+				}
+			}
+		}
+
+		int level(final float value) {
+			final double level = scale ? (value - min) * 255 / Math.max(Double
+				.MIN_NORMAL, max - min) + 0.5 : value + 0.5;
+			// NaN ends up at 0
+			return level >= 255 ? 255 : level > 0 ? (int) level : 0;
+		}
+
+		int level(final int rgb) {
+			final double level = ((rgb >> 16) & 0xff) * weights[0] + ((rgb >> 8) &
+				0xff) * weights[1] + (rgb & 0xff) * weights[2] + 0.5;
+			return level >= 255 ? 255 : (int) level;
+		}
+	}
+}
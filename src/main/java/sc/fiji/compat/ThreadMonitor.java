@@ -0,0 +1,662 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import ij.IJ;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Samples what Fiji's threads are doing, via the {@link ThreadMXBean}.
+ * <p>
+ * Each sample reports, per live thread, its CPU time and how often and how
+ * long it was blocked on a monitor or waiting, both in total and since the
+ * previous sample. Monitors which threads are found blocked on are ranked by
+ * the blocked time those threads accrued, which points at the locks that keep
+ * many-core machines from scaling.
+ * </p>
+ * <p>
+ * Since every sample is relative to the one before, there is a single sampler
+ * per monitor: viewers {@link #acquire(long)} it, read its snapshots with
+ * {@link #awaitNext()} or {@link #getLatest()}, and {@link #release()} it when
+ * done. The sampler runs as long as anybody holds it, at the shortest interval
+ * asked for.
+ * </p>
+ * <p>
+ * Threads are attributed to the code which started them: the first frame of
+ * their stack outside the JDK, the JAR that class came from, and the ImageJ
+ * 1.x command implemented by that class or named like the thread, if any. The
+ * threads of a pool are not attributed to who created the pool, but to the
+ * task they happen to be running.
+ * </p>
+ * <p>
+ * The {@link ThreadMXBean} does not see virtual threads, which is what
+ * {@link BackgroundTasks} runs its tasks on by default: their CPU time shows up
+ * under the carrier threads of the JDK's fork/join pool, without a name of
+ * their own. Each snapshot therefore also lists the running background tasks,
+ * with their state and how long they have been running; run Fiji with
+ * {@code -Dfiji.tasks.virtual=false} to have them sampled as named platform
+ * threads instead.
+ * </p>
+ */
+public class ThreadMonitor {
+
+	private final BackgroundTasks tasks;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final Map<Long, ThreadSample> previous = new HashMap<>();
+	private final Map<Long, String> origins = new HashMap<>();
+	private final Map<String, Long> monitorTimes = new HashMap<>();
+	private final Map<String, String> jars = new ConcurrentHashMap<>();
+	private long previousTime;
+	private Snapshot latest;
+
+	private BackgroundTasks.Task<Void> sampler;
+	private int holders;
+	private volatile long intervalMillis;
+
+	public ThreadMonitor(final BackgroundTasks tasks) {
+		this.tasks = tasks;
+		if (threads.isThreadCpuTimeSupported() && !threads
+			.isThreadCpuTimeEnabled()) threads.setThreadCpuTimeEnabled(true);
+		if (threads.isThreadContentionMonitoringSupported() && !threads
+			.isThreadContentionMonitoringEnabled())
+		{
+			threads.setThreadContentionMonitoringEnabled(true);
+		}
+	}
+
+	/**
+	 * Starts the sampler, unless it runs already, sampling at least every
+	 * {@code millis} milliseconds. Every call must be matched by a
+	 * {@link #release()}.
+	 */
+	public synchronized void acquire(final long millis) {
+		if (holders++ > 0 && sampler != null && !sampler.isDone()) {
+			intervalMillis = Math.min(intervalMillis, millis);
+			return;
+		}
+		intervalMillis = millis;
+		// the first snapshot of the sampler is relative to this one
+		sample();
+		sampler = tasks.run("Thread Monitor sampler", () -> {
+			try {
+				while (true) {
+					Thread.sleep(intervalMillis);
+					sample();
+				}
+			}
+			catch (final InterruptedException exc) {
+				// released, or context disposed
+			}
+		});
+	}
+
+	/** Stops the sampler once nobody holds it any more. */
+	public synchronized void release() {
+		if (holders == 0 || --holders > 0 || sampler == null) return;
+		sampler.cancel(true);
+		sampler = null;
+	}
+
+	/** Gets the most recent snapshot, or null if none was taken yet. */
+	public synchronized Snapshot getLatest() {
+		return latest;
+	}
+
+	/** Waits for the sampler's next snapshot. */
+	public synchronized Snapshot awaitNext() throws InterruptedException {
+		final Snapshot before = latest;
+		while (latest == before) wait();
+		return latest;
+	}
+
+	/**
+	 * Gets the sampler's latest snapshot if it is running, or else runs it for
+	 * one interval of {@code millis} milliseconds.
+	 */
+	public Snapshot current(final long millis) throws InterruptedException {
+		synchronized (this) {
+			if (holders > 0 && latest != null) return latest;
+		}
+		acquire(millis);
+		try {
+			return awaitNext();
+		}
+		finally {
+			release();
+		}
+	}
+
+	/** Samples all live threads, with deltas since the previous sample. */
+	private synchronized Snapshot sample() {
+		final long now = System.nanoTime();
+		final long interval = previousTime == 0 ? 0 : now - previousTime;
+		previousTime = now;
+
+		// full stacks, for the first frame; locked monitors are not needed
+		final ThreadInfo[] infos = threads.dumpAllThreads(false, false);
+		final Map<String, String> commandsByClass = commandsByClass();
+		final Map<Long, ThreadSample> current = new HashMap<>();
+		final List<ThreadSample> samples = new ArrayList<>();
+		for (final ThreadInfo info : infos) {
+			if (info == null) continue;
+			final long id = info.getThreadId();
+			final long cpu = threads.isThreadCpuTimeEnabled() ? threads
+				.getThreadCpuTime(id) : -1;
+			if (cpu == -1 && threads.isThreadCpuTimeEnabled()) continue; // died
+			// a pooled thread runs one task after another: look again every time
+			final boolean pooled = isPooled(info);
+			final String origin = pooled ? origin(info) : origins.computeIfAbsent(
+				id, k -> origin(info));
+			final ThreadSample sample = new ThreadSample(info, cpu, origin, pooled,
+				jarOf(origin), command(info.getThreadName(), origin,
+					commandsByClass), previous.get(id));
+			current.put(id, sample);
+			samples.add(sample);
+			if (sample.getState() == Thread.State.BLOCKED && sample
+				.getBlockedTimeDelta() > 0)
+			{
+				monitorTimes.merge(sample.getLockName(), sample.getBlockedTimeDelta(),
+					Long::sum);
+			}
+		}
+		previous.clear();
+		previous.putAll(current);
+		origins.keySet().retainAll(current.keySet());
+
+		final List<Map.Entry<String, Long>> monitors = new ArrayList<>(monitorTimes
+			.entrySet());
+		monitors.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		final long millis = System.currentTimeMillis();
+		final List<TaskSample> running = new ArrayList<>();
+		for (final BackgroundTasks.Task<?> task : tasks.getLiveTasks()) {
+			final Thread thread = task.getThread();
+			if (thread != null) running.add(new TaskSample(task, thread, millis));
+		}
+		latest = new Snapshot(interval, Runtime.getRuntime().availableProcessors(),
+			samples, monitors, running);
+		notifyAll();
+		return latest;
+	}
+
+	/** Forgets the monitor contention accrued so far. */
+	public synchronized void resetMonitors() {
+		monitorTimes.clear();
+	}
+
+	// -- Helper methods --
+
+	/** Finds the first class outside the JDK, from the bottom of the stack. */
+	private static String origin(final ThreadInfo info) {
+		final StackTraceElement[] stack = info.getStackTrace();
+		for (int i = stack.length - 1; i >= 0; i--) {
+			final String className = stack[i].getClassName();
+			if (!isPlatformClass(className)) return className;
+		}
+		return null;
+	}
+
+	/** Whether the thread is a worker of a thread pool or fork/join pool. */
+	private static boolean isPooled(final ThreadInfo info) {
+		for (final StackTraceElement element : info.getStackTrace()) {
+			final String className = element.getClassName();
+			if (className.equals("java.util.concurrent.ThreadPoolExecutor$Worker") ||
+				className.equals("java.util.concurrent.ForkJoinWorkerThread"))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isPlatformClass(final String name) {
+		return name.startsWith("java.") || name.startsWith("javax.") || name
+			.startsWith("jdk.") || name.startsWith("sun.") || name.startsWith(
+				"com.sun.");
+	}
+
+	private String jarOf(final String className) {
+		if (className == null) return null;
+		final String jar = jars.computeIfAbsent(className, name -> {
+			try {
+				final CodeSource source = Class.forName(name, false, IJ
+					.getClassLoader()).getProtectionDomain().getCodeSource();
+				if (source == null || source.getLocation() == null) return "";
+				return new File(source.getLocation().getPath()).getName();
+			}
+			catch (final ClassNotFoundException | LinkageError
+					| SecurityException exc)
+			{
+				return "";
+			}
+		});
+		return jar.isEmpty() ? null : jar;
+	}
+
+	private static String command(final String threadName, final String origin,
+		final Map<String, String> commandsByClass)
+	{
+		// ImageJ 1.x runs each command on a thread named after it
+		if (CommandTable.getAll().containsKey(threadName)) return threadName;
+		return origin == null ? null : commandsByClass.get(origin);
+	}
+
+	private static Map<String, String> commandsByClass() {
+		final Map<String, String> result = new HashMap<>();
+		for (final Map.Entry<String, String> entry : CommandTable.getAll()
+			.entrySet())
+		{
+			result.putIfAbsent(Prewarmer.className(entry.getValue()), entry
+				.getKey());
+		}
+		return result;
+	}
+
+	/** One sample of one thread. */
+	public static class ThreadSample {
+
+		private final long id;
+		private final String name;
+		private final Thread.State state;
+		private final String lockName;
+		private final String lockOwner;
+		private final String origin;
+		private final boolean pooled;
+		private final String jar;
+		private final String command;
+		private final long cpuTime;
+		private final long cpuTimeDelta;
+		private final long blockedCount;
+		private final long blockedCountDelta;
+		private final long blockedTime;
+		private final long blockedTimeDelta;
+		private final long waitedCount;
+		private final long waitedCountDelta;
+		private final long waitedTime;
+		private final long waitedTimeDelta;
+
+		private ThreadSample(final ThreadInfo info, final long cpuTime,
+			final String origin, final boolean pooled, final String jar,
+			final String command, final ThreadSample before)
+		{
+			id = info.getThreadId();
+			name = info.getThreadName();
+			state = info.getThreadState();
+			lockName = info.getLockName();
+			lockOwner = info.getLockOwnerName();
+			this.origin = origin;
+			this.pooled = pooled;
+			this.jar = jar;
+			this.command = command;
+			this.cpuTime = cpuTime;
+			blockedCount = info.getBlockedCount();
+			blockedTime = info.getBlockedTime();
+			waitedCount = info.getWaitedCount();
+			waitedTime = info.getWaitedTime();
+			cpuTimeDelta = delta(cpuTime, before == null ? -1 : before.cpuTime);
+			blockedCountDelta = delta(blockedCount, before == null ? -1
+				: before.blockedCount);
+			blockedTimeDelta = delta(blockedTime, before == null ? -1
+				: before.blockedTime);
+			waitedCountDelta = delta(waitedCount, before == null ? -1
+				: before.waitedCount);
+			waitedTimeDelta = delta(waitedTime, before == null ? -1
+				: before.waitedTime);
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Thread.State getState() {
+			return state;
+		}
+
+		/** Gets the monitor or lock the thread is blocked on or waiting for. */
+		public String getLockName() {
+			return lockName;
+		}
+
+		public String getLockOwner() {
+			return lockOwner;
+		}
+
+		/**
+		 * Gets the first class outside the JDK on the thread's stack. For a
+		 * {@link #isPooled() pooled} thread, this is the task it is running, not
+		 * the code which created the pool.
+		 */
+		public String getOrigin() {
+			return origin;
+		}
+
+		/** Whether the thread is a worker of a thread pool. */
+		public boolean isPooled() {
+			return pooled;
+		}
+
+		/** Gets the JAR the {@link #getOrigin() origin} class comes from. */
+		public String getJar() {
+			return jar;
+		}
+
+		/** Gets the ImageJ 1.x command the thread belongs to, if known. */
+		public String getCommand() {
+			return command;
+		}
+
+		/** Gets the CPU time in nanoseconds, or -1 if not supported. */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+
+		/** Gets the CPU time since the previous sample, in nanoseconds. */
+		public long getCpuTimeDelta() {
+			return cpuTimeDelta;
+		}
+
+		public long getBlockedCount() {
+			return blockedCount;
+		}
+
+		public long getBlockedCountDelta() {
+			return blockedCountDelta;
+		}
+
+		/** Gets the time blocked on monitors in milliseconds, or -1. */
+		public long getBlockedTime() {
+			return blockedTime;
+		}
+
+		public long getBlockedTimeDelta() {
+			return blockedTimeDelta;
+		}
+
+		public long getWaitedCount() {
+			return waitedCount;
+		}
+
+		public long getWaitedCountDelta() {
+			return waitedCountDelta;
+		}
+
+		/** Gets the time spent waiting in milliseconds, or -1. */
+		public long getWaitedTime() {
+			return waitedTime;
+		}
+
+		public long getWaitedTimeDelta() {
+			return waitedTimeDelta;
+		}
+
+		/** Gets the value since the previous sample, or the total if new. */
+		private static long delta(final long value, final long before) {
+			if (value < 0) return -1;
+			return before < 0 ? value : value - before;
+		}
+	}
+
+	/** One running background task. */
+	public static class TaskSample {
+
+		private final String name;
+		private final Thread.State state;
+		private final boolean virtual;
+		private final long runningMillis;
+
+		private TaskSample(final BackgroundTasks.Task<?> task, final Thread thread,
+			final long now)
+		{
+			name = task.getName();
+			state = thread.getState();
+			virtual = thread.isVirtual();
+			runningMillis = now - task.getStartTime();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Thread.State getState() {
+			return state;
+		}
+
+		/**
+		 * Whether the task runs on a virtual thread, which is missing from
+		 * {@link Snapshot#getThreads()}.
+		 */
+		public boolean isVirtual() {
+			return virtual;
+		}
+
+		/** Gets how long the task has been running, in milliseconds. */
+		public long getRunningMillis() {
+			return runningMillis;
+		}
+	}
+
+	/** The samples of all threads at one point in time. */
+	public static class Snapshot {
+
+		private final long timestamp = System.currentTimeMillis();
+		private final long interval;
+		private final int processors;
+		private final List<ThreadSample> threads;
+		private final List<Map.Entry<String, Long>> monitors;
+		private final List<TaskSample> tasks;
+
+		private Snapshot(final long interval, final int processors,
+			final List<ThreadSample> threads,
+			final List<Map.Entry<String, Long>> monitors,
+			final List<TaskSample> tasks)
+		{
+			this.interval = interval;
+			this.processors = processors;
+			this.threads = Collections.unmodifiableList(threads);
+			this.monitors = Collections.unmodifiableList(monitors);
+			this.tasks = Collections.unmodifiableList(tasks);
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/** Gets the nanoseconds since the previous sample, or 0 if first. */
+		public long getInterval() {
+			return interval;
+		}
+
+		/** Gets the platform threads; virtual threads are not included. */
+		public List<ThreadSample> getThreads() {
+			return threads;
+		}
+
+		/** Gets the background tasks which were running, oldest first. */
+		public List<TaskSample> getTasks() {
+			return tasks;
+		}
+
+		/**
+		 * Gets the share of one processor a thread used since the previous
+		 * sample, in percent, or -1 if unknown.
+		 */
+		public double getCpuPercent(final ThreadSample sample) {
+			if (interval == 0 || sample.getCpuTimeDelta() < 0) return -1;
+			return 100.0 * sample.getCpuTimeDelta() / interval;
+		}
+
+		/**
+		 * Gets how many processors' worth of CPU time all threads used since the
+		 * previous sample; more runnable threads than {@link #getProcessors()}
+		 * means the machine is oversubscribed.
+		 */
+		public double getLoad() {
+			if (interval == 0) return 0;
+			long cpu = 0;
+			for (final ThreadSample sample : threads) {
+				if (sample.getCpuTimeDelta() > 0) cpu += sample.getCpuTimeDelta();
+			}
+			return (double) cpu / interval;
+		}
+
+		public int getProcessors() {
+			return processors;
+		}
+
+		/** Counts the threads which are runnable. */
+		public int getRunnableCount() {
+			int count = 0;
+			for (final ThreadSample sample : threads) {
+				if (sample.getState() == Thread.State.RUNNABLE) count++;
+			}
+			return count;
+		}
+
+		/**
+		 * Gets the monitors threads were blocked on, by accrued blocked time in
+		 * milliseconds, most contended first.
+		 */
+		public List<Map.Entry<String, Long>> getContendedMonitors() {
+			return monitors;
+		}
+
+		/**
+		 * Writes the snapshot to the given file: as JSON if its name ends in
+		 * {@code .json}, as tab-separated values otherwise.
+		 */
+		public void export(final File file) throws IOException {
+			final String text = file.getName().toLowerCase(Locale.ROOT).endsWith(
+				".json") ? toJSON() : toTSV();
+			final Path path = file.getAbsoluteFile().toPath();
+			if (path.getParent() != null) Files.createDirectories(path.getParent());
+			final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+			Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		public String toJSON() {
+			final StringBuilder json = new StringBuilder();
+			json.append("{\"timestamp\":").append(timestamp).append(
+				",\"intervalNanos\":").append(interval).append(",\"processors\":")
+				.append(processors).append(",\"threads\":[");
+			String separator = "";
+			for (final ThreadSample t : threads) {
+				json.append(separator).append("\n{\"id\":").append(t.getId());
+				appendJSON(json, "name", t.getName());
+				appendJSON(json, "state", t.getState().name());
+				appendJSON(json, "origin", t.getOrigin());
+				json.append(",\"pooled\":").append(t.isPooled());
+				appendJSON(json, "jar", t.getJar());
+				appendJSON(json, "command", t.getCommand());
+				json.append(",\"cpuNanos\":").append(t.getCpuTime());
+				json.append(",\"cpuNanosDelta\":").append(t.getCpuTimeDelta());
+				json.append(",\"blockedCount\":").append(t.getBlockedCount());
+				json.append(",\"blockedMillis\":").append(t.getBlockedTime());
+				json.append(",\"waitedCount\":").append(t.getWaitedCount());
+				json.append(",\"waitedMillis\":").append(t.getWaitedTime());
+				appendJSON(json, "lock", t.getLockName());
+				appendJSON(json, "lockOwner", t.getLockOwner());
+				json.append('}');
+				separator = ",";
+			}
+			json.append("\n],\"monitors\":[");
+			separator = "";
+			for (final Map.Entry<String, Long> monitor : monitors) {
+				json.append(separator).append("\n{\"lock\":").append(CommandStatistics
+					.quote(monitor.getKey())).append(",\"blockedMillis\":").append(
+						monitor.getValue()).append('}');
+				separator = ",";
+			}
+			json.append("\n],\"tasks\":[");
+			separator = "";
+			for (final TaskSample task : tasks) {
+				json.append(separator).append("\n{\"name\":").append(CommandStatistics
+					.quote(task.getName())).append(",\"state\":\"").append(task
+						.getState()).append("\",\"virtual\":").append(task.isVirtual())
+					.append(",\"runningMillis\":").append(task.getRunningMillis())
+					.append('}');
+				separator = ",";
+			}
+			return json.append("\n]}\n").toString();
+		}
+
+		public String toTSV() {
+			final StringBuilder text = new StringBuilder();
+			text.append("id\tname\tstate\tcpu%\tcpuMillis\tblockedCount\t" +
+				"blockedMillis\twaitedCount\twaitedMillis\tlock\tlockOwner\t" +
+				"origin\tjar\tcommand\tpooled\n");
+			for (final ThreadSample t : threads) {
+				text.append(t.getId()).append('\t').append(t.getName()).append('\t')
+					.append(t.getState()).append('\t').append(String.format(Locale.ROOT,
+						"%.1f", getCpuPercent(t))).append('\t').append(t.getCpuTime() /
+							1_000_000).append('\t').append(t.getBlockedCount()).append('\t')
+					.append(t.getBlockedTime()).append('\t').append(t.getWaitedCount())
+					.append('\t').append(t.getWaitedTime()).append('\t').append(orEmpty(t
+						.getLockName())).append('\t').append(orEmpty(t.getLockOwner()))
+					.append('\t').append(orEmpty(t.getOrigin())).append('\t').append(
+						orEmpty(t.getJar())).append('\t').append(orEmpty(t.getCommand()))
+					.append('\t').append(t.isPooled()).append('\n');
+			}
+			if (tasks.isEmpty()) return text.toString();
+			// virtual threads are missing above: list the tasks separately
+			text.append("\ntask\tstate\tvirtual\trunningMillis\n");
+			for (final TaskSample task : tasks) {
+				text.append(orEmpty(task.getName())).append('\t').append(task
+					.getState()).append('\t').append(task.isVirtual()).append('\t')
+					.append(task.getRunningMillis()).append('\n');
+			}
+			return text.toString();
+		}
+
+		private static void appendJSON(final StringBuilder json,
+			final String name, final String value)
+		{
+			json.append(",\"").append(name).append("\":").append(CommandStatistics
+				.quote(value));
+		}
+
+		private static String orEmpty(final String s) {
+			return s == null ? "" : s.replace('\t', ' ');
+		}
+	}
+}
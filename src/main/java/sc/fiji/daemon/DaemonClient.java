@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client forwarding a job to a running {@link FijiDaemon}.
+ * <p>
+ * The client sends its working directory and arguments, copies the job's
+ * output to its own standard streams, and exits with the job's exit code. If
+ * no daemon is listening, the job is run in this JVM instead, unless
+ * {@code --no-fallback} is given. Once the request has been sent, the job is
+ * never run a second time: if the connection breaks, the client reports that
+ * and exits with {@link DaemonProtocol#EXIT_FAILURE}.
+ * </p>
+ * <p>
+ * {@code --daemon-ping} checks whether a daemon is listening, and
+ * {@code --daemon-stop} asks it to shut down once its jobs are done.
+ * </p>
+ */
+public final class DaemonClient {
+
+	private DaemonClient() {
+		// Prevent instantiation of utility class.
+	}
+
+	/**
+	 * Sends one request to the daemon listening on the given socket, copying
+	 * the job's output to the given streams.
+	 *
+	 * @return the job's exit code
+	 * @throws ConnectException if no daemon is listening; the request was not
+	 *           sent
+	 * @throws IOException if the connection broke after the request was sent
+	 */
+	public static int send(final Path socket, final byte op,
+		final List<String> args, final PrintStream stdout,
+		final PrintStream stderr) throws IOException
+	{
+		final SocketChannel connection;
+		try {
+			connection = DaemonProtocol.connect(socket);
+		}
+		catch (final IOException exc) {
+			if (exc instanceof ConnectException) throw exc;
+			final ConnectException wrapped = new ConnectException(exc.getMessage());
+			wrapped.initCause(exc);
+			throw wrapped;
+		}
+		try (final SocketChannel channel = connection) {
+			final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Channels.newOutputStream(channel)));
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel)));
+			DaemonProtocol.writeRequest(out, op, System.getProperty("user.dir"),
+				args.toArray(new String[args.size()]));
+			byte[] buffer = new byte[8192];
+			while (true) {
+				final byte type = in.readByte();
+				final int length = in.readInt();
+				if (type == DaemonProtocol.FRAME_EXIT) return in.readInt();
+				if (length > buffer.length) buffer = new byte[length];
+				in.readFully(buffer, 0, length);
+				final PrintStream target = type == DaemonProtocol.FRAME_STDERR ?
+					stderr : stdout;
+				target.write(buffer, 0, length);
+				target.flush();
+			}
+		}
+	}
+
+	// -- Main method --
+
+	public static void main(final String[] args) throws Exception {
+		Path socket = DaemonProtocol.defaultSocket("daemon");
+		byte op = DaemonProtocol.OP_JOB;
+		boolean fallback = true;
+		final List<String> jobArgs = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			if ("--socket".equals(arg) && i + 1 < args.length) {
+				socket = Paths.get(args[++i]);
+			}
+			else if ("--daemon-ping".equals(arg)) op = DaemonProtocol.OP_PING;
+			else if ("--daemon-stop".equals(arg)) op = DaemonProtocol.OP_STOP;
+			else if ("--no-fallback".equals(arg)) fallback = false;
+			else if (!"--daemon-client".equals(arg)) jobArgs.add(arg);
+		}
+
+		final int exitCode;
+		try {
+			exitCode = send(socket, op, jobArgs, System.out, System.err);
+		}
+		catch (final ConnectException exc) {
+			if (!fallback || op != DaemonProtocol.OP_JOB) {
+				System.err.println("No Fiji daemon listening on " + socket + ": " +
+					exc.getMessage());
+				System.exit(DaemonProtocol.EXIT_FAILURE);
+				return;
+			}
+			// No daemon: run the job the regular, slow way.
+			sc.fiji.Main.main(jobArgs.toArray(new String[jobArgs.size()]));
+			return;
+		}
+		catch (final IOException exc) {
+			// The daemon may already have started the job; do not run it twice.
+			System.err.println("Lost the connection to the Fiji daemon on " +
+				socket + ": " + exc.getMessage());
+			System.exit(DaemonProtocol.EXIT_FAILURE);
+			return;
+		}
+		System.exit(exitCode);
+	}
+}
@@ -0,0 +1,222 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+
+/**
+ * The wire format spoken between {@link FijiDaemon} and {@link DaemonClient}.
+ * <p>
+ * A client opens a Unix domain socket connection and sends one request: the
+ * protocol {@link #VERSION}, an operation code, its working directory and its
+ * arguments, the latter as strings in the format of {@link #writeString}. For {@link #OP_JOB}, the daemon answers with a sequence of frames,
+ * each consisting of a frame type byte followed by a length-prefixed payload.
+ * The last frame is always {@link #FRAME_EXIT}, carrying the job's exit code.
+ * </p>
+ * <p>
+ * The {@link InstanceEndpoint} of a running Fiji speaks the same protocol.
+ * </p>
+ */
+public final class DaemonProtocol {
+
+	public static final int VERSION = 2;
+
+	/** Runs the given arguments as a job. */
+	public static final byte OP_JOB = 1;
+	/** Checks whether the daemon is alive; answered by an exit frame. */
+	public static final byte OP_PING = 2;
+	/** Asks the daemon to shut down once running jobs have finished. */
+	public static final byte OP_STOP = 3;
+	/**
+	 * Hands launch arguments to a running Fiji instance; answered by an exit
+	 * frame, see {@link InstanceEndpoint}.
+	 */
+	public static final byte OP_FORWARD = 4;
+
+	public static final byte FRAME_STDOUT = 1;
+	public static final byte FRAME_STDERR = 2;
+	public static final byte FRAME_EXIT = 3;
+
+	/** Exit code reported when a job fails with an exception. */
+	public static final int EXIT_FAILURE = 1;
+	/** Exit code reported for malformed requests. */
+	public static final int EXIT_USAGE = 2;
+
+	private DaemonProtocol() {
+		// Prevent instantiation of utility class.
+	}
+
+	/**
+	 * Gets the default location of a Fiji socket with the given name.
+	 * <p>
+	 * The socket lives in {@code $XDG_RUNTIME_DIR/fiji/} if that variable is
+	 * set, and in {@code fiji-<user>} below the temporary directory otherwise.
+	 * </p>
+	 */
+	public static Path defaultSocket(final String name) {
+		final String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+		final File dir = runtimeDir != null && !runtimeDir.isEmpty() ?
+			new File(runtimeDir, "fiji") :
+			new File(System.getProperty("java.io.tmpdir"),
+				"fiji-" + System.getProperty("user.name"));
+		return new File(dir, name + ".sock").toPath();
+	}
+
+	/**
+	 * Creates the parent directory of the given socket, readable only by the
+	 * current user, and removes a stale socket file left behind by a previous
+	 * instance.
+	 *
+	 * @throws IOException if the directory exists but is not private to the
+	 *           current user, see {@link #checkDirectory(Path)}
+	 */
+	public static void prepareSocket(final Path socket) throws IOException {
+		final Path dir = socket.toAbsolutePath().getParent();
+		if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+			Files.createDirectories(dir);
+			try {
+				Files.setPosixFilePermissions(dir,
+					PosixFilePermissions.fromString("rwx------"));
+			}
+			catch (final UnsupportedOperationException exc) {
+				// not a POSIX file system; nothing to restrict
+			}
+		}
+		checkDirectory(dir);
+		Files.deleteIfExists(socket);
+	}
+
+	/**
+	 * Verifies that a socket directory is a real directory owned by the current
+	 * user and accessible to nobody else. On a shared temporary directory,
+	 * another user could otherwise create {@code fiji-<user>} first, plant a
+	 * socket in it and receive the arguments of our jobs.
+	 */
+	static void checkDirectory(final Path dir) throws IOException {
+		final PosixFileAttributeView view = Files.getFileAttributeView(dir,
+			PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+		if (view == null) return; // not a POSIX file system
+		final PosixFileAttributes attributes = view.readAttributes();
+		final UserPrincipal user = dir.getFileSystem()
+			.getUserPrincipalLookupService().lookupPrincipalByName(System
+				.getProperty("user.name"));
+		if (!attributes.isDirectory() || !attributes.owner().equals(user) ||
+			!attributes.permissions().equals(EnumSet.of(
+				PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+				PosixFilePermission.OWNER_EXECUTE)))
+		{
+			throw new IOException("Refusing to use " + dir + ": it must be a " +
+				"directory owned by " + user.getName() + " with mode 0700, but is " +
+				(attributes.isDirectory() ? "" : "not a directory, ") + "owned by " +
+				attributes.owner().getName() + " with mode " + PosixFilePermissions
+					.toString(attributes.permissions()));
+		}
+	}
+
+	/**
+	 * Connects to the socket at the given path, after checking that its
+	 * directory is private to the current user.
+	 */
+	public static SocketChannel connect(final Path socket) throws IOException {
+		checkDirectory(socket.toAbsolutePath().getParent());
+		final SocketChannel channel =
+			SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.connect(UnixDomainSocketAddress.of(socket));
+		}
+		catch (final IOException exc) {
+			channel.close();
+			throw exc;
+		}
+		return channel;
+	}
+
+	public static void writeRequest(final DataOutputStream out, final byte op,
+		final String workingDirectory, final String... args) throws IOException
+	{
+		out.writeInt(VERSION);
+		out.writeByte(op);
+		writeString(out, workingDirectory);
+		out.writeInt(args.length);
+		for (final String arg : args)
+			writeString(out, arg);
+		out.flush();
+	}
+
+	public static void writeFrame(final DataOutputStream out, final byte type,
+		final byte[] buffer, final int offset, final int length)
+		throws IOException
+	{
+		synchronized (out) {
+			out.writeByte(type);
+			out.writeInt(length);
+			out.write(buffer, offset, length);
+			out.flush();
+		}
+	}
+
+	public static void writeExit(final DataOutputStream out, final int code)
+		throws IOException
+	{
+		synchronized (out) {
+			out.writeByte(FRAME_EXIT);
+			out.writeInt(4);
+			out.writeInt(code);
+			out.flush();
+		}
+	}
+
+	/** Reads a length-prefixed string that may exceed 64 kB. */
+	public static String readString(final DataInputStream in)
+		throws IOException
+	{
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** Writes a string in the format understood by {@link #readString}. */
+	public static void writeString(final DataOutputStream out, final String s)
+		throws IOException
+	{
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
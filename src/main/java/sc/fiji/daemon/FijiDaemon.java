@@ -0,0 +1,458 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptException;
+
+import net.imagej.ImageJ;
+import net.imagej.patcher.LegacyInjector;
+
+import org.scijava.Cancelable;
+import org.scijava.Context;
+import org.scijava.command.CommandInfo;
+import org.scijava.command.CommandService;
+import org.scijava.console.ConsoleService;
+import org.scijava.convert.ConvertService;
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.ModuleInfo;
+import org.scijava.module.ModuleItem;
+import org.scijava.module.ModuleRunner;
+import org.scijava.module.ModuleService;
+import org.scijava.module.process.PostprocessorPlugin;
+import org.scijava.module.process.PreprocessorPlugin;
+import org.scijava.plugin.PluginService;
+import org.scijava.script.ScriptInfo;
+import org.scijava.script.ScriptService;
+
+import sc.fiji.compat.ScriptCacheService;
+
+/**
+ * A long-lived headless Fiji serving jobs over a Unix domain socket.
+ * <p>
+ * Batch pipelines which run many short jobs spend most of their time starting
+ * the JVM and the SciJava context. The daemon pays that price once: it keeps
+ * one headless context alive and runs each job the {@link DaemonClient}
+ * forwards to it, streaming the job's standard output and error back to the
+ * client and finishing with the job's exit code.
+ * </p>
+ * <p>
+ * Jobs understand the same arguments as a regular headless launch:
+ * {@code --run <script-or-command> [<inputs>]}, {@code -macro},
+ * {@code -batch} and {@code -eval} are handled by the daemon itself, all other
+ * arguments are passed to the {@link ConsoleService}. At most
+ * {@code --max-jobs} jobs run concurrently; further clients wait for a free
+ * slot. Scripts without parameters are compiled only once, by the
+ * {@link ScriptCacheService}, however many jobs run them.
+ * </p>
+ * <p>
+ * All jobs share one context, so per-job state is isolated on a best-effort
+ * basis: each job's standard streams go to its own client (scripts and
+ * commands run on the job's own thread for that reason, rather than on the
+ * shared {@code ThreadService} pool), and ImageJ 1.x
+ * images left open by jobs are closed whenever the daemon becomes idle.
+ * Macros relying on ImageJ 1.x's notion of the current image should therefore
+ * be run with {@code --max-jobs 1}.
+ * </p>
+ */
+public class FijiDaemon {
+
+	private final Context context;
+	private final LogService log;
+	private final Path socket;
+	private final int maxJobs;
+	private final Semaphore slots;
+	private final AtomicInteger activeJobs = new AtomicInteger();
+	private final ExecutorService connections;
+
+	private ServerSocketChannel server;
+	private volatile boolean stopping;
+	private Set<Integer> idleImageIDs = new HashSet<>();
+
+	public FijiDaemon(final Context context, final Path socket,
+		final int maxJobs)
+	{
+		if (maxJobs < 1) throw new IllegalArgumentException(
+			"Need at least one job slot: " + maxJobs);
+		this.context = context;
+		this.log = context.service(LogService.class);
+		this.socket = socket;
+		this.maxJobs = maxJobs;
+		slots = new Semaphore(maxJobs, true);
+		final AtomicInteger counter = new AtomicInteger();
+		connections = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r, "fiji-daemon-" + counter
+				.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Accepts connections until a client asks the daemon to stop, then waits
+	 * for running jobs to finish.
+	 */
+	public void serve() throws IOException {
+		JobOutput.install();
+		DaemonProtocol.prepareSocket(socket);
+		try (final ServerSocketChannel channel = ServerSocketChannel.open(
+			StandardProtocolFamily.UNIX))
+		{
+			channel.bind(UnixDomainSocketAddress.of(socket));
+			synchronized (this) {
+				server = channel;
+			}
+			log.info("Fiji daemon listening on " + socket + " (" + maxJobs +
+				" concurrent jobs)");
+			while (!stopping) {
+				final SocketChannel client;
+				try {
+					client = channel.accept();
+				}
+				catch (final AsynchronousCloseException exc) {
+					break;
+				}
+				connections.execute(() -> handle(client));
+			}
+		}
+		finally {
+			slots.acquireUninterruptibly(maxJobs);
+			connections.shutdown();
+			Files.deleteIfExists(socket);
+		}
+	}
+
+	/** Stops accepting connections; running jobs are allowed to finish. */
+	public synchronized void stop() {
+		stopping = true;
+		if (server != null) try {
+			server.close();
+		}
+		catch (final IOException exc) {
+			log.debug(exc);
+		}
+	}
+
+	private void handle(final SocketChannel channel) {
+		try (final SocketChannel c = channel) {
+			final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Channels.newInputStream(c)));
+			final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Channels.newOutputStream(c)));
+			// other versions may lay out the rest differently: do not read it
+			if (in.readInt() != DaemonProtocol.VERSION) {
+				DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_USAGE);
+				return;
+			}
+			final byte op = in.readByte();
+			final String cwd = DaemonProtocol.readString(in);
+			final String[] args = new String[in.readInt()];
+			for (int i = 0; i < args.length; i++)
+				args[i] = DaemonProtocol.readString(in);
+			switch (op) {
+				case DaemonProtocol.OP_PING:
+					DaemonProtocol.writeExit(out, 0);
+					break;
+				case DaemonProtocol.OP_STOP:
+					DaemonProtocol.writeExit(out, 0);
+					stop();
+					break;
+				case DaemonProtocol.OP_JOB:
+					DaemonProtocol.writeExit(out, runJob(out, cwd, args));
+					break;
+				default:
+					DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_USAGE);
+			}
+		}
+		catch (final IOException exc) {
+			log.debug("Lost daemon client", exc);
+		}
+	}
+
+	private int runJob(final DataOutputStream out, final String cwd,
+		final String[] args)
+	{
+		slots.acquireUninterruptibly();
+		try {
+			beginJob();
+			JobOutput.attach(out);
+			try {
+				return run(cwd, args);
+			}
+			catch (final Throwable t) {
+				t.printStackTrace();
+				return DaemonProtocol.EXIT_FAILURE;
+			}
+			finally {
+				JobOutput.detach();
+				endJob();
+			}
+		}
+		finally {
+			slots.release();
+		}
+	}
+
+	private int run(final String cwd, final String[] args) throws Exception {
+		final List<String> list = new ArrayList<>(Arrays.asList(args));
+		list.remove("--daemon-client");
+		list.remove("--headless");
+		list.remove("--allow-multiple");
+		if (list.isEmpty()) {
+			System.err.println("Nothing to do");
+			return DaemonProtocol.EXIT_USAGE;
+		}
+		final String first = list.get(0);
+		final String target = list.size() > 1 ? list.get(1) : null;
+		final String arg = list.size() > 2 ? list.get(2) : null;
+		switch (first) {
+			case "--run":
+				if (target == null) break;
+				return runModule(cwd, target, arg);
+			case "-macro":
+			case "-batch":
+				if (target == null) break;
+				return runMacro(resolve(cwd, target).getPath(), arg, false);
+			case "-eval":
+				if (target == null) break;
+				return runMacro(target, null, true);
+			default:
+				context.service(ConsoleService.class).processArgs(list.toArray(
+					new String[list.size()]));
+				return 0;
+		}
+		System.err.println("Missing argument for " + first);
+		return DaemonProtocol.EXIT_USAGE;
+	}
+
+	/**
+	 * Runs a script or command synchronously on the calling thread, like
+	 * {@link ModuleService#run(ModuleInfo, boolean, Map)} would on a pooled
+	 * thread, so that its output is routed to this job's client.
+	 */
+	private int runModule(final String cwd, final String target,
+		final String arg) throws IOException, ScriptException
+	{
+		final File file = resolve(cwd, target);
+		final ModuleInfo info;
+		if (file.exists()) {
+			final ScriptInfo script = context.service(ScriptService.class)
+				.getScript(file);
+			info = script != null ? script : new ScriptInfo(context, file);
+			if (!info.inputs().iterator().hasNext()) return runCompiled(file, arg);
+		}
+		else {
+			info = findCommand(target);
+			if (info == null) {
+				System.err.println("No such script or command: " + target);
+				return DaemonProtocol.EXIT_USAGE;
+			}
+		}
+		final Module module = context.service(ModuleService.class).createModule(
+			info);
+		if (module == null) {
+			System.err.println("Could not instantiate " + target);
+			return DaemonProtocol.EXIT_FAILURE;
+		}
+		final ConvertService convert = context.service(ConvertService.class);
+		for (final Map.Entry<String, Object> entry : parseInputs(arg)
+			.entrySet())
+		{
+			final ModuleItem<?> input = info.getInput(entry.getKey());
+			if (input == null) {
+				System.err.println("Ignoring unknown input: " + entry.getKey());
+				continue;
+			}
+			module.setInput(entry.getKey(), convert.convert(entry.getValue(), input
+				.getType()));
+			module.resolveInput(entry.getKey());
+		}
+		final PluginService plugins = context.service(PluginService.class);
+		new ModuleRunner(context, module, plugins.createInstancesOfType(
+			PreprocessorPlugin.class), plugins.createInstancesOfType(
+				PostprocessorPlugin.class)).run();
+		if (module instanceof Cancelable && ((Cancelable) module).isCanceled()) {
+			System.err.println("Canceled: " + ((Cancelable) module)
+				.getCancelReason());
+			return DaemonProtocol.EXIT_FAILURE;
+		}
+		return 0;
+	}
+
+	/**
+	 * Runs a script which declares no parameters through the
+	 * {@link ScriptCacheService}, so that pipelines running the same script for
+	 * every job compile it only once. Inputs are passed as string bindings.
+	 */
+	private int runCompiled(final File file, final String arg)
+		throws IOException, ScriptException
+	{
+		context.service(ScriptCacheService.class).run(file, parseInputs(arg));
+		return 0;
+	}
+
+	private CommandInfo findCommand(final String target) {
+		final CommandService commandService =
+			context.service(CommandService.class);
+		final CommandInfo info = commandService.getCommand(target);
+		if (info != null) return info;
+		for (final CommandInfo command : commandService.getCommands()) {
+			if (target.equals(command.getTitle())) return command;
+		}
+		return null;
+	}
+
+	private int runMacro(final String macro, final String arg,
+		final boolean isCode)
+	{
+		final String result = isCode ? IJ.runMacro(macro) : IJ.runMacroFile(
+			macro, arg);
+		return "[aborted]".equals(result) ? DaemonProtocol.EXIT_FAILURE : 0;
+	}
+
+	private synchronized void beginJob() {
+		if (activeJobs.getAndIncrement() == 0) idleImageIDs = imageIDs();
+	}
+
+	/**
+	 * Closes the ImageJ 1.x images opened since the daemon was last idle. Jobs
+	 * running concurrently share ImageJ 1.x's image list, so this can only be
+	 * done once the last of them has finished.
+	 */
+	private synchronized void endJob() {
+		if (activeJobs.decrementAndGet() > 0) return;
+		for (final int id : imageIDs()) {
+			if (idleImageIDs.contains(id)) continue;
+			final ImagePlus imp = WindowManager.getImage(id);
+			if (imp == null) continue;
+			imp.changes = false;
+			imp.close();
+		}
+	}
+
+	private static Set<Integer> imageIDs() {
+		final Set<Integer> ids = new HashSet<>();
+		final int[] list = WindowManager.getIDList();
+		if (list != null) for (final int id : list)
+			ids.add(id);
+		return ids;
+	}
+
+	private static File resolve(final String cwd, final String path) {
+		final File file = new File(path);
+		return file.isAbsolute() ? file : new File(cwd, path);
+	}
+
+	/**
+	 * Parses inputs of the form {@code key1=value1,key2='value, 2'}, as
+	 * understood by {@code --run}.
+	 */
+	static Map<String, Object> parseInputs(final String arg) {
+		final Map<String, Object> inputs = new LinkedHashMap<>();
+		if (arg == null || arg.isEmpty()) return inputs;
+		final StringBuilder key = new StringBuilder();
+		final StringBuilder value = new StringBuilder();
+		StringBuilder current = key;
+		char quote = 0;
+		for (int i = 0; i <= arg.length(); i++) {
+			final char c = i < arg.length() ? arg.charAt(i) : ',';
+			if (quote != 0) {
+				if (c == quote) quote = 0;
+				else current.append(c);
+			}
+			else if (c == '\'' || c == '"') quote = c;
+			else if (c == '=' && current == key) current = value;
+			else if (c == ',') {
+				if (key.length() > 0) inputs.put(key.toString().trim(), value
+					.toString());
+				key.setLength(0);
+				value.setLength(0);
+				current = key;
+			}
+			else current.append(c);
+		}
+		return inputs;
+	}
+
+	// -- Main method --
+
+	public static void main(final String[] args) throws IOException {
+		LegacyInjector.preinit();
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		Path socket = DaemonProtocol.defaultSocket("daemon");
+		int maxJobs = Integer.getInteger("fiji.daemon.max-jobs", Runtime
+			.getRuntime().availableProcessors());
+		for (int i = 0; i < args.length; i++) {
+			if ("--socket".equals(args[i]) && i + 1 < args.length) {
+				socket = Paths.get(args[++i]);
+			}
+			else if ("--max-jobs".equals(args[i]) && i + 1 < args.length) {
+				maxJobs = Integer.parseInt(args[++i]);
+			}
+		}
+
+		final ImageJ ij = new ImageJ();
+		ij.ui().setHeadless(true);
+		try {
+			new FijiDaemon(ij.context(), socket, maxJobs).serve();
+		}
+		finally {
+			ij.dispose();
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,319 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import ij.IJ;
+import ij.ImageJ;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.scijava.Context;
+import org.scijava.console.ConsoleService;
+import org.scijava.log.LogService;
+
+import sc.fiji.compat.BackgroundTasks;
+import sc.fiji.compat.FijiTools;
+
+/**
+ * Lets launches hand their files to an already running Fiji.
+ * <p>
+ * A Fiji with a user interface listens on the Unix domain socket
+ * {@code instance.sock} (see {@link DaemonProtocol#defaultSocket}) for
+ * {@link DaemonProtocol#OP_FORWARD} requests. The arguments understood are
+ * files to open, optionally preceded by {@code --open}, {@code --run
+ * <script-or-command> [<arg>]} and {@code --edit [<file>...]}; relative paths
+ * are resolved against the client's working directory. Without arguments, the
+ * instance is merely brought to the front.
+ * </p>
+ * <p>
+ * The request is answered as soon as it is queued, with exit code 0. Any other
+ * argument needs a new Fiji, which is signalled by
+ * {@link DaemonProtocol#EXIT_USAGE}; nothing is done then, and the client is
+ * expected to launch Fiji normally, as it does when nobody is listening.
+ * {@code config/fiji-remote.py} is such a client, lightweight enough to be
+ * started for each file a user double-clicks.
+ * </p>
+ */
+public class InstanceEndpoint implements Runnable {
+
+	/** The name of the socket, in the directory of the daemon's socket. */
+	public static final String SOCKET_NAME = "instance";
+
+	private final Context context;
+	private final Path socket;
+	private final LogService log;
+	private final BackgroundTasks tasks;
+
+	public InstanceEndpoint(final Context context, final Path socket,
+		final BackgroundTasks tasks)
+	{
+		this.context = context;
+		this.socket = socket;
+		this.log = context.service(LogService.class);
+		this.tasks = tasks;
+	}
+
+	/**
+	 * Starts listening as a background task, unless another Fiji listens
+	 * already; shutting down the tasks stops it.
+	 */
+	public static void start(final Context context,
+		final BackgroundTasks tasks)
+	{
+		final Path socket = DaemonProtocol.defaultSocket(SOCKET_NAME);
+		if (isListening(socket)) return;
+		tasks.run("Fiji instance endpoint", new InstanceEndpoint(context, socket,
+			tasks));
+	}
+
+	/** Checks whether a Fiji answers on the given socket. */
+	public static boolean isListening(final Path socket) {
+		if (!Files.exists(socket)) return false;
+		try {
+			return forward(socket, DaemonProtocol.OP_PING, new ArrayList<>(),
+				System.getProperty("user.dir")) == 0;
+		}
+		catch (final IOException exc) {
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a request to the Fiji listening on the given socket.
+	 *
+	 * @return the exit code: 0 when the request was accepted
+	 * @throws IOException if no Fiji is listening
+	 */
+	public static int forward(final Path socket, final byte op,
+		final List<String> args, final String cwd) throws IOException
+	{
+		try (final SocketChannel channel = DaemonProtocol.connect(socket)) {
+			final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Channels.newOutputStream(channel)));
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel)));
+			DaemonProtocol.writeRequest(out, op, cwd, args.toArray(
+				new String[args.size()]));
+			if (in.readByte() != DaemonProtocol.FRAME_EXIT) {
+				throw new IOException("Unexpected answer from " + socket);
+			}
+			in.readInt();
+			return in.readInt();
+		}
+	}
+
+	@Override
+	public void run() {
+		// one request after the other, so that files open in the order given
+		final ExecutorService queue = Executors.newSingleThreadExecutor(r -> {
+			final Thread thread = new Thread(r, "Fiji instance requests");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try (final ServerSocketChannel server = ServerSocketChannel.open(
+			StandardProtocolFamily.UNIX))
+		{
+			DaemonProtocol.prepareSocket(socket);
+			server.bind(UnixDomainSocketAddress.of(socket));
+			log.debug("Accepting launch requests on " + socket);
+			while (true) {
+				try (final SocketChannel client = server.accept()) {
+					handle(client, queue);
+				}
+				catch (final ClosedByInterruptException exc) {
+					throw exc;
+				}
+				catch (final IOException exc) {
+					log.debug("Lost launch request", exc);
+				}
+			}
+		}
+		catch (final ClosedByInterruptException exc) {
+			// stopped
+		}
+		catch (final IOException | UnsupportedOperationException exc) {
+			log.debug("Cannot accept launch requests on " + socket, exc);
+		}
+		finally {
+			queue.shutdownNow();
+			try {
+				Files.deleteIfExists(socket);
+			}
+			catch (final IOException exc) {
+				log.debug(exc);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private void handle(final SocketChannel channel,
+		final ExecutorService queue) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+			Channels.newInputStream(channel)));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Channels.newOutputStream(channel)));
+		// other versions may lay out the rest differently: do not read it
+		if (in.readInt() != DaemonProtocol.VERSION) {
+			DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_USAGE);
+			return;
+		}
+		final byte op = in.readByte();
+		final String cwd = DaemonProtocol.readString(in);
+		final String[] args = new String[in.readInt()];
+		for (int i = 0; i < args.length; i++)
+			args[i] = DaemonProtocol.readString(in);
+		if (op == DaemonProtocol.OP_PING) {
+			DaemonProtocol.writeExit(out, 0);
+			return;
+		}
+		final List<Request> requests = op == DaemonProtocol.OP_FORWARD ? parse(
+			cwd, args) : null;
+		if (requests == null) {
+			DaemonProtocol.writeExit(out, DaemonProtocol.EXIT_USAGE);
+			return;
+		}
+		queue.execute(() -> {
+			for (final Request request : requests)
+				perform(request);
+			final ImageJ ij = IJ.getInstance();
+			if (ij != null) ij.toFront();
+		});
+		DaemonProtocol.writeExit(out, 0);
+	}
+
+	private void perform(final Request request) {
+		try {
+			switch (request.kind) {
+				case OPEN:
+					IJ.open(request.target);
+					break;
+				case EDIT:
+					if (request.target == null) FijiTools.openEditor("Untitled", "");
+					else FijiTools.openFijiEditor(new File(request.target));
+					break;
+				case RUN:
+					// as if given on the command line, but without blocking later
+					// requests
+					final String[] args = request.arg == null ? new String[] { "--run",
+						request.target } : new String[] { "--run", request.target,
+							request.arg };
+					tasks.run("--run " + request.target, () -> context.service(
+						ConsoleService.class).processArgs(args));
+					break;
+			}
+		}
+		catch (final RuntimeException exc) {
+			log.error("Could not handle " + request, exc);
+		}
+	}
+
+	/**
+	 * Parses launch arguments into the requests a running instance can handle.
+	 *
+	 * @return the requests, or null if an argument needs a new Fiji
+	 */
+	static List<Request> parse(final String cwd, final String[] args) {
+		final List<Request> requests = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			final String arg = args[i];
+			switch (arg) {
+				case "--no-splash":
+					break;
+				case "--open":
+				case "-open":
+					if (++i == args.length) return null;
+					requests.add(new Request(Kind.OPEN, resolve(cwd, args[i]), null));
+					break;
+				case "--run":
+					if (++i == args.length) return null;
+					final String target = args[i];
+					final File file = new File(resolve(cwd, target));
+					final String runArg = i + 1 < args.length && !args[i + 1].startsWith(
+						"-") ? args[++i] : null;
+					requests.add(new Request(Kind.RUN, file.exists() ? file.getPath()
+						: target, runArg));
+					break;
+				case "--edit":
+					boolean any = false;
+					while (i + 1 < args.length && !args[i + 1].startsWith("-")) {
+						requests.add(new Request(Kind.EDIT, resolve(cwd, args[++i]),
+							null));
+						any = true;
+					}
+					if (!any) requests.add(new Request(Kind.EDIT, null, null));
+					break;
+				default:
+					if (arg.startsWith("-")) return null;
+					requests.add(new Request(Kind.OPEN, resolve(cwd, arg), null));
+			}
+		}
+		return requests;
+	}
+
+	private static String resolve(final String cwd, final String path) {
+		if (path.indexOf("://") >= 0) return path;
+		final File file = new File(path);
+		return (file.isAbsolute() ? file : new File(cwd, path)).getPath();
+	}
+
+	enum Kind {
+			OPEN, RUN, EDIT
+	}
+
+	static class Request {
+
+		final Kind kind;
+		final String target;
+		final String arg;
+
+		Request(final Kind kind, final String target, final String arg) {
+			this.kind = kind;
+			this.target = target;
+			this.arg = arg;
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + target + (arg == null ? "" : " " + arg);
+		}
+	}
+}
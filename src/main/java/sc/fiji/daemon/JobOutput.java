@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Routes {@link System#out} and {@link System#err} to the client of the job
+ * running on the current thread.
+ * <p>
+ * The daemon runs several jobs in one JVM, so it cannot simply reassign the
+ * standard streams per job. Instead, {@link #install()} replaces them once
+ * with streams that consult a thread-local, which the daemon sets on the
+ * thread running the job for exactly as long as the job runs. Everything else
+ * goes to the original streams.
+ * </p>
+ * <p>
+ * The routing is deliberately not inherited: pooled threads outlive the job
+ * which happened to create them, and would otherwise keep writing to that
+ * job's client while serving other jobs. Output of threads a job starts itself
+ * therefore ends up in the daemon's console.
+ * </p>
+ */
+class JobOutput {
+
+	private static final ThreadLocal<DataOutputStream> client =
+		new ThreadLocal<>();
+
+	private static boolean installed;
+
+	private JobOutput() {
+		// Prevent instantiation of utility class.
+	}
+
+	static synchronized void install() {
+		if (installed) return;
+		System.setOut(new PrintStream(new Router(System.out,
+			DaemonProtocol.FRAME_STDOUT), true));
+		System.setErr(new PrintStream(new Router(System.err,
+			DaemonProtocol.FRAME_STDERR), true));
+		installed = true;
+	}
+
+	/** Sends the current thread's standard streams to the given client. */
+	static void attach(final DataOutputStream out) {
+		client.set(out);
+	}
+
+	static void detach() {
+		System.out.flush();
+		System.err.flush();
+		client.remove();
+	}
+
+	private static class Router extends OutputStream {
+
+		private final PrintStream fallback;
+		private final byte frameType;
+
+		private Router(final PrintStream fallback, final byte frameType) {
+			this.fallback = fallback;
+			this.frameType = frameType;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+			throws IOException
+		{
+			final DataOutputStream out = client.get();
+			if (out == null) {
+				fallback.write(b, off, len);
+				return;
+			}
+			try {
+				DaemonProtocol.writeFrame(out, frameType, b, off, len);
+			}
+			catch (final IOException exc) {
+				// the client went away; do not let that break the job
+				fallback.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() {
+			if (client.get() == null) fallback.flush();
+		}
+	}
+}
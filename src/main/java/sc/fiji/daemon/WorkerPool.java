@@ -0,0 +1,703 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a file of jobs on a pool of headless Fiji worker JVMs.
+ * <p>
+ * On a large workstation, a single JVM with a giant heap spends much of its
+ * time in garbage collection and allocation contention. The pool instead
+ * starts one {@link FijiDaemon} per NUMA node or group of cores, each with
+ * its share of the memory and, on Linux, bound to its cores with
+ * {@code numactl} or {@code taskset} when available. The coordinator feeds
+ * them jobs over their sockets, retries failed jobs, restarts crashed
+ * workers, and collects the results.
+ * </p>
+ * <p>
+ * The work queue is a text file with one job per line: the job's arguments,
+ * separated by tabs, as understood by the daemon (e.g.
+ * {@code --run<TAB>process.py<TAB>input='a.tif'}). Blank lines and lines
+ * starting with {@code #} are skipped. Each outcome is appended to
+ * {@code journal.tsv} in the results directory as soon as it is known, and
+ * jobs which succeeded there are skipped when the pool is run again, so an
+ * interrupted batch can simply be resumed. The output of each job goes to
+ * {@code job-<line>.log}; {@code results.tsv} and {@code workers.tsv}
+ * summarize the jobs and the per-worker metrics.
+ * </p>
+ */
+public class WorkerPool {
+
+	private final List<Job> jobs;
+	private final List<CoreGroup> groups;
+	private final int jobsPerWorker;
+	private final long heapMB;
+	private final int retries;
+	private final File resultsDir;
+	private final boolean pin;
+
+	private final LinkedBlockingDeque<Job> queue = new LinkedBlockingDeque<>();
+	private final AtomicInteger remaining = new AtomicInteger();
+	private final List<Worker> workers = new ArrayList<>();
+	private PrintWriter journal;
+
+	public WorkerPool(final List<Job> jobs, final List<CoreGroup> groups,
+		final int jobsPerWorker, final long heapMB, final int retries,
+		final File resultsDir, final boolean pin)
+	{
+		if (groups.isEmpty()) throw new IllegalArgumentException("No workers");
+		this.jobs = jobs;
+		this.groups = groups;
+		this.jobsPerWorker = Math.max(1, jobsPerWorker);
+		this.heapMB = heapMB;
+		this.retries = retries;
+		this.resultsDir = resultsDir;
+		this.pin = pin;
+	}
+
+	/**
+	 * Runs all jobs which have not yet succeeded according to the journal.
+	 *
+	 * @return whether all jobs succeeded
+	 */
+	public boolean run() throws IOException, InterruptedException {
+		if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+			throw new IOException("Could not create " + resultsDir);
+		}
+		final File journalFile = new File(resultsDir, "journal.tsv");
+		final Map<Integer, String[]> previous = readJournal(journalFile);
+		for (final Job job : jobs) {
+			final String[] entry = previous.get(job.line);
+			if (entry != null && "0".equals(entry[1])) {
+				job.exitCode = 0;
+				job.worker = entry[3];
+				job.millis = Long.parseLong(entry[4]);
+				continue;
+			}
+			queue.add(job);
+		}
+		remaining.set(queue.size());
+		log("%d of %d jobs to run on %d workers", queue.size(), jobs.size(),
+			groups.size());
+		if (queue.isEmpty()) return writeResults();
+
+		journal = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(
+			journalFile.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+			StandardOpenOption.APPEND)));
+		final Thread cleanup = new Thread(this::destroyWorkers,
+			"Fiji worker pool cleanup");
+		Runtime.getRuntime().addShutdownHook(cleanup);
+		final ExecutorService slots = Executors.newFixedThreadPool(groups.size() *
+			jobsPerWorker);
+		try {
+			for (int i = 0; i < groups.size(); i++) {
+				final Worker worker = new Worker(i, groups.get(i));
+				workers.add(worker);
+				// the first slot starts the worker, the others wait for it
+				for (int j = 0; j < jobsPerWorker; j++) {
+					slots.execute(() -> {
+						if (worker.restart()) feed(worker);
+					});
+				}
+			}
+			slots.shutdown();
+			while (!slots.awaitTermination(1, TimeUnit.MINUTES)) {
+				log("%d jobs remaining", remaining.get());
+			}
+			// all workers retired before the queue was done
+			for (Job job = queue.poll(); job != null; job = queue.poll()) {
+				job.exitCode = DaemonProtocol.EXIT_FAILURE;
+				record(job, "no worker left");
+			}
+		}
+		finally {
+			for (final Worker worker : workers)
+				worker.stop();
+			journal.close();
+			try {
+				Runtime.getRuntime().removeShutdownHook(cleanup);
+			}
+			catch (final IllegalStateException exc) {
+				// the JVM is already shutting down
+			}
+		}
+		return writeResults();
+	}
+
+	// -- Helper methods --
+
+	/** Sends jobs to the given worker until the queue is done. */
+	private void feed(final Worker worker) {
+		while (remaining.get() > 0 && !worker.retired) {
+			final Job job;
+			try {
+				job = queue.poll(200, TimeUnit.MILLISECONDS);
+			}
+			catch (final InterruptedException exc) {
+				return;
+			}
+			if (job == null) continue;
+			// a job taken while the worker is down does not count as an attempt
+			if (!worker.isAlive() && !worker.restart()) {
+				queue.addFirst(job);
+				return;
+			}
+			job.attempts++;
+			final long start = System.nanoTime();
+			int exitCode;
+			String error = null;
+			try (final PrintStream out = new PrintStream(new FileOutputStream(
+				new File(resultsDir, "job-" + job.line + ".log"), job.attempts > 1),
+				true, "UTF-8"))
+			{
+				out.println("# attempt " + job.attempts + " on worker " +
+					worker.index + ": " + String.join(" ", job.args));
+				try {
+					exitCode = DaemonClient.send(worker.socket, DaemonProtocol.OP_JOB,
+						job.args, out, out);
+				}
+				catch (final IOException exc) {
+					exitCode = DaemonProtocol.EXIT_FAILURE;
+					error = worker.isAlive() ? "lost worker " + worker.index + ": " +
+						exc : "worker " + worker.index + " died";
+					out.println("# " + error);
+				}
+			}
+			catch (final IOException exc) {
+				exitCode = DaemonProtocol.EXIT_FAILURE;
+				error = "could not write the job's log: " + exc.getMessage();
+			}
+			final long millis = (System.nanoTime() - start) / 1000000;
+			worker.finished(millis, exitCode == 0);
+			job.exitCode = exitCode;
+			job.worker = String.valueOf(worker.index);
+			job.millis = millis;
+			if (exitCode != 0 && job.attempts <= retries) {
+				record(job, "retrying" + (error == null ? "" : ": " + error));
+				queue.addLast(job);
+			}
+			else {
+				record(job, error);
+				remaining.decrementAndGet();
+			}
+		}
+	}
+
+	private synchronized void record(final Job job, final String note) {
+		journal.println(job.line + "\t" + job.exitCode + "\t" + job.attempts +
+			"\t" + job.worker + "\t" + job.millis + "\t" + (note == null ? "" :
+				note));
+		journal.flush();
+		if (note != null) log("line %d: exit code %d, %s", job.line, job.exitCode,
+			note);
+	}
+
+	private static Map<Integer, String[]> readJournal(final File file)
+		throws IOException
+	{
+		final Map<Integer, String[]> entries = new HashMap<>();
+		if (!file.exists()) return entries;
+		try (final BufferedReader reader = Files.newBufferedReader(file.toPath(),
+			StandardCharsets.UTF_8))
+		{
+			for (String line = reader.readLine(); line != null; line = reader
+				.readLine())
+			{
+				final String[] fields = line.split("\t", -1);
+				if (fields.length < 5) continue;
+				try {
+					entries.put(Integer.parseInt(fields[0]), fields);
+				}
+				catch (final NumberFormatException exc) {
+					// not one of ours
+				}
+			}
+		}
+		return entries;
+	}
+
+	private boolean writeResults() throws IOException {
+		boolean success = true;
+		try (final PrintWriter out = new PrintWriter(new File(resultsDir,
+			"results.tsv"), "UTF-8"))
+		{
+			out.println("line\texit\tattempts\tworker\tmillis\tjob");
+			for (final Job job : jobs) {
+				success &= job.exitCode == 0;
+				out.println(job.line + "\t" + (job.exitCode == null ? "" :
+					job.exitCode) + "\t" + job.attempts + "\t" + (job.worker == null ?
+						"" : job.worker) + "\t" + job.millis + "\t" + String.join(" ",
+							job.args));
+			}
+		}
+		if (!workers.isEmpty()) {
+			try (final PrintWriter out = new PrintWriter(new File(resultsDir,
+				"workers.tsv"), "UTF-8"))
+			{
+				out.println("worker\tnode\tcpus\theap_mb\tjobs\tfailures\trestarts" +
+					"\tbusy_ms\tmean_ms\tutilization");
+				for (final Worker worker : workers) {
+					out.println(worker.metrics());
+					log("worker %s", worker.metrics());
+				}
+			}
+		}
+		int failed = 0;
+		for (final Job job : jobs)
+			if (job.exitCode == null || job.exitCode != 0) failed++;
+		log("%d jobs done, %d failed; see %s", jobs.size() - failed, failed,
+			resultsDir);
+		return success;
+	}
+
+	private void destroyWorkers() {
+		for (final Worker worker : workers)
+			worker.destroy();
+	}
+
+	private static void log(final String format, final Object... args) {
+		System.err.println("[worker-pool] " + String.format(format, args));
+	}
+
+	/**
+	 * Reads a work queue: one job per line, its arguments separated by tabs.
+	 */
+	public static List<Job> readJobs(final File file) throws IOException {
+		final List<Job> jobs = new ArrayList<>();
+		final List<String> lines = Files.readAllLines(file.toPath(),
+			StandardCharsets.UTF_8);
+		for (int i = 0; i < lines.size(); i++) {
+			final String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			jobs.add(new Job(i + 1, Arrays.asList(line.split("\t"))));
+		}
+		return jobs;
+	}
+
+	/**
+	 * Divides the given CPUs, listed per NUMA node, among the given number of
+	 * workers. With at least as many workers as nodes, each worker stays on
+	 * one node and the node's CPUs are split evenly between its workers;
+	 * otherwise, each worker gets whole nodes.
+	 */
+	static List<CoreGroup> plan(final List<List<Integer>> nodes,
+		final int workerCount)
+	{
+		final List<CoreGroup> groups = new ArrayList<>();
+		if (workerCount >= nodes.size()) {
+			for (int n = 0; n < nodes.size(); n++) {
+				final int count = workerCount / nodes.size() + (n < workerCount %
+					nodes.size() ? 1 : 0);
+				final List<Integer> cpus = nodes.get(n);
+				for (int w = 0; w < count; w++) {
+					final int from = cpus.size() * w / count;
+					final int to = Math.max(from + 1, cpus.size() * (w + 1) / count);
+					groups.add(new CoreGroup(nodes.size() > 1 ? n : -1, cpus.subList(
+						Math.min(from, cpus.size() - 1), Math.min(to, cpus.size()))));
+				}
+			}
+			return groups;
+		}
+		for (int w = 0; w < workerCount; w++) {
+			final List<Integer> cpus = new ArrayList<>();
+			final int from = nodes.size() * w / workerCount;
+			final int to = nodes.size() * (w + 1) / workerCount;
+			for (int n = from; n < to; n++)
+				cpus.addAll(nodes.get(n));
+			groups.add(new CoreGroup(to - from == 1 ? from : -1, cpus));
+		}
+		return groups;
+	}
+
+	/**
+	 * Lists the CPUs of each NUMA node, as reported by Linux. Elsewhere, all
+	 * CPUs are considered to belong to one node.
+	 */
+	static List<List<Integer>> numaNodes() {
+		final List<List<Integer>> nodes = new ArrayList<>();
+		final File[] dirs = new File("/sys/devices/system/node").listFiles((dir,
+			name) -> name.matches("node[0-9]+"));
+		if (dirs != null) {
+			Arrays.sort(dirs, (a, b) -> Integer.compare(Integer.parseInt(a.getName()
+				.substring(4)), Integer.parseInt(b.getName().substring(4))));
+			for (final File dir : dirs) {
+				try {
+					final List<Integer> cpus = parseCpuList(new String(Files
+						.readAllBytes(new File(dir, "cpulist").toPath()),
+						StandardCharsets.US_ASCII));
+					if (!cpus.isEmpty()) nodes.add(cpus);
+				}
+				catch (final IOException | NumberFormatException exc) {
+					// node without CPUs, or unreadable
+				}
+			}
+		}
+		if (nodes.isEmpty()) {
+			final List<Integer> cpus = new ArrayList<>();
+			for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++)
+				cpus.add(i);
+			nodes.add(cpus);
+		}
+		return nodes;
+	}
+
+	/** Parses a Linux CPU list such as {@code 0-3,8-11}. */
+	static List<Integer> parseCpuList(final String list) {
+		final List<Integer> cpus = new ArrayList<>();
+		for (final String range : list.trim().split(",")) {
+			if (range.isEmpty()) continue;
+			final int dash = range.indexOf('-');
+			final int from = Integer.parseInt(dash < 0 ? range : range.substring(0,
+				dash));
+			final int to = dash < 0 ? from : Integer.parseInt(range.substring(dash +
+				1));
+			for (int cpu = from; cpu <= to; cpu++)
+				cpus.add(cpu);
+		}
+		return cpus;
+	}
+
+	private static String toCpuList(final List<Integer> cpus) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < cpus.size(); i++) {
+			int j = i;
+			while (j + 1 < cpus.size() && cpus.get(j + 1) == cpus.get(j) + 1)
+				j++;
+			if (builder.length() > 0) builder.append(',');
+			builder.append(cpus.get(i));
+			if (j > i) builder.append('-').append(cpus.get(j));
+			i = j;
+		}
+		return builder.toString();
+	}
+
+	private static boolean onPath(final String command) {
+		final String path = System.getenv("PATH");
+		if (path == null) return false;
+		for (final String dir : path.split(File.pathSeparator)) {
+			if (new File(dir, command).canExecute()) return true;
+		}
+		return false;
+	}
+
+	/** The JVM options of this JVM which the workers should inherit. */
+	private static List<String> inheritedOptions() {
+		final List<String> options = new ArrayList<>();
+		for (final String option : ManagementFactory.getRuntimeMXBean()
+			.getInputArguments())
+		{
+			if (option.startsWith("-Xmx") || option.startsWith("-Xms") || option
+				.startsWith("-XX:ActiveProcessorCount=") || option.startsWith(
+					"-Djava.class.path=") || option.startsWith("-agentlib:") || option
+						.startsWith("-Xdebug") || option.startsWith("-Xrunjdwp")) continue;
+			options.add(option);
+		}
+		return options;
+	}
+
+	private static long physicalMemoryMB() {
+		final java.lang.management.OperatingSystemMXBean os = ManagementFactory
+			.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os)
+				.getTotalMemorySize() >> 20;
+		}
+		return Runtime.getRuntime().maxMemory() >> 20;
+	}
+
+	// -- Helper classes --
+
+	/** One line of the work queue. */
+	public static class Job {
+
+		private final int line;
+		private final List<String> args;
+		private int attempts;
+		private Integer exitCode;
+		private String worker;
+		private long millis;
+
+		public Job(final int line, final List<String> args) {
+			this.line = line;
+			this.args = Collections.unmodifiableList(new ArrayList<>(args));
+		}
+
+		public int getLine() {
+			return line;
+		}
+
+		public List<String> getArgs() {
+			return args;
+		}
+	}
+
+	/** The CPUs given to one worker, and its NUMA node if it has just one. */
+	static class CoreGroup {
+
+		final int node;
+		final List<Integer> cpus;
+
+		CoreGroup(final int node, final List<Integer> cpus) {
+			this.node = node;
+			this.cpus = new ArrayList<>(cpus);
+		}
+
+		@Override
+		public String toString() {
+			return (node < 0 ? "" : "node " + node + ", ") + "CPUs " + toCpuList(
+				cpus);
+		}
+	}
+
+	private class Worker {
+
+		private final int index;
+		private final CoreGroup group;
+		private final Path socket;
+		private Process process;
+		private volatile boolean retired;
+		private int jobs, failures, restarts = -1;
+		private long busyMillis, startNanos;
+
+		private Worker(final int index, final CoreGroup group) {
+			this.index = index;
+			this.group = group;
+			socket = DaemonProtocol.defaultSocket("worker-" + ProcessHandle.current()
+				.pid() + "-" + index);
+		}
+
+		private synchronized boolean isAlive() {
+			return process != null && process.isAlive();
+		}
+
+		/**
+		 * Starts the worker, or restarts it if it died, and waits until it
+		 * answers. After three restarts, the worker is retired.
+		 *
+		 * @return whether the worker is up
+		 */
+		private synchronized boolean restart() {
+			if (retired) return false;
+			if (isAlive()) return true;
+			if (++restarts > Integer.getInteger("fiji.workers.max-restarts", 3)) {
+				log("worker %d retired after %d restarts", index, restarts - 1);
+				retired = true;
+				return false;
+			}
+			try {
+				process = start();
+				if (startNanos == 0) startNanos = System.nanoTime();
+				final long deadline = System.currentTimeMillis() + Long.getLong(
+					"fiji.workers.startup-timeout", 300000);
+				final PrintStream discard = new PrintStream(OutputStream
+					.nullOutputStream());
+				while (process.isAlive() && System.currentTimeMillis() < deadline) {
+					try {
+						if (DaemonClient.send(socket, DaemonProtocol.OP_PING,
+							Collections.emptyList(), discard, discard) == 0) return true;
+					}
+					catch (final IOException exc) {
+						// not listening yet
+					}
+					Thread.sleep(200);
+				}
+				log("worker %d did not come up; see worker-%d.log", index, index);
+				process.destroyForcibly();
+			}
+			catch (final IOException exc) {
+				log("could not start worker %d: %s", index, exc);
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+			}
+			retired = true;
+			return false;
+		}
+
+		private Process start() throws IOException {
+			final List<String> command = new ArrayList<>();
+			if (pin && group.node >= 0 && onPath("numactl")) {
+				command.addAll(Arrays.asList("numactl", "--cpunodebind=" +
+					group.node, "--membind=" + group.node));
+			}
+			else if (pin && onPath("taskset")) {
+				command.addAll(Arrays.asList("taskset", "-c", toCpuList(group.cpus)));
+			}
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+				.toString());
+			command.add("-Xmx" + heapMB + "m");
+			command.add("-XX:ActiveProcessorCount=" + group.cpus.size());
+			command.addAll(inheritedOptions());
+			command.add("-Djava.awt.headless=true");
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(FijiDaemon.class.getName());
+			command.add("--socket");
+			command.add(socket.toString());
+			command.add("--max-jobs");
+			command.add(String.valueOf(jobsPerWorker));
+			log("starting worker %d (%s, %d MB)", index, group, heapMB);
+			return new ProcessBuilder(command).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(resultsDir,
+					"worker-" + index + ".log"))).start();
+		}
+
+		private synchronized void finished(final long millis,
+			final boolean success)
+		{
+			jobs++;
+			if (!success) failures++;
+			busyMillis += millis;
+		}
+
+		/** Asks the worker to stop once its jobs are done, then reaps it. */
+		private void stop() {
+			final Process p;
+			synchronized (this) {
+				p = process;
+			}
+			if (p == null) return;
+			if (p.isAlive()) {
+				try {
+					final PrintStream discard = new PrintStream(OutputStream
+						.nullOutputStream());
+					DaemonClient.send(socket, DaemonProtocol.OP_STOP, Collections
+						.emptyList(), discard, discard);
+					if (!p.waitFor(30, TimeUnit.SECONDS)) p.destroyForcibly();
+				}
+				catch (final IOException exc) {
+					p.destroyForcibly();
+				}
+				catch (final InterruptedException exc) {
+					p.destroyForcibly();
+					Thread.currentThread().interrupt();
+				}
+			}
+			try {
+				Files.deleteIfExists(socket);
+			}
+			catch (final IOException exc) {
+				// leave it to the next prepareSocket
+			}
+		}
+
+		private synchronized void destroy() {
+			if (process != null) process.destroyForcibly();
+		}
+
+		private synchronized String metrics() {
+			final long wallMillis = startNanos == 0 ? 0 : (System.nanoTime() -
+				startNanos) / 1000000;
+			return index + "\t" + (group.node < 0 ? "" : group.node) + "\t" +
+				toCpuList(group.cpus) + "\t" + heapMB + "\t" + jobs + "\t" + failures +
+				"\t" + Math.max(0, restarts) + "\t" + busyMillis + "\t" + (jobs == 0
+					? 0 : busyMillis / jobs) + "\t" + String.format("%.2f",
+						wallMillis == 0 ? 0.0 : (double) busyMillis / jobsPerWorker /
+							wallMillis);
+		}
+	}
+
+	// -- Main method --
+
+	public static void main(final String[] args) throws Exception {
+		File queueFile = null;
+		int workerCount = 0;
+		int jobsPerWorker = 1;
+		long heapMB = 0;
+		int retries = 2;
+		File resultsDir = null;
+		boolean pin = true;
+		for (final String arg : args) {
+			if (arg.startsWith("--workers=")) workerCount = Integer.parseInt(arg
+				.substring(10));
+			else if (arg.startsWith("--jobs-per-worker=")) jobsPerWorker = Integer
+				.parseInt(arg.substring(18));
+			else if (arg.startsWith("--heap-mb=")) heapMB = Long.parseLong(arg
+				.substring(10));
+			else if (arg.startsWith("--retries=")) retries = Integer.parseInt(arg
+				.substring(10));
+			else if (arg.startsWith("--results=")) resultsDir = new File(arg
+				.substring(10));
+			else if ("--no-pin".equals(arg)) pin = false;
+			else if ("--worker-pool".equals(arg) || "--headless".equals(arg)) {
+				// added by the launcher
+			}
+			else if (!arg.startsWith("-") && queueFile == null) queueFile =
+				new File(arg);
+			else {
+				System.err.println("Unknown option: " + arg);
+				queueFile = null;
+				break;
+			}
+		}
+		if (queueFile == null) {
+			System.err.println("Usage: --worker-pool <queue-file> [--workers=N] " +
+				"[--jobs-per-worker=N] [--heap-mb=N] [--retries=N] " +
+				"[--results=<dir>] [--no-pin]");
+			System.exit(DaemonProtocol.EXIT_USAGE);
+			return;
+		}
+
+		final List<List<Integer>> nodes = numaNodes();
+		if (workerCount <= 0) {
+			// one worker per NUMA node, or per eight cores on a single node
+			int cpus = 0;
+			for (final List<Integer> node : nodes)
+				cpus += node.size();
+			workerCount = nodes.size() > 1 ? nodes.size() : Math.max(1, cpus / 8);
+		}
+		if (heapMB <= 0) heapMB = Math.max(256, physicalMemoryMB() * 3 / 4 /
+			workerCount);
+		if (resultsDir == null) resultsDir = new File(queueFile.getPath() +
+			".results");
+
+		final WorkerPool pool = new WorkerPool(readJobs(queueFile), plan(nodes,
+			workerCount), jobsPerWorker, heapMB, retries, resultsDir, pin);
+		System.exit(pool.run() ? 0 : DaemonProtocol.EXIT_FAILURE);
+	}
+}
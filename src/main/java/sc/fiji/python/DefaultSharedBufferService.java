@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.python;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link SharedBufferService}.
+ * <p>
+ * Buffers are backed by files in {@code /dev/shm} where available, or in the
+ * directory given by the {@code fiji.shared.dir} system property, falling back
+ * to the temporary directory.
+ * </p>
+ * <p>
+ * The registry refers to the buffers weakly, so that a buffer nobody holds
+ * any more can be released by its {@link java.lang.ref.Cleaner}.
+ * </p>
+ */
+@Plugin(type = Service.class)
+public class DefaultSharedBufferService extends AbstractService implements
+	SharedBufferService
+{
+
+	private final Map<Long, WeakReference<SharedBuffer>> buffers =
+		new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong(1);
+	private File directory;
+
+	@Override
+	public SharedBuffer allocate(final long size) throws IOException {
+		if (size < 0) throw new IllegalArgumentException("Negative size: " + size);
+		final long id = nextId.getAndIncrement();
+		final File file = new File(directory(), "fiji-shared-" + ProcessHandle
+			.current().pid() + "-" + id + ".buf");
+		final SharedBuffer buffer = new SharedBuffer(id, file, size, () -> buffers
+			.remove(id));
+		buffers.put(id, new WeakReference<>(buffer));
+		return buffer;
+	}
+
+	@Override
+	public SharedBuffer get(final long id) {
+		final WeakReference<SharedBuffer> ref = buffers.get(id);
+		return ref == null ? null : ref.get();
+	}
+
+	@Override
+	public List<SharedBuffer> getBuffers() {
+		final List<SharedBuffer> list = new ArrayList<>();
+		for (final WeakReference<SharedBuffer> ref : buffers.values()) {
+			final SharedBuffer buffer = ref.get();
+			if (buffer != null) list.add(buffer);
+		}
+		return list;
+	}
+
+	@Override
+	public SharedBuffer share(final ImagePlus imp) throws IOException {
+		final ImageStack stack = imp.getStack();
+		final int planes = stack.getSize();
+		final long planeBytes = (long) imp.getWidth() * imp.getHeight() *
+			bytesPerPixel(imp.getBitDepth());
+		final SharedBuffer buffer = allocate(planeBytes * planes);
+		for (int i = 0; i < planes; i++) {
+			copy(buffer, i * planeBytes, stack.getPixels(i + 1), true);
+		}
+		return buffer;
+	}
+
+	@Override
+	public ImagePlus toImagePlus(final SharedBuffer buffer, final String title,
+		final int width, final int height, final int planes, final int bitDepth)
+	{
+		final long planeBytes = (long) width * height * bytesPerPixel(bitDepth);
+		if (planeBytes * planes > buffer.size()) {
+			throw new IllegalArgumentException(buffer + " is too small for " +
+				planes + " planes of " + width + "x" + height + "x" + bitDepth);
+		}
+		final ImageStack stack = new ImageStack(width, height);
+		final int length = width * height;
+		for (int i = 0; i < planes; i++) {
+			final Object pixels;
+			switch (bitDepth) {
+				case 8: pixels = new byte[length]; break;
+				case 16: pixels = new short[length]; break;
+				case 24: pixels = new int[length]; break;
+				case 32: pixels = new float[length]; break;
+				default:
+					throw new IllegalArgumentException("Unsupported bit depth: " +
+						bitDepth);
+			}
+			copy(buffer, i * planeBytes, pixels, false);
+			stack.addSlice(null, pixels);
+		}
+		return new ImagePlus(title, stack);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		for (final SharedBuffer buffer : getBuffers()) {
+			while (!buffer.isReleased())
+				buffer.release();
+		}
+	}
+
+	// -- Helper methods --
+
+	private synchronized File directory() {
+		if (directory != null) return directory;
+		final String property = System.getProperty("fiji.shared.dir");
+		final File shm = new File("/dev/shm");
+		if (property != null) directory = new File(property);
+		else if (shm.isDirectory() && shm.canWrite()) directory = shm;
+		else directory = new File(System.getProperty("java.io.tmpdir"));
+		if (!directory.isDirectory()) directory.mkdirs();
+		return directory;
+	}
+
+	private static int bytesPerPixel(final int bitDepth) {
+		return bitDepth == 8 ? 1 : bitDepth == 16 ? 2 : 4;
+	}
+
+	/**
+	 * Copies a primitive array to or from the buffer, starting at the given byte
+	 * offset. Since the chunk size is a multiple of every element size, no
+	 * element straddles two chunks.
+	 */
+	private static void copy(final SharedBuffer buffer, long offset,
+		final Object pixels, final boolean toBuffer)
+	{
+		final int elementSize = pixels instanceof byte[] ? 1 :
+			pixels instanceof short[] ? 2 : 4;
+		final int length = Array.getLength(pixels);
+		int done = 0;
+		while (done < length) {
+			final ByteBuffer chunk = buffer.chunk((int) (offset /
+				SharedBuffer.CHUNK_SIZE));
+			chunk.position((int) (offset % SharedBuffer.CHUNK_SIZE));
+			final int count = Math.min(length - done, chunk.remaining() /
+				elementSize);
+			if (pixels instanceof byte[]) {
+				if (toBuffer) chunk.put((byte[]) pixels, done, count);
+				else chunk.get((byte[]) pixels, done, count);
+			}
+			else if (pixels instanceof short[]) {
+				if (toBuffer) chunk.asShortBuffer().put((short[]) pixels, done, count);
+				else chunk.asShortBuffer().get((short[]) pixels, done, count);
+			}
+			else if (pixels instanceof int[]) {
+				if (toBuffer) chunk.asIntBuffer().put((int[]) pixels, done, count);
+				else chunk.asIntBuffer().get((int[]) pixels, done, count);
+			}
+			else if (pixels instanceof float[]) {
+				if (toBuffer) chunk.asFloatBuffer().put((float[]) pixels, done, count);
+				else chunk.asFloatBuffer().get((float[]) pixels, done, count);
+			}
+			else {
+				throw new IllegalArgumentException("Unsupported pixels: " + pixels);
+			}
+			done += count;
+			offset += (long) count * elementSize;
+		}
+	}
+}
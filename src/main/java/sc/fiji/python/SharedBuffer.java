@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.python;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A block of memory shared between the JVM and other processes or runtimes,
+ * such as numpy in Fiji's Python mode.
+ * <p>
+ * The memory is a memory-mapped file, preferably on a RAM-backed file system,
+ * so numpy can wrap it with {@code numpy.memmap(buffer.getPath(), ...)} without
+ * copying. On the Java side, the memory is exposed as native-order
+ * {@link ByteBuffer}s of at most {@link #CHUNK_SIZE} bytes each, because a
+ * single {@link ByteBuffer} cannot address more than 2 GB.
+ * </p>
+ * <p>
+ * Buffers are reference counted: the creator holds the first reference, and
+ * every other holder (e.g. a numpy array) {@link #retain()}s its own. Once the
+ * last reference is {@link #release()}d, the backing file is deleted. A buffer
+ * which becomes unreachable on the Java side releases the creator's reference
+ * automatically; the {@link SharedBufferService} only refers to it weakly. As
+ * with any cleaner, that happens at the garbage collector's discretion, so
+ * large buffers are best {@link #close()}d explicitly.
+ * </p>
+ */
+public class SharedBuffer implements AutoCloseable {
+
+	/** Maximum size of the {@link ByteBuffer} chunks; 1 GB. */
+	public static final int CHUNK_SIZE = 1 << 30;
+
+	private static final Cleaner cleaner = Cleaner.create();
+
+	private final long id;
+	private final State state;
+	private final Cleaner.Cleanable cleanable;
+
+	SharedBuffer(final long id, final File file, final long size,
+		final Runnable onFree) throws IOException
+	{
+		this.id = id;
+		this.state = new State(file, size, onFree);
+		this.cleanable = cleaner.register(this, state);
+	}
+
+	/** Gets the identifier of this buffer, unique within its service. */
+	public long getId() {
+		return id;
+	}
+
+	/** Gets the path of the backing file, for mapping it from outside Java. */
+	public String getPath() {
+		return state.file.getAbsolutePath();
+	}
+
+	/** Gets the size of the buffer in bytes. */
+	public long size() {
+		return state.size;
+	}
+
+	public int getChunkCount() {
+		return state.chunks.length;
+	}
+
+	/**
+	 * Gets a view of the given chunk, covering the bytes starting at
+	 * {@code index * CHUNK_SIZE}.
+	 */
+	public ByteBuffer chunk(final int index) {
+		checkLive();
+		return state.chunks[index].duplicate().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Gets a view of the whole buffer.
+	 *
+	 * @throws UnsupportedOperationException if the buffer spans more than one
+	 *           chunk
+	 */
+	public ByteBuffer asByteBuffer() {
+		if (state.chunks.length != 1) {
+			throw new UnsupportedOperationException("Buffer of " + size() +
+				" bytes spans " + state.chunks.length + " chunks");
+		}
+		return chunk(0);
+	}
+
+	/** Adds a reference to this buffer. */
+	public SharedBuffer retain() {
+		if (state.references.getAndUpdate(n -> n > 0 ? n + 1 : n) <= 0) {
+			throw new IllegalStateException("Buffer " + id + " was released");
+		}
+		return this;
+	}
+
+	/**
+	 * Drops a reference to this buffer, freeing it if it was the last one.
+	 *
+	 * @return true iff the buffer was freed
+	 */
+	public boolean release() {
+		return state.release();
+	}
+
+	public boolean isReleased() {
+		return state.references.get() <= 0;
+	}
+
+	/** Drops the creator's reference; equivalent to {@link #release()}. */
+	@Override
+	public void close() {
+		cleanable.clean();
+	}
+
+	@Override
+	public String toString() {
+		return "SharedBuffer#" + id + "[" + size() + " bytes at " + getPath() +
+			"]";
+	}
+
+	private void checkLive() {
+		if (isReleased()) {
+			throw new IllegalStateException("Buffer " + id + " was released");
+		}
+	}
+
+	/**
+	 * The part of a buffer which must outlive the handle, so that the
+	 * {@link Cleaner} can release it.
+	 */
+	private static class State implements Runnable {
+
+		private final File file;
+		private final long size;
+		private final MappedByteBuffer[] chunks;
+		private final Runnable onFree;
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private State(final File file, final long size, final Runnable onFree)
+			throws IOException
+		{
+			this.file = file;
+			this.size = size;
+			this.onFree = onFree;
+			final int count = (int) Math.max(1, (size + CHUNK_SIZE - 1) /
+				CHUNK_SIZE);
+			chunks = new MappedByteBuffer[count];
+			try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(size);
+				final FileChannel channel = raf.getChannel();
+				for (int i = 0; i < count; i++) {
+					final long offset = (long) i * CHUNK_SIZE;
+					chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset,
+						Math.min(CHUNK_SIZE, size - offset));
+				}
+			}
+		}
+
+		/** Invoked by the {@link Cleaner} to drop the creator's reference. */
+		@Override
+		public void run() {
+			release();
+		}
+
+		private boolean release() {
+			if (references.getAndUpdate(n -> n > 0 ? n - 1 : n) != 1) return false;
+			// NB: The mappings stay valid until garbage collected; removing the
+			// file only unlinks the name, at least on POSIX systems.
+			if (!file.delete()) file.deleteOnExit();
+			onFree.run();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.python;
+
+import ij.ImagePlus;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.scijava.service.SciJavaService;
+
+/**
+ * Hands out {@link SharedBuffer}s, so that large images can move between the
+ * JVM and Python (numpy, napari, ...) without element-wise copies.
+ * <p>
+ * In Fiji's Python mode, {@code config/fiji.py} offers the Python side of this
+ * service: {@code shared_array} allocates a buffer and wraps it as a numpy
+ * array, and {@code from_shared} wraps an existing buffer.
+ * </p>
+ */
+public interface SharedBufferService extends SciJavaService {
+
+	/** Allocates a new buffer of the given size, in bytes. */
+	SharedBuffer allocate(long size) throws IOException;
+
+	/** Gets the live buffer with the given identifier, or null. */
+	SharedBuffer get(long id);
+
+	/** Gets all buffers which have not been freed yet. */
+	List<SharedBuffer> getBuffers();
+
+	/**
+	 * Copies the pixels of an image into a new buffer, plane by plane, in the
+	 * platform's native byte order.
+	 * <p>
+	 * The result is laid out as a C-ordered array of shape
+	 * {@code (planes, height, width)} for 8-, 16- and 32-bit images, and
+	 * {@code (planes, height, width)} of 32-bit ARGB integers for RGB images.
+	 * </p>
+	 */
+	SharedBuffer share(ImagePlus imp) throws IOException;
+
+	/**
+	 * Creates an image from a buffer laid out as described in
+	 * {@link #share(ImagePlus)}.
+	 *
+	 * @param bitDepth 8, 16, 24 (RGB) or 32
+	 */
+	ImagePlus toImagePlus(SharedBuffer buffer, String title, int width,
+		int height, int planes, int bitDepth);
+}
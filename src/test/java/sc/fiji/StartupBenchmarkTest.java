@@ -0,0 +1,200 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji;
+
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Guards Fiji's startup time and footprint against regressions.
+ * <p>
+ * Runs {@link StartupProbe} several times, each in a fresh JVM, takes the
+ * median of each metric and compares it with the checked-in baseline
+ * {@code startup-baseline.properties}, which holds a value and a tolerance
+ * per metric. Skipped unless {@code -Dfiji.benchmark=true}, e.g. via
+ * {@code mvn test -Pbenchmark}. Further knobs:
+ * </p>
+ * <ul>
+ * <li>{@code fiji.benchmark.runs}: how many JVMs to fork (default: 5);</li>
+ * <li>{@code fiji.benchmark.record}: a file to write the measured medians to,
+ * in the format of the baseline, for checking in.</li>
+ * </ul>
+ * <p>
+ * Metrics without a baseline value are only reported, so that the benchmark
+ * can run before a baseline was recorded on the reference machine; the test
+ * says which metrics it did not check, so that this cannot go unnoticed.
+ * </p>
+ */
+public final class StartupBenchmarkTest {
+
+	private static final String BASELINE = "startup-baseline.properties";
+
+	/** How much a metric may exceed its baseline, unless specified. */
+	private static final double DEFAULT_TOLERANCE = 0.2;
+
+	@Test
+	public void testStartup() throws Exception {
+		assumeTrue(Boolean.getBoolean("fiji.benchmark"));
+		final int runs = Integer.getInteger("fiji.benchmark.runs", 5);
+
+		final Map<String, List<Long>> samples = new LinkedHashMap<>();
+		for (int i = 0; i < runs; i++) {
+			for (final Map.Entry<String, Long> entry : probe().entrySet()) {
+				samples.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(
+					entry.getValue());
+			}
+		}
+
+		final Properties baseline = new Properties();
+		try (final InputStream in = getClass().getResourceAsStream(BASELINE)) {
+			if (in != null) baseline.load(in);
+		}
+
+		final String recordPath = System.getProperty("fiji.benchmark.record");
+		final Properties record = new Properties();
+		final List<String> regressions = new ArrayList<>();
+		final List<String> unchecked = new ArrayList<>();
+		final StringBuilder table = new StringBuilder();
+		table.append(String.format("%-18s %12s %12s %12s %12s  %s%n", "metric",
+			"median", "min", "max", "baseline", "verdict"));
+		for (final Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+			final String metric = entry.getKey();
+			final long[] values = entry.getValue().stream().mapToLong(
+				Long::longValue).sorted().toArray();
+			final long median = values[values.length / 2];
+			record.setProperty(metric, Long.toString(median));
+
+			final String expected = baseline.getProperty(metric);
+			String verdict = "no baseline";
+			if (expected == null || expected.trim().isEmpty()) {
+				unchecked.add(metric);
+			}
+			else if (median >= 0) {
+				final long limit = limit(baseline, metric, Long.parseLong(expected
+					.trim()));
+				verdict = median <= limit ? "ok" : "REGRESSION (limit " + limit + ")";
+				if (median > limit) regressions.add(metric + ": " + median + " > " +
+					limit);
+			}
+			table.append(String.format("%-18s %12d %12d %12d %12s  %s%n", metric,
+				median, values[0], values[values.length - 1], expected == null ? "-"
+					: expected.trim(), verdict));
+		}
+		System.out.println("Startup benchmark, " + runs + " forked runs:");
+		System.out.print(table);
+
+		if (recordPath != null) {
+			try (final OutputStream out = new FileOutputStream(recordPath)) {
+				record.store(out, "Medians of " + runs + " runs on " + System
+					.getProperty("java.vm.name") + " " + System.getProperty(
+						"java.version"));
+			}
+		}
+
+		if (!unchecked.isEmpty()) {
+			System.out.println("Not checked, no baseline in " + BASELINE + ": " +
+				String.join(", ", unchecked) +
+				"; record one with -Dfiji.benchmark.record=<file>");
+		}
+		if (!regressions.isEmpty()) {
+			fail("Startup regressed against " + BASELINE + ":\n  " + String.join(
+				"\n  ", regressions));
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the largest acceptable value: the baseline plus its relative
+	 * tolerance ({@code <metric>.tolerance}), or plus an absolute slack
+	 * ({@code <metric>.slack}) where that is larger. The slack keeps small
+	 * counts, such as leftover threads, from failing on noise.
+	 */
+	private static long limit(final Properties baseline, final String metric,
+		final long expected)
+	{
+		final double tolerance = Double.parseDouble(baseline.getProperty(metric +
+			".tolerance", baseline.getProperty("tolerance", Double.toString(
+				DEFAULT_TOLERANCE))));
+		final long slack = Long.parseLong(baseline.getProperty(metric + ".slack",
+			"0"));
+		return Math.max(Math.round(expected * (1 + tolerance)), expected + slack);
+	}
+
+	/** Runs {@link StartupProbe} in a fresh JVM and collects its metrics. */
+	private static Map<String, Long> probe() throws IOException,
+		InterruptedException
+	{
+		final File java = new File(System.getProperty("java.home"), "bin" +
+			File.separator + "java");
+		final List<String> command = new ArrayList<>(Arrays.asList(java
+			.getPath(), "-cp", System.getProperty("java.class.path"),
+			"-Djava.awt.headless=true", StartupProbe.class.getName()));
+		final Process process = new ProcessBuilder(command).redirectErrorStream(
+			true).start();
+
+		final Map<String, Long> metrics = new LinkedHashMap<>();
+		final StringBuilder output = new StringBuilder();
+		try (final BufferedReader reader = new BufferedReader(
+			new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+		{
+			for (String line = reader.readLine(); line != null; line = reader
+				.readLine())
+			{
+				output.append(line).append('\n');
+				if (!line.startsWith("probe.")) continue;
+				final int equals = line.indexOf('=');
+				if (equals < 0) continue;
+				metrics.put(line.substring("probe.".length(), equals), Long.parseLong(
+					line.substring(equals + 1).trim()));
+			}
+		}
+		if (!process.waitFor(5, TimeUnit.MINUTES)) {
+			process.destroyForcibly();
+			throw new IOException("Startup probe timed out:\n" + output);
+		}
+		if (process.exitValue() != 0) {
+			throw new IOException("Startup probe failed with exit code " + process
+				.exitValue() + ":\n" + output);
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.imagej.ImageJ;
+
+/**
+ * Measures one Fiji startup, for {@link StartupBenchmarkTest}.
+ * <p>
+ * Meant to run in a fresh JVM, so that the first context it creates is
+ * cold. Prints one {@code probe.<metric>=<value>} line per measurement, with
+ * times in milliseconds and sizes in bytes.
+ * </p>
+ */
+public final class StartupProbe {
+
+	private StartupProbe() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	public static void main(final String... args) throws Exception {
+		final Set<Thread> threadsBefore = new HashSet<>(Thread
+			.getAllStackTraces().keySet());
+		final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		report("jvm", System.currentTimeMillis() - jvmStart);
+
+		// cold: the first context pays for class loading and plugin discovery
+		long start = System.nanoTime();
+		final ImageJ ij = new ImageJ();
+		ij.ui().setHeadless(true);
+		report("context.cold", millis(start));
+
+		start = System.nanoTime();
+		ij.launch();
+		report("launch", millis(start));
+
+		start = System.nanoTime();
+		ij.script().run("script.js", "#@output String result\n" +
+			"result = 'Success!';\n", true).get();
+		report("script.first", millis(start));
+
+		start = System.nanoTime();
+		ij.dispose();
+		report("dispose", millis(start));
+
+		// warm: everything is loaded already
+		start = System.nanoTime();
+		final ImageJ warm = new ImageJ();
+		warm.ui().setHeadless(true);
+		report("context.warm", millis(start));
+		warm.dispose();
+
+		report("classes.loaded", ManagementFactory.getClassLoadingMXBean()
+			.getTotalLoadedClassCount());
+		System.gc();
+		System.gc();
+		report("heap.after-gc", ManagementFactory.getMemoryMXBean()
+			.getHeapMemoryUsage().getUsed());
+		report("rss", rss());
+
+		// give dying threads a moment, then count the ones left behind
+		Thread.sleep(500);
+		int leftover = 0;
+		for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (!threadsBefore.contains(thread) && thread.isAlive()) leftover++;
+		}
+		report("threads.leftover", leftover);
+		System.exit(0);
+	}
+
+	private static long millis(final long startNanos) {
+		return (System.nanoTime() - startNanos) / 1_000_000;
+	}
+
+	/** Gets the resident set size on Linux, or -1 elsewhere. */
+	private static long rss() {
+		final Path status = Paths.get("/proc/self/status");
+		if (!Files.exists(status)) return -1;
+		try {
+			for (final String line : Files.readAllLines(status,
+				StandardCharsets.UTF_8))
+			{
+				if (line.startsWith("VmRSS:")) {
+					return 1024 * Long.parseLong(line.replaceAll("[^0-9]", ""));
+				}
+			}
+		}
+		catch (final IOException | NumberFormatException exc) {
+			// fall through
+		}
+		return -1;
+	}
+
+	private static void report(final String metric, final long value) {
+		System.out.println("probe." + metric + "=" + value);
+	}
+}
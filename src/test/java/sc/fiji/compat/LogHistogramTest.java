@@ -0,0 +1,65 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LogHistogram}.
+ */
+public class LogHistogramTest {
+
+	@Test
+	public void testBuckets() {
+		final Random random = new Random(1);
+		for (int i = 0; i < 100_000; i++) {
+			final long value = random.nextLong() >>> (1 + random.nextInt(63));
+			final int index = LogHistogram.index(value);
+			final long upper = LogHistogram.upperBound(index);
+			assertTrue(upper >= value);
+			if (index > 0) assertTrue(LogHistogram.upperBound(index - 1) < value);
+			if (value > 100) assertTrue(upper - value <= value * 0.04);
+		}
+		assertEquals(Long.MAX_VALUE, LogHistogram.upperBound(LogHistogram.index(
+			Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testQuantiles() {
+		final LogHistogram histogram = new LogHistogram();
+		assertEquals(0, histogram.getQuantile(0.5));
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000L);
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1_000_000, histogram.getMax());
+		assertEquals(500_500, histogram.getMean(), 1e-9);
+		assertEquals(500_000, histogram.getQuantile(0.5), 500_000 * 0.04);
+		assertEquals(990_000, histogram.getQuantile(0.99), 990_000 * 0.04);
+		assertEquals(1_000_000, histogram.getQuantile(1));
+	}
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.LUT;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LutPack}.
+ */
+public class LutPackTest {
+
+	@Test
+	public void testPack() throws IOException {
+		final File dir = Files.createTempDirectory("luts").toFile();
+		writeRamp(new File(dir, "red.lut"), 0);
+		writeRamp(new File(dir, "blue.lut"), 512);
+		final File file = new File(dir, "luts.pack");
+		Files.write(file.toPath(), LutPack.build(dir));
+
+		final LutPack pack = LutPack.open(file);
+		assertEquals(Arrays.asList("blue", "red"), pack.getNames());
+		assertNull(pack.getLut("green"));
+		final LUT red = pack.getLut("red");
+		assertEquals(0x800000, red.getRGB(128) & 0xffffff);
+		assertTrue(pack.isCurrent(dir));
+
+		final int[] thumbnail = pack.getThumbnail("blue");
+		assertEquals(LutPack.THUMBNAIL_WIDTH * LutPack.THUMBNAIL_HEIGHT,
+			thumbnail.length);
+		assertEquals(0xff000000, thumbnail[0]);
+		assertEquals(0xff0000fe, thumbnail[LutPack.THUMBNAIL_WIDTH - 1]);
+
+		assertTrue(new File(dir, "red.lut").setLastModified(0));
+		assertFalse(pack.isCurrent(dir));
+	}
+
+	@Test
+	public void testToRGB() {
+		final int[] table = new int[256];
+		for (int i = 0; i < table.length; i++)
+			table[i] = i << 8;
+		final int[] out = new int[4];
+		LutPack.toRGB(new byte[] { 0, 64, (byte) 128, (byte) 255 }, 2, table, 0,
+			255, out);
+		assertArrayEquals(new int[] { 0, 64 << 8, 128 << 8, 255 << 8 }, out);
+
+		LutPack.toRGB(new short[] { 0, 1000, 2000, 4095 }, 2, table, 1000, 2000,
+			out);
+		assertArrayEquals(new int[] { 0, 0, 255 << 8, 255 << 8 }, out);
+
+		LutPack.toRGB(new float[] { -1, 0.5f, Float.NaN, 2 }, 4, table, 0, 1,
+			out);
+		assertArrayEquals(new int[] { 0, 128 << 8, 0, 255 << 8 }, out);
+	}
+
+	@Test
+	public void testMenuLabel() {
+		assertEquals("16 colors", LutPack.menuLabel("16_colors"));
+		assertEquals("mpl-viridis", LutPack.menuLabel("mpl-viridis"));
+	}
+
+	private static void writeRamp(final File file, final int offset)
+		throws IOException
+	{
+		final byte[] bytes = new byte[768];
+		for (int i = 0; i < 256; i++)
+			bytes[offset + i] = (byte) i;
+		Files.write(file.toPath(), bytes);
+		file.deleteOnExit();
+	}
+}
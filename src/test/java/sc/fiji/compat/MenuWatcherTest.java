@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MenuWatcher}.
+ */
+public class MenuWatcherTest {
+
+	private final Path appDir = Paths.get("fiji").toAbsolutePath();
+	private final MenuWatcher watcher = new MenuWatcher(appDir);
+
+	@Test
+	public void testPluginClass() {
+		final MenuWatcher.Plugin plugin = plugin("plugins/My_Plugin.class");
+		assertEquals("Plugins", plugin.menuPath);
+		assertEquals("My Plugin", plugin.label);
+		assertEquals("My_Plugin", plugin.command);
+
+		assertEquals("Trimmed", plugin("plugins/_Trimmed_.class").label);
+		// inner classes and classes in subfolders get no menu entry
+		assertNull(plugin("plugins/My_Plugin$1.class"));
+		assertNull(plugin("plugins/Sub/My_Plugin.class"));
+	}
+
+	@Test
+	public void testMacro() {
+		final MenuWatcher.Plugin plugin = plugin("plugins/Sub/Do_It.ijm");
+		assertEquals("Plugins>Sub", plugin.menuPath);
+		assertEquals("Do It", plugin.label);
+		assertEquals("ij.plugin.Macro_Runner(\"Sub/Do_It.ijm\")", plugin.command);
+
+		assertEquals("ij.plugin.Macro_Runner(\"Run_Me.PY\")", plugin(
+			"plugins/Run_Me.PY").command);
+	}
+
+	@Test
+	public void testIgnored() {
+		assertNull(plugin("plugins/NoUnderscore.ijm"));
+		assertNull(plugin("plugins/a/b/Too_Deep.ijm"));
+		assertNull(plugin("plugins/Some_Library.jar"));
+		assertNull(plugin("plugins/No_Extension"));
+		assertNull(plugin("scripts/My_Script.py"));
+	}
+
+	private MenuWatcher.Plugin plugin(final String path) {
+		return watcher.plugin(appDir.resolve(path));
+	}
+}
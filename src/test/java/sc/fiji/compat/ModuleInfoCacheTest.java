@@ -0,0 +1,152 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.command.CommandInfo;
+import org.scijava.plugin.Parameter;
+
+/**
+ * Tests {@link ModuleInfoCache}, and measures what it saves the
+ * {@link SciJavaOpsFallback} preprocessor per module execution.
+ */
+public class ModuleInfoCacheTest {
+
+	@Test
+	public void testMemoization() {
+		final ModuleInfoCache<List<String>> cache = new ModuleInfoCache<>();
+		final CommandInfo info = new CommandInfo(Plain.class);
+		final AtomicInteger computations = new AtomicInteger();
+		final List<String> first = cache.get(info, i -> {
+			computations.incrementAndGet();
+			return SciJavaOpsFallback.opEnvironmentInputs(i);
+		});
+		final List<String> second = cache.get(info, i -> {
+			computations.incrementAndGet();
+			return SciJavaOpsFallback.opEnvironmentInputs(i);
+		});
+		assertSame(first, second);
+		assertEquals(1, computations.get());
+		assertEquals(Collections.emptyList(), first);
+	}
+
+	@Test
+	public void testIdentity() {
+		final ModuleInfoCache<Integer> cache = new ModuleInfoCache<>();
+		final CommandInfo a = new CommandInfo(Plain.class);
+		final CommandInfo b = new CommandInfo(Plain.class);
+		assertEquals(1, (int) cache.get(a, i -> 1));
+		assertEquals(2, (int) cache.get(b, i -> 2));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testInvalidation() {
+		final ModuleInfoCache<Integer> cache = new ModuleInfoCache<>();
+		final CommandInfo info = new CommandInfo(Plain.class);
+		cache.get(info, i -> 1);
+		cache.invalidate(Collections.singletonList(info));
+		assertEquals(0, cache.size());
+		assertEquals(2, (int) cache.get(info, i -> 2));
+	}
+
+	@Test
+	public void testCollected() throws InterruptedException {
+		final ModuleInfoCache<Integer> cache = new ModuleInfoCache<>();
+		CommandInfo info = new CommandInfo(Plain.class);
+		cache.get(info, i -> 1);
+		assertEquals(1, cache.size());
+		info = null;
+		for (int i = 0; i < 100 && cache.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Compares the per-call cost of scanning a module's inputs with that of a
+	 * cache lookup. The timings are printed rather than asserted, since they
+	 * depend on the machine. Skipped unless {@code -Dfiji.benchmark=true}, e.g.
+	 * via {@code mvn test -Pbenchmark}.
+	 */
+	@Test
+	public void testOverhead() {
+		assumeTrue(Boolean.getBoolean("fiji.benchmark"));
+		final ModuleInfoCache<List<String>> cache = new ModuleInfoCache<>();
+		final CommandInfo info = new CommandInfo(Plain.class);
+		final int iterations = 200_000;
+
+		int sink = 0;
+		for (int i = 0; i < iterations; i++) {
+			sink += SciJavaOpsFallback.opEnvironmentInputs(info).size();
+			sink += cache.get(info, SciJavaOpsFallback::opEnvironmentInputs).size();
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink += SciJavaOpsFallback.opEnvironmentInputs(info).size();
+		}
+		final double scan = (double) (System.nanoTime() - start) / iterations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			sink += cache.get(info, SciJavaOpsFallback::opEnvironmentInputs).size();
+		}
+		final double lookup = (double) (System.nanoTime() - start) / iterations;
+
+		System.out.printf("input scan: %.1f ns/call, cached: %.1f ns/call%n",
+			scan, lookup);
+		assertEquals(0, sink);
+	}
+
+	public static class Plain implements Command {
+
+		@Parameter
+		private String a;
+
+		@Parameter
+		private int b;
+
+		@Parameter
+		private double c;
+
+		@Parameter(type = ItemIO.OUTPUT)
+		private String result;
+
+		@Override
+		public void run() {
+			result = a + b + c;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PlaneCache}.
+ */
+public class PlaneCacheTest {
+
+	@Test
+	public void testHit() throws IOException {
+		final File file = createStack("hit", 10);
+		final PlaneCache cache = new PlaneCache(1 << 20);
+		try {
+			final ImagePlus first = cache.openImage(file.getPath());
+			assertEquals(0, cache.getHits());
+			assertTrue(cache.contains(file.getPath()));
+
+			final ImagePlus second = cache.openImage(file.getPath());
+			assertEquals(1, cache.getHits());
+			assertEquals(3, second.getStackSize());
+			assertEquals(first.getStack().getProcessor(2).get(0, 0), second
+				.getStack().getProcessor(2).get(0, 0));
+
+			// reads are copies
+			second.getStack().getProcessor(2).set(0, 0, 0);
+			assertEquals(11, cache.getPlane(file.getPath(), 2).get(0, 0));
+			assertEquals(2, cache.getHits());
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testModified() throws IOException {
+		final File file = createStack("modified", 10);
+		final PlaneCache cache = new PlaneCache(1 << 20);
+		try {
+			cache.openImage(file.getPath());
+			assertTrue(file.setLastModified(file.lastModified() - 10000));
+			assertFalse(cache.contains(file.getPath()));
+			cache.openImage(file.getPath());
+			assertEquals(2, cache.getMisses());
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testClock() throws IOException {
+		// each stack has three planes of 64x64 16-bit pixels, 24 kB in all
+		final PlaneCache cache = new PlaneCache(60 << 10);
+		try {
+			final File reused = createStack("reused", 10);
+			final File once = createStack("once", 20);
+			final File other = createStack("other", 30);
+			cache.openImage(reused.getPath());
+			cache.openImage(reused.getPath());
+			cache.openImage(once.getPath());
+			cache.openImage(other.getPath());
+			assertTrue(cache.contains(reused.getPath()));
+			assertFalse(cache.contains(once.getPath()));
+			assertTrue(cache.getEvictions() > 0);
+			assertTrue(cache.getBytes() <= cache.getBudget());
+		}
+		finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testThresholds() {
+		final Map<String, Long> before = thresholds();
+		final PlaneCache first = new PlaneCache(1 << 20);
+		final PlaneCache second = new PlaneCache(1 << 20);
+		first.close();
+		second.close();
+		// the thresholds are global to the JVM: the caches must put them back
+		assertEquals(before, thresholds());
+	}
+
+	private static Map<String, Long> thresholds() {
+		final Map<String, Long> thresholds = new HashMap<>();
+		for (final MemoryPoolMXBean pool : ManagementFactory
+			.getMemoryPoolMXBeans())
+		{
+			if (pool.isCollectionUsageThresholdSupported()) {
+				thresholds.put(pool.getName(), pool.getCollectionUsageThreshold());
+			}
+		}
+		return thresholds;
+	}
+
+	private static File createStack(final String name, final int value)
+		throws IOException
+	{
+		final ImagePlus imp = IJ.createImage(name, "16-bit black", 64, 64, 3);
+		for (int i = 1; i <= 3; i++)
+			imp.getStack().getProcessor(i).set(0, 0, value + i - 1);
+		final File file = File.createTempFile("plane-cache-" + name, ".tif");
+		file.deleteOnExit();
+		IJ.saveAsTiff(imp, file.getPath());
+		return file;
+	}
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ShutdownCoordinator}.
+ */
+public class ShutdownCoordinatorTest {
+
+	@Test
+	public void testConcurrent() {
+		final ShutdownCoordinator coordinator = new ShutdownCoordinator();
+		// each disposer can only finish when the other one runs at the same time
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final Runnable await = () -> {
+			try {
+				barrier.await(10, TimeUnit.SECONDS);
+			}
+			catch (final Exception exc) {
+				throw new RuntimeException(exc);
+			}
+		};
+		coordinator.register("a", await);
+		coordinator.register("b", await);
+		final ShutdownCoordinator.Report report = coordinator.shutdown(10000);
+		assertEquals(2, report.getFinished().size());
+		assertTrue(report.getFailures().isEmpty());
+		assertTrue(report.getStragglers().isEmpty());
+	}
+
+	@Test
+	public void testDeadline() throws InterruptedException {
+		final ShutdownCoordinator coordinator = new ShutdownCoordinator();
+		final CountDownLatch release = new CountDownLatch(1);
+		coordinator.register("hanging", () -> {
+			try {
+				release.await();
+			}
+			catch (final InterruptedException exc) {
+				// done
+			}
+		});
+		coordinator.register("quick", () -> {});
+		coordinator.register("broken", () -> {
+			throw new IllegalStateException("broken");
+		});
+		final ShutdownCoordinator.Report report = coordinator.shutdown(200);
+		release.countDown();
+		assertEquals(1, report.getFinished().size());
+		assertTrue(report.getFinished().containsKey("quick"));
+		assertTrue(report.getFailures().get(
+			"broken") instanceof IllegalStateException);
+		assertEquals(1, report.getStragglers().size());
+		assertTrue(report.describeStragglers().startsWith("hanging at "));
+		assertTrue(report.getElapsedMillis() < 5000);
+	}
+}
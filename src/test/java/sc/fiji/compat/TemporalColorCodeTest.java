@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.LUT;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link TemporalColorCode}.
+ */
+public class TemporalColorCodeTest {
+
+	@Test
+	public void testColours() {
+		final int[][] colours = TemporalColorCode.colours(ramp(), 4);
+		assertEquals(4, colours.length);
+		// frame 2 of 4 gets entry 128 of the LUT: red 128, blue 127
+		assertEquals(0x80007f, colours[2][255]);
+		assertEquals(0x400040, colours[2][128]);
+		assertEquals(0, colours[2][0]);
+	}
+
+	@Test
+	public void testFold() {
+		final int[][] colours = TemporalColorCode.colours(ramp(), 2);
+		final TemporalColorCode.Levels levels = new TemporalColorCode.Levels(8, 0,
+			255, true);
+		final int[] acc = new int[3];
+		TemporalColorCode.fold(new byte[] { (byte) 255, 0, (byte) 255 }, levels,
+			colours[0], acc, 0, 3);
+		TemporalColorCode.fold(new byte[] { 0, (byte) 255, (byte) 255 }, levels,
+			colours[1], acc, 0, 2);
+		assertArrayEquals(new int[] { 0x0000ff, 0x80007f, 0x0000ff }, acc);
+	}
+
+	@Test
+	public void testShortLevels() {
+		final int[][] colours = TemporalColorCode.colours(ramp(), 1);
+		final TemporalColorCode.Levels levels = new TemporalColorCode.Levels(16,
+			1000, 2023, true);
+		final int[] acc = new int[3];
+		TemporalColorCode.fold(new short[] { 500, 1512, 4000 }, levels, colours[0],
+			acc, 0, 3);
+		assertArrayEquals(new int[] { 0, 0x000080, 0x0000ff }, acc);
+	}
+
+	/** A LUT going from blue to red. */
+	private static LUT ramp() {
+		final byte[] reds = new byte[256], greens = new byte[256],
+				blues = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			reds[i] = (byte) i;
+			blues[i] = (byte) (255 - i);
+		}
+		return new LUT(reds, greens, blues);
+	}
+}
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.compat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ThreadMonitor}.
+ */
+public class ThreadMonitorTest {
+
+	@Test
+	public void testSample() throws InterruptedException {
+		final BackgroundTasks tasks = new BackgroundTasks("test");
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		tasks.run("waiting task", () -> {
+			running.countDown();
+			try {
+				release.await();
+			}
+			catch (final InterruptedException exc) {
+				// shut down
+			}
+		});
+		final Object lock = new Object();
+		final Thread blocked = new Thread(() -> {
+			synchronized (lock) {
+				// only here to be blocked
+			}
+		}, "blocked thread");
+		final ThreadMonitor monitor = new ThreadMonitor(tasks);
+		try {
+			running.await();
+			synchronized (lock) {
+				blocked.start();
+				while (blocked.getState() != Thread.State.BLOCKED)
+					Thread.sleep(10);
+
+				final ThreadMonitor.Snapshot snapshot = monitor.current(50);
+				assertNotNull(find(snapshot, Thread.currentThread().getName()));
+				final ThreadMonitor.ThreadSample sample = find(snapshot,
+					"blocked thread");
+				assertNotNull(sample);
+				assertEquals(Thread.State.BLOCKED, sample.getState());
+				assertNotNull(sample.getLockName());
+
+				ThreadMonitor.TaskSample task = null;
+				for (final ThreadMonitor.TaskSample t : snapshot.getTasks()) {
+					if (t.getName().equals("waiting task")) task = t;
+				}
+				assertNotNull(task);
+				assertEquals(Thread.State.WAITING, task.getState());
+				// a task's virtual thread is only reported as a task
+				if (task.isVirtual()) assertNull(find(snapshot, "waiting task"));
+				assertTrue(snapshot.toJSON().contains("\"name\":\"waiting task\""));
+				assertTrue(snapshot.toTSV().contains("\nwaiting task\t"));
+			}
+		}
+		finally {
+			release.countDown();
+			blocked.join();
+			tasks.shutdown(1000);
+		}
+	}
+
+	@Test
+	public void testSharedSampler() throws InterruptedException {
+		final BackgroundTasks tasks = new BackgroundTasks("test");
+		final ThreadMonitor monitor = new ThreadMonitor(tasks);
+		try {
+			monitor.acquire(20);
+			monitor.acquire(1000);
+			monitor.release();
+			// still held once, at the shorter interval
+			final ThreadMonitor.Snapshot first = monitor.awaitNext();
+			final ThreadMonitor.Snapshot second = monitor.awaitNext();
+			assertTrue(second.getTimestamp() >= first.getTimestamp());
+			monitor.release();
+		}
+		finally {
+			tasks.shutdown(1000);
+		}
+	}
+
+	private static ThreadMonitor.ThreadSample find(
+		final ThreadMonitor.Snapshot snapshot, final String name)
+	{
+		for (final ThreadMonitor.ThreadSample sample : snapshot.getThreads()) {
+			if (sample.getName().equals(name)) return sample;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link DaemonProtocol}.
+ */
+public class DaemonProtocolTest {
+
+	@Test
+	public void testPrivateDirectory() throws IOException {
+		final Path dir = Files.createTempDirectory("fiji-socket");
+		try {
+			Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString(
+				"rwx------"));
+			DaemonProtocol.prepareSocket(dir.resolve("test.sock"));
+
+			Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString(
+				"rwxrwxrwx"));
+			try {
+				DaemonProtocol.prepareSocket(dir.resolve("test.sock"));
+				fail("accepted a world-writable socket directory");
+			}
+			catch (final IOException exc) {
+				assertTrue(exc.getMessage().contains("0700"));
+			}
+		}
+		finally {
+			Files.delete(dir);
+		}
+	}
+}
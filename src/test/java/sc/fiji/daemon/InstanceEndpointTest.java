@@ -0,0 +1,74 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link InstanceEndpoint}.
+ */
+public class InstanceEndpointTest {
+
+	private static final String CWD = new File("/data").getPath();
+
+	@Test
+	public void testFiles() {
+		final List<InstanceEndpoint.Request> requests = InstanceEndpoint.parse(
+			CWD, new String[] { "a.tif", "--open", "/b.tif", "--no-splash",
+				"http://c/d.png" });
+		assertEquals(3, requests.size());
+		assertEquals(InstanceEndpoint.Kind.OPEN, requests.get(0).kind);
+		assertEquals(new File(CWD, "a.tif").getPath(), requests.get(0).target);
+		assertEquals(new File("/b.tif").getPath(), requests.get(1).target);
+		assertEquals("http://c/d.png", requests.get(2).target);
+	}
+
+	@Test
+	public void testRunAndEdit() {
+		final List<InstanceEndpoint.Request> requests = InstanceEndpoint.parse(
+			CWD, new String[] { "--run", "Blobs (25K)", "--edit", "x.py", "y.ijm",
+				"--edit", "--run", "Close All", "key=value" });
+		assertEquals(5, requests.size());
+		assertEquals(InstanceEndpoint.Kind.RUN, requests.get(0).kind);
+		assertEquals("Blobs (25K)", requests.get(0).target);
+		assertNull(requests.get(0).arg);
+		assertEquals(new File(CWD, "x.py").getPath(), requests.get(1).target);
+		assertEquals(new File(CWD, "y.ijm").getPath(), requests.get(2).target);
+		assertNull(requests.get(3).target);
+		assertEquals("key=value", requests.get(4).arg);
+	}
+
+	@Test
+	public void testNeedsNewInstance() {
+		assertNull(InstanceEndpoint.parse(CWD, new String[] { "--headless",
+			"a.tif" }));
+		assertNull(InstanceEndpoint.parse(CWD, new String[] { "--run" }));
+		assertEquals(0, InstanceEndpoint.parse(CWD, new String[0]).size());
+	}
+}
@@ -0,0 +1,73 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2007 - 2026 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.daemon;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link WorkerPool}.
+ */
+public class WorkerPoolTest {
+
+	@Test
+	public void testParseCpuList() {
+		assertEquals(Arrays.asList(0, 1, 2, 3, 8, 10, 11), WorkerPool
+			.parseCpuList("0-3,8,10-11\n"));
+	}
+
+	@Test
+	public void testSplitNodes() {
+		final List<List<Integer>> nodes = Arrays.asList(Arrays.asList(0, 1, 2, 3),
+			Arrays.asList(4, 5, 6, 7));
+		final List<WorkerPool.CoreGroup> groups = WorkerPool.plan(nodes, 4);
+		assertEquals(4, groups.size());
+		assertEquals(0, groups.get(1).node);
+		assertEquals(Arrays.asList(2, 3), groups.get(1).cpus);
+		assertEquals(1, groups.get(2).node);
+		assertEquals(Arrays.asList(4, 5), groups.get(2).cpus);
+	}
+
+	@Test
+	public void testMergeNodes() {
+		final List<List<Integer>> nodes = Arrays.asList(Arrays.asList(0, 1),
+			Arrays.asList(2, 3), Arrays.asList(4, 5), Arrays.asList(6, 7));
+		final List<WorkerPool.CoreGroup> groups = WorkerPool.plan(nodes, 2);
+		assertEquals(2, groups.size());
+		assertEquals(-1, groups.get(0).node);
+		assertEquals(Arrays.asList(4, 5, 6, 7), groups.get(1).cpus);
+	}
+
+	@Test
+	public void testSingleNode() {
+		final List<WorkerPool.CoreGroup> groups = WorkerPool.plan(Arrays.asList(
+			Arrays.asList(0, 1, 2)), 2);
+		assertEquals(-1, groups.get(0).node);
+		assertEquals(Arrays.asList(0), groups.get(0).cpus);
+		assertEquals(Arrays.asList(1, 2), groups.get(1).cpus);
+	}
+}